@@ -0,0 +1,77 @@
+package com.turvo.abcbanking.benchmark;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.turvo.abcbanking.model.Branch;
+import com.turvo.abcbanking.model.Counter;
+import com.turvo.abcbanking.model.CustomerType;
+import com.turvo.abcbanking.service.impl.BranchServiceImpl;
+
+/**
+ * BranchServiceImpl.getBestCounter over a cached branch
+ *
+ * Branch is put into service's branch cache directly, no repositories are involved in the benchmarked path.
+ * Routing alone and routing followed by queueing a token on the chosen counter (which re-orders the routing heap) are measured.
+ *
+ * @author Prabal Ghura
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BestCounterBenchmark {
+
+	@Param({"4", "16", "64"})
+	int counters;
+
+	@Param({"1", "100", "1000"})
+	int queueDepth;
+
+	private BranchServiceImpl branchService;
+
+	@Setup(Level.Trial)
+	public void setUp() throws ReflectiveOperationException {
+		Branch branch = BranchFixture.branch(counters, queueDepth);
+		branchService = new BranchServiceImpl();
+		Field branches = BranchServiceImpl.class.getDeclaredField("branches");
+		branches.setAccessible(true);
+		@SuppressWarnings("unchecked")
+		Map<Long, Branch> cache = (Map<Long, Branch>) branches.get(branchService);
+		cache.put(branch.getId(), branch);
+	}
+
+	@Benchmark
+	public Counter getBestCounter() {
+		return branchService.getBestCounter(BranchFixture.BRANCH_ID, CustomerType.REGULAR, BranchFixture.STEP_ID);
+	}
+
+	/**
+	 * Best counter serves its head token which is routed again, queue depths stay constant
+	 *
+	 * @return chosen counter
+	 */
+	@Benchmark
+	public Counter routeToken() {
+		Counter counter = branchService.getBestCounter(BranchFixture.BRANCH_ID, CustomerType.REGULAR, BranchFixture.STEP_ID);
+		counter.addToken(counter.pullToken());
+		return counter;
+	}
+}
@@ -0,0 +1,53 @@
+package com.turvo.abcbanking.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.turvo.abcbanking.model.Branch;
+import com.turvo.abcbanking.model.Counter;
+
+/**
+ * Branch.getCounters, the merged counter list served for branch JSON responses
+ *
+ * @author Prabal Ghura
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BranchCountersBenchmark {
+
+	@Param({"4", "16", "64"})
+	int counters;
+
+	@Param({"1", "100", "1000"})
+	int queueDepth;
+
+	private Branch branch;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		branch = BranchFixture.branch(counters, queueDepth);
+	}
+
+	@Benchmark
+	public List<Counter> getCounters() {
+		return branch.getCounters();
+	}
+}
@@ -0,0 +1,116 @@
+package com.turvo.abcbanking.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.turvo.abcbanking.model.Branch;
+import com.turvo.abcbanking.model.Counter;
+import com.turvo.abcbanking.model.CustomerType;
+import com.turvo.abcbanking.model.ServiceStep;
+import com.turvo.abcbanking.model.Token;
+import com.turvo.abcbanking.model.TokenStatus;
+import com.turvo.abcbanking.model.TokenWorkflow;
+import com.turvo.abcbanking.model.TokenWorklowStatus;
+
+/**
+ * Builds in memory branches (no DB, no Spring context) for benchmarks
+ *
+ * Every counter serves the same service step, so that all counters of a customer type compete in a single routing heap,
+ * and is filled with queueDepth tokens numbered uniquely across the branch.
+ *
+ * @author Prabal Ghura
+ *
+ */
+public final class BranchFixture {
+
+	public static final Long BRANCH_ID = 1L;
+
+	public static final Long STEP_ID = 1L;
+
+	private BranchFixture() {
+	}
+
+	/**
+	 * Branch with passed number of regular counters, each holding passed number of tokens
+	 *
+	 * @param counters
+	 * @param queueDepth
+	 * @return branch
+	 */
+	public static Branch branch(int counters, int queueDepth) {
+		Branch branch = new Branch();
+		branch.setId(BRANCH_ID);
+		branch.setName("Benchmark branch");
+		int tokenNumber = 0;
+		List<Counter> counterList = new ArrayList<>();
+		for(int i = 1; i <= counters; i++) {
+			Counter counter = counter(i, CustomerType.REGULAR);
+			for(int j = 0; j < queueDepth; j++)
+				counter.addToken(token(++tokenNumber, 1));
+			counterList.add(counter);
+		}
+		branch.setCounters(counterList);
+		branch.setTokenNumber(tokenNumber);
+		return branch;
+	}
+
+	/**
+	 * Counter serving benchmark step
+	 *
+	 * @param number
+	 * @param type
+	 * @return counter
+	 */
+	public static Counter counter(int number, CustomerType type) {
+		ServiceStep step = new ServiceStep();
+		step.setId(STEP_ID);
+		step.setName("Benchmark step");
+		Counter counter = new Counter();
+		counter.setId((long) number);
+		counter.setBranchId(BRANCH_ID);
+		counter.setNumber(number);
+		counter.setServicingType(type);
+		counter.setSteps(new ArrayList<>(Arrays.asList(step)));
+		return counter;
+	}
+
+	/**
+	 * Token with passed number of workflow steps, first step is assigned rest are pending
+	 *
+	 * @param number
+	 * @param steps
+	 * @return token
+	 */
+	public static Token token(int number, int steps) {
+		Token token = new Token();
+		token.setId((long) number);
+		token.setNumber(number);
+		token.setAccountNumber((long) number);
+		token.setBranchId(BRANCH_ID);
+		token.setType(CustomerType.REGULAR);
+		token.setStatus(TokenStatus.PENDING);
+		List<TokenWorkflow> workflow = new ArrayList<>(steps);
+		for(int i = 0; i < steps; i++) {
+			TokenWorkflow step = new TokenWorkflow();
+			step.setId((long) number * steps + i);
+			step.setTokenId(token.getId());
+			step.setStepId(STEP_ID + i);
+			workflow.add(step);
+		}
+		token.setSteps(workflow);
+		resetWorkflow(token);
+		return token;
+	}
+
+	/**
+	 * Puts token workflow back to its initial state (first step assigned, rest pending)
+	 *
+	 * @param token
+	 */
+	public static void resetWorkflow(Token token) {
+		List<TokenWorkflow> workflow = token.getSteps();
+		for(int i = 0; i < workflow.size(); i++)
+			workflow.get(i).setStatus(i == 0 ? TokenWorklowStatus.ASSIGNED : TokenWorklowStatus.PENDING);
+	}
+}
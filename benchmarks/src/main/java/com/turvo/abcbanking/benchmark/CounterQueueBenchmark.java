@@ -0,0 +1,88 @@
+package com.turvo.abcbanking.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.turvo.abcbanking.model.Branch;
+import com.turvo.abcbanking.model.Counter;
+import com.turvo.abcbanking.model.Token;
+
+/**
+ * Counter queue operations: addToken, pullToken, hasToken & removeToken
+ *
+ * Queue depth is kept constant across invocations: pulled/removed tokens are added back to the queue tail,
+ * so every operation pays for token & routing index maintenance exactly like in a live branch.
+ *
+ * @author Prabal Ghura
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CounterQueueBenchmark {
+
+	@Param({"4", "16", "64"})
+	int counters;
+
+	@Param({"1", "100", "1000"})
+	int queueDepth;
+
+	private Counter counter;
+
+	/**
+	 * Number of a token queued in the middle of benchmarked counter
+	 */
+	private Integer middleTokenNumber;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Branch branch = BranchFixture.branch(counters, queueDepth);
+		counter = branch.getCounter(1);
+		middleTokenNumber = queueDepth / 2 + 1;
+	}
+
+	/**
+	 * Head token is pulled and queued again at tail (one addToken & one pullToken)
+	 *
+	 * @return rotated token
+	 */
+	@Benchmark
+	public Token pullAndAddToken() {
+		Token token = counter.pullToken();
+		counter.addToken(token);
+		return token;
+	}
+
+	@Benchmark
+	public Token hasToken() {
+		return counter.hasToken(middleTokenNumber);
+	}
+
+	/**
+	 * Token is removed from middle of the queue and queued again at tail (one removeToken & one addToken)
+	 *
+	 * @return removed token
+	 */
+	@Benchmark
+	public Token removeAndAddToken() {
+		Token token = counter.hasToken(middleTokenNumber);
+		counter.removeToken(token);
+		counter.addToken(token);
+		return token;
+	}
+}
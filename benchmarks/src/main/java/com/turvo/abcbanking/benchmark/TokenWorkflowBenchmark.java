@@ -0,0 +1,59 @@
+package com.turvo.abcbanking.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.turvo.abcbanking.model.Token;
+import com.turvo.abcbanking.model.TokenWorkflow;
+
+/**
+ * Token.serviceAndGetNextPendingWorkFlowStep
+ *
+ * A benchmark operation serves a token through its whole workflow (one call per step plus the final call
+ * returning no next step), workflow is reset in place afterwards so no allocation is added to the measurement.
+ *
+ * @author Prabal Ghura
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenWorkflowBenchmark {
+
+	@Param({"1", "4", "16"})
+	int workflowSteps;
+
+	private Token token;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		token = BranchFixture.token(1, workflowSteps);
+	}
+
+	@Benchmark
+	public void serviceWholeWorkflow(Blackhole blackhole) {
+		List<TokenWorkflow> steps;
+		do {
+			steps = token.serviceAndGetNextPendingWorkFlowStep("served", "operator");
+			blackhole.consume(steps);
+		} while(!steps.isEmpty());
+		BranchFixture.resetWorkflow(token);
+	}
+}
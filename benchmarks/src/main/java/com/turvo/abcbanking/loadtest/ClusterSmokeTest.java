@@ -0,0 +1,133 @@
+package com.turvo.abcbanking.loadtest;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestTemplate;
+
+import com.turvo.abcbanking.AbcBankingRestServerApplication;
+import com.turvo.abcbanking.model.Branch;
+import com.turvo.abcbanking.model.CustomerType;
+import com.turvo.abcbanking.service.BranchService;
+import com.turvo.abcbanking.utils.BranchSharding;
+
+/**
+ * Multi node check of branch sharding, boots several server instances in one JVM on different ports 
+ * sharing one in memory H2 DB (MySQL mode), all listing each other as cluster members.
+ *
+ * Branches are seeded through first node, then a token is issued for every branch through a node chosen round robin
+ * (mostly not the owner, so request is forwarded) and every branch's queue is read through every node.
+ * Check fails unless every branch has exactly one owner, nodes cache only branches they own 
+ * and all nodes return same queue (holding the issued token) for every branch.
+ *
+ * Usage: java -cp benchmarks.jar com.turvo.abcbanking.loadtest.ClusterSmokeTest [--nodes=3] [--branches=8]
+ *
+ * @author Prabal Ghura
+ *
+ */
+public class ClusterSmokeTest {
+
+	public static void main(String[] args) throws IOException {
+		Map<String, String> values = new HashMap<>();
+		for(String arg: args) {
+			if(!arg.startsWith("--") || !arg.contains("="))
+				throw new IllegalArgumentException("Expected --name=value but got " + arg);
+			values.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+		}
+		int nodeCount = Integer.parseInt(values.getOrDefault("nodes", "3"));
+		int branchCount = Integer.parseInt(values.getOrDefault("branches", "8"));
+
+		List<Integer> ports = new ArrayList<>();
+		for(int i = 0; i < nodeCount; i++)
+			ports.add(freePort());
+		StringBuilder members = new StringBuilder();
+		ports.forEach(port -> members.append(members.length() == 0 ? "" : ",").append(url(port)));
+
+		List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+		boolean passed = false;
+		try {
+			for(int i = 0; i < nodeCount; i++)
+				nodes.add(new SpringApplicationBuilder(AbcBankingRestServerApplication.class).run(
+						"--server.port=" + ports.get(i),
+						"--abcbanking.cluster.self=" + url(ports.get(i)),
+						"--abcbanking.cluster.nodes=" + members,
+						"--spring.datasource.url=jdbc:h2:mem:cluster;MODE=MySQL;DB_CLOSE_DELAY=-1",
+						"--spring.datasource.username=sa",
+						"--spring.datasource.password=cluster",
+						"--spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+						// schema is created by first node only
+						"--spring.jpa.hibernate.ddl-auto=" + (i == 0 ? "create-drop" : "none"),
+						"--logging.level.root=WARN"));
+			LoadTestSeeder seeder = new LoadTestSeeder(nodes.get(0));
+			seeder.seed(branchCount, 2, 10, 0);
+			passed = check(nodes, ports, seeder);
+		} finally {
+			for(int i = nodes.size() - 1; i >= 0; i--)
+				nodes.get(i).close();
+		}
+		System.out.println(passed ? "Cluster smoke test passed" : "Cluster smoke test FAILED");
+		if(!passed)
+			System.exit(1);
+	}
+
+	private static boolean check(List<ConfigurableApplicationContext> nodes, List<Integer> ports, LoadTestSeeder seeder) {
+		RestTemplate restTemplate = new RestTemplate();
+		boolean passed = true;
+		List<Long> branchIds = seeder.getBranchIds();
+		Long accountNumber = seeder.getAccounts(CustomerType.REGULAR).get(0);
+		List<Map<String, Object>> services = Collections.singletonList(Collections.singletonMap("id", seeder.getServiceIds().get(0)));
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		for(int i = 0; i < branchIds.size(); i++) {
+			Long branchId = branchIds.get(i);
+			restTemplate.postForObject(url(ports.get(i % ports.size())) + "/api/branches/" + branchId + "/customer/" + accountNumber 
+					+ "/token", new HttpEntity<>(services, headers), Map.class);
+		}
+
+		System.out.printf("%-10s %-28s %s%n", "Branch", "Owner", "Queue (same through every node)");
+		for(Long branchId: branchIds) {
+			List<String> owners = new ArrayList<>();
+			for(int i = 0; i < nodes.size(); i++) {
+				if(nodes.get(i).getBean(BranchSharding.class).isLocal(branchId))
+					owners.add(url(ports.get(i)));
+			}
+			List<String> queues = new ArrayList<>();
+			for(Integer port: ports)
+				queues.add(restTemplate.getForObject(url(port) + "/api/branches/" + branchId + "/queue", String.class));
+			boolean consistent = queues.stream().distinct().count() == 1 && queues.get(0).contains("\"depth\":1");
+			System.out.printf("%-10s %-28s %s%n", branchId, owners, consistent ? queues.get(0) : "MISMATCH " + queues);
+			passed &= owners.size() == 1 && consistent;
+		}
+
+		for(int i = 0; i < nodes.size(); i++) {
+			BranchSharding sharding = nodes.get(i).getBean(BranchSharding.class);
+			List<Long> cached = new ArrayList<>();
+			for(Branch branch: nodes.get(i).getBean(BranchService.class).getAllBranches())
+				cached.add(branch.getId());
+			boolean owned = cached.stream().allMatch(sharding::isLocal);
+			System.out.println("Node " + url(ports.get(i)) + " caches " + cached + (owned ? "" : " INCLUDING NOT OWNED BRANCHES"));
+			passed &= owned;
+		}
+		return passed;
+	}
+
+	private static String url(Integer port) {
+		return "http://localhost:" + port;
+	}
+
+	private static int freePort() throws IOException {
+		try(ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+}
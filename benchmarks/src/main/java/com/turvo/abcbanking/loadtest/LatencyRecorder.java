@@ -0,0 +1,57 @@
+package com.turvo.abcbanking.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Records every latency sample (in microseconds) of one endpoint outcome, percentiles are exact
+ *
+ * Samples are appended under the recorder's lock into a growing array, a load test run records at most
+ * a few million samples so keeping all of them is cheaper than being wrong about tail latencies.
+ *
+ * @author Prabal Ghura
+ *
+ */
+public class LatencyRecorder {
+
+	private long[] samples = new long[1024];
+
+	private int count;
+
+	public synchronized void record(long latencyMicros) {
+		if(count == samples.length)
+			samples = Arrays.copyOf(samples, count * 2);
+		samples[count++] = latencyMicros;
+	}
+
+	/**
+	 * Drops recorded samples (end of warm up)
+	 */
+	public synchronized void reset() {
+		count = 0;
+	}
+
+	/**
+	 * Sorted copy of recorded samples
+	 *
+	 * @return samples
+	 */
+	public synchronized long[] snapshot() {
+		long[] sorted = Arrays.copyOf(samples, count);
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	/**
+	 * Sample at passed percentile of a sorted snapshot (nearest rank)
+	 *
+	 * @param sorted
+	 * @param percentile between 0 and 100
+	 * @return latency, 0 if there are no samples
+	 */
+	public static long percentile(long[] sorted, double percentile) {
+		if(sorted.length == 0)
+			return 0;
+		int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+		return sorted[Math.min(sorted.length, Math.max(1, rank)) - 1];
+	}
+}
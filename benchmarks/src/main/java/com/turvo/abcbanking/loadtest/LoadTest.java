@@ -0,0 +1,338 @@
+package com.turvo.abcbanking.loadtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import com.turvo.abcbanking.AbcBankingRestServerApplication;
+import com.turvo.abcbanking.model.Counter;
+import com.turvo.abcbanking.model.CustomerType;
+import com.turvo.abcbanking.service.BranchService;
+import com.turvo.abcbanking.utils.ApplicationConstants;
+
+/**
+ * End to end load generator, boots the server against an in memory H2 DB (MySQL mode), seeds it and drives
+ * token issuance, counter service & token completion over HTTP, then reports throughput & latency per endpoint.
+ *
+ * Customers arrive at every branch as a Poisson process (open loop, latency is measured from scheduled arrival time
+ * so a slow server can't hide queueing delay), request one or two services and leave the queue before being served
+ * with a configured probability after an exponentially distributed patience (manager marks their token completed).
+ * Every counter has an operator serving tokens back to back with log-normally distributed service times, polling
+ * again after a short pause when its queue is empty.
+ *
+ * Usage: java -cp benchmarks.jar com.turvo.abcbanking.loadtest.LoadTest [--option=value ...], see {@link Options}.
+ *
+ * @author Prabal Ghura
+ *
+ */
+public class LoadTest {
+
+	private static final String NEW_CUSTOMER_TOKEN = "POST /branches/{id}/token";
+
+	private static final String EXISTING_CUSTOMER_TOKEN = "POST /branches/{id}/customer/{accountNumber}/token";
+
+	private static final String SERVICE = "POST /branches/{id}/counters/{counterId}/service";
+
+	private static final String COMPLETE = "POST /branches/{id}/token/{tokenId}/complete";
+
+	/**
+	 * Load test settings, passed as --name=value
+	 */
+	static final class Options {
+		int branches = 2;
+		int counters = 4;
+		int customers = 1000;
+		int warmupSeconds = 10;
+		int durationSeconds = 60;
+		double arrivalRate = 20;
+		double serviceTimeMs = 150;
+		double serviceTimeSigma = 0.5;
+		long idlePollMs = 20;
+		double abandonRatio = 0.05;
+		double patienceMs = 2000;
+		double newCustomerRatio = 0.2;
+		double premiumRatio = 0.2;
+		double twoServiceRatio = 0.3;
+		int clients = 64;
+		long seed = 42;
+		boolean mailbox = false;
+
+		static Options parse(String[] args) {
+			Map<String, String> values = new HashMap<>();
+			for(String arg: args) {
+				if(!arg.startsWith("--") || !arg.contains("="))
+					throw new IllegalArgumentException("Expected --name=value but got " + arg);
+				values.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+			}
+			Options options = new Options();
+			options.branches = Integer.parseInt(values.getOrDefault("branches", "" + options.branches));
+			options.counters = Integer.parseInt(values.getOrDefault("counters", "" + options.counters));
+			options.customers = Integer.parseInt(values.getOrDefault("customers", "" + options.customers));
+			options.warmupSeconds = Integer.parseInt(values.getOrDefault("warmup", "" + options.warmupSeconds));
+			options.durationSeconds = Integer.parseInt(values.getOrDefault("duration", "" + options.durationSeconds));
+			options.arrivalRate = Double.parseDouble(values.getOrDefault("arrival-rate", "" + options.arrivalRate));
+			options.serviceTimeMs = Double.parseDouble(values.getOrDefault("service-time-ms", "" + options.serviceTimeMs));
+			options.serviceTimeSigma = Double.parseDouble(values.getOrDefault("service-time-sigma", "" + options.serviceTimeSigma));
+			options.idlePollMs = Long.parseLong(values.getOrDefault("idle-poll-ms", "" + options.idlePollMs));
+			options.abandonRatio = Double.parseDouble(values.getOrDefault("abandon-ratio", "" + options.abandonRatio));
+			options.patienceMs = Double.parseDouble(values.getOrDefault("patience-ms", "" + options.patienceMs));
+			options.newCustomerRatio = Double.parseDouble(values.getOrDefault("new-customer-ratio", "" + options.newCustomerRatio));
+			options.premiumRatio = Double.parseDouble(values.getOrDefault("premium-ratio", "" + options.premiumRatio));
+			options.twoServiceRatio = Double.parseDouble(values.getOrDefault("two-service-ratio", "" + options.twoServiceRatio));
+			options.clients = Integer.parseInt(values.getOrDefault("clients", "" + options.clients));
+			options.seed = Long.parseLong(values.getOrDefault("seed", "" + options.seed));
+			options.mailbox = Boolean.parseBoolean(values.getOrDefault("mailbox", "" + options.mailbox));
+			return options;
+		}
+
+		@Override
+		public String toString() {
+			return "branches=" + branches + ", counters/type=" + counters + ", customers=" + customers
+					+ ", arrival-rate/branch=" + arrivalRate + "/s, service-time=" + serviceTimeMs + "ms (sigma " + serviceTimeSigma
+					+ "), abandon-ratio=" + abandonRatio + ", patience=" + patienceMs + "ms, new-customer-ratio=" + newCustomerRatio
+					+ ", premium-ratio=" + premiumRatio + ", clients=" + clients + ", mailbox=" + mailbox + ", warmup=" + warmupSeconds + "s, duration=" + durationSeconds + "s";
+		}
+	}
+
+	private final Options options;
+
+	private final LoadTestSeeder seeder;
+
+	private final List<Counter> counters;
+
+	private final String baseUrl;
+
+	private final RestTemplate restTemplate;
+
+	private final Map<String, LatencyRecorder> recorders = new ConcurrentHashMap<>();
+
+	private final ExecutorService clients;
+
+	private final ScheduledExecutorService abandonments;
+
+	private final List<Thread> drivers = new ArrayList<>();
+
+	private volatile boolean running = true;
+
+	public LoadTest(Options options, LoadTestSeeder seeder, List<Counter> counters, String baseUrl) {
+		this.options = options;
+		this.seeder = seeder;
+		this.counters = counters;
+		this.baseUrl = baseUrl;
+		SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+		requestFactory.setConnectTimeout(5000);
+		requestFactory.setReadTimeout(30000);
+		this.restTemplate = new RestTemplate(requestFactory);
+		this.clients = Executors.newFixedThreadPool(options.clients, daemon("load-client"));
+		this.abandonments = Executors.newScheduledThreadPool(2, daemon("load-abandon"));
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		Options options = Options.parse(args);
+		ConfigurableApplicationContext context = new SpringApplicationBuilder(AbcBankingRestServerApplication.class).run(
+				"--server.port=0",
+				"--spring.datasource.url=jdbc:h2:mem:loadtest;MODE=MySQL;DB_CLOSE_DELAY=-1",
+				"--spring.datasource.username=sa",
+				"--spring.datasource.password=loadtest",
+				"--spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+				"--spring.jpa.hibernate.ddl-auto=create-drop",
+				"--logging.level.root=WARN",
+				"--abcbanking.mailbox.enabled=" + options.mailbox,
+				// expected business failures (empty queue, token already served) are counted by the harness, not logged
+				"--logging.level.org.apache.catalina.core=OFF");
+		try {
+			LoadTestSeeder seeder = new LoadTestSeeder(context);
+			seeder.seed(options.branches, options.counters, options.customers, options.premiumRatio);
+			BranchService branchService = context.getBean(BranchService.class);
+			List<Counter> counters = new ArrayList<>();
+			seeder.getBranchIds().forEach(branchId -> counters.addAll(branchService.getBranch(branchId).getCounters()));
+			String baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/api";
+
+			System.out.println("Load test: " + options);
+			new LoadTest(options, seeder, counters, baseUrl).run();
+		} finally {
+			context.close();
+		}
+	}
+
+	/**
+	 * Starts arrival & operator drivers, discards samples recorded during warm up and reports measured window
+	 *
+	 * @throws InterruptedException
+	 */
+	public void run() throws InterruptedException {
+		for(Long branchId: seeder.getBranchIds())
+			start("arrivals-" + branchId, () -> arrivals(branchId));
+		for(Counter counter: counters)
+			start("operator-" + counter.getBranchId() + "-" + counter.getNumber(), () -> operate(counter));
+
+		TimeUnit.SECONDS.sleep(options.warmupSeconds);
+		recorders.values().forEach(LatencyRecorder::reset);
+		long start = System.nanoTime();
+		TimeUnit.SECONDS.sleep(options.durationSeconds);
+		long elapsed = System.nanoTime() - start;
+		Map<String, long[]> snapshots = new TreeMap<>();
+		recorders.forEach((name, recorder) -> snapshots.put(name, recorder.snapshot()));
+
+		running = false;
+		for(Thread driver: drivers)
+			driver.join();
+		abandonments.shutdownNow();
+		clients.shutdown();
+		clients.awaitTermination(30, TimeUnit.SECONDS);
+		report(snapshots, elapsed);
+	}
+
+	/**
+	 * Poisson arrivals for a branch, requests are sent from client pool
+	 *
+	 * @param branchId
+	 */
+	private void arrivals(Long branchId) {
+		Random random = new Random(options.seed + branchId);
+		long next = System.nanoTime();
+		while(running) {
+			next += (long) (-Math.log(1 - random.nextDouble()) / options.arrivalRate * 1e9);
+			long delay = next - System.nanoTime();
+			if(delay > 0)
+				LockSupport.parkNanos(delay);
+			final long scheduled = next;
+			clients.execute(() -> issueToken(branchId, scheduled));
+		}
+	}
+
+	private void issueToken(Long branchId, long scheduled) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		CustomerType type = random.nextDouble() < options.premiumRatio ? CustomerType.PREMIUM : CustomerType.REGULAR;
+		List<Map<String, Object>> services = new ArrayList<>();
+		List<Long> serviceIds = new ArrayList<>(seeder.getServiceIds());
+		Collections.shuffle(serviceIds, random);
+		for(int i = 0; i < (random.nextDouble() < options.twoServiceRatio ? 2 : 1); i++)
+			services.add(Collections.singletonMap("id", serviceIds.get(i)));
+
+		List<Long> accounts = seeder.getAccounts(type);
+		Map<?, ?> token;
+		if(accounts.isEmpty() || random.nextDouble() < options.newCustomerRatio) {
+			Map<String, Object> customer = new HashMap<>();
+			customer.put("name", "Walk-in customer");
+			customer.put("type", type.name());
+			Map<String, Object> container = new HashMap<>();
+			container.put("customer", customer);
+			container.put("services", services);
+			token = call(NEW_CUSTOMER_TOKEN, scheduled, () -> post("/branches/" + branchId + "/token", null, container, Map.class));
+		} else {
+			Long accountNumber = accounts.get(random.nextInt(accounts.size()));
+			token = call(EXISTING_CUSTOMER_TOKEN, scheduled,
+					() -> post("/branches/" + branchId + "/customer/" + accountNumber + "/token", null, services, Map.class));
+		}
+		if(token != null && random.nextDouble() < options.abandonRatio) {
+			Object tokenNumber = token.get("number");
+			long patience = (long) (-Math.log(1 - random.nextDouble()) * options.patienceMs);
+			abandonments.schedule(() -> clients.execute(() -> call(COMPLETE, System.nanoTime(), () -> post("/branches/" + branchId
+					+ "/token/" + tokenNumber + "/complete", seeder.getManagerId(branchId), "", String.class))), patience, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Operator loop of a counter (closed loop)
+	 *
+	 * @param counter
+	 */
+	private void operate(Counter counter) {
+		Random random = new Random(options.seed * 31 + counter.getId());
+		double mu = Math.log(options.serviceTimeMs) - options.serviceTimeSigma * options.serviceTimeSigma / 2;
+		String operatorId = LoadTestSeeder.operatorId(counter.getBranchId(), counter.getNumber());
+		String path = "/branches/" + counter.getBranchId() + "/counters/" + counter.getNumber() + "/service";
+		while(running) {
+			String served = call(SERVICE, System.nanoTime(), () -> post(path, operatorId, "served", String.class));
+			long pause = served != null ? (long) Math.exp(mu + options.serviceTimeSigma * random.nextGaussian()) : options.idlePollMs;
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(pause));
+		}
+	}
+
+	private <T> T post(String path, String userId, Object body, Class<T> responseType) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(body instanceof String ? MediaType.TEXT_PLAIN : MediaType.APPLICATION_JSON);
+		if(userId != null)
+			headers.set("userId", userId);
+		return restTemplate.postForObject(baseUrl + path, new HttpEntity<>(body, headers), responseType);
+	}
+
+	/**
+	 * Executes a request and records its latency under endpoint & outcome,
+	 * expected business failures (empty counter queue, token already served) are recorded separately from errors
+	 *
+	 * @param endpoint
+	 * @param start nano time from which latency is measured
+	 * @param request
+	 * @return response, null on failure
+	 */
+	private <T> T call(String endpoint, long start, Supplier<T> request) {
+		String outcome = endpoint;
+		T response = null;
+		try {
+			response = request.get();
+		} catch (HttpStatusCodeException e) {
+			String body = e.getResponseBodyAsString();
+			if(body.contains(ApplicationConstants.ERR_EMPTY_COUNTER_QUEUE))
+				outcome += " [empty queue]";
+			else if(body.contains(ApplicationConstants.ERR_TOKEN_NOT_EXIST))
+				outcome += " [already served]";
+			else
+				outcome += " [error " + e.getStatusCode() + "]";
+		} catch (RestClientException e) {
+			outcome += " [error " + e.getClass().getSimpleName() + "]";
+		}
+		long latency = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+		recorders.computeIfAbsent(outcome, name -> new LatencyRecorder()).record(latency);
+		return response;
+	}
+
+	private void report(Map<String, long[]> snapshots, long elapsedNanos) {
+		double seconds = elapsedNanos / 1e9;
+		System.out.println();
+		System.out.println(String.format("%-72s %9s %10s %10s %10s %10s %10s", "Endpoint", "Count", "Req/s", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+		snapshots.forEach((name, samples) -> System.out.println(String.format("%-72s %9d %10.1f %10.3f %10.3f %10.3f %10.3f", name,
+				samples.length, samples.length / seconds, LatencyRecorder.percentile(samples, 50) / 1000.0,
+				LatencyRecorder.percentile(samples, 99) / 1000.0, LatencyRecorder.percentile(samples, 99.9) / 1000.0,
+				LatencyRecorder.percentile(samples, 100) / 1000.0)));
+	}
+
+	private void start(String name, Runnable driver) {
+		Thread thread = new Thread(driver, name);
+		thread.setDaemon(true);
+		drivers.add(thread);
+		thread.start();
+	}
+
+	private static ThreadFactory daemon(String name) {
+		return runnable -> {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
@@ -0,0 +1,193 @@
+package com.turvo.abcbanking.loadtest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.context.ApplicationContext;
+
+import com.turvo.abcbanking.model.Branch;
+import com.turvo.abcbanking.model.Counter;
+import com.turvo.abcbanking.model.CounterXServiceStep;
+import com.turvo.abcbanking.model.Customer;
+import com.turvo.abcbanking.model.CustomerType;
+import com.turvo.abcbanking.model.Service;
+import com.turvo.abcbanking.model.ServiceStep;
+import com.turvo.abcbanking.model.ServiceXServiceStep;
+import com.turvo.abcbanking.model.User;
+import com.turvo.abcbanking.repository.BranchRepository;
+import com.turvo.abcbanking.repository.CounterRepository;
+import com.turvo.abcbanking.repository.CounterXServiceStepRepository;
+import com.turvo.abcbanking.repository.CustomerRepository;
+import com.turvo.abcbanking.repository.ServiceRepository;
+import com.turvo.abcbanking.repository.ServiceStepRepository;
+import com.turvo.abcbanking.repository.ServiceXServiceStepRepository;
+import com.turvo.abcbanking.repository.UserRepository;
+import com.turvo.abcbanking.service.BranchService;
+
+/**
+ * Seeds embedded DB of a booted server through its repositories and reloads branch cache
+ *
+ * Every branch gets a manager and, per customer type, a number of counters each with its own operator.
+ * Service steps are spread over counters (two steps per counter, wrapping around) so that every step is served
+ * by more than one counter when there are enough counters, services are workflows of one to three steps.
+ *
+ * @author Prabal Ghura
+ *
+ */
+public class LoadTestSeeder {
+
+	private static final String SEEDER = "load-test";
+
+	private static final String[] STEP_NAMES = {"Cash deposit", "Cash withdrawal", "Enquiry", "Document verification"};
+
+	/**
+	 * Service workflows as indexes into STEP_NAMES
+	 */
+	private static final int[][] WORKFLOWS = {{0}, {1}, {2}, {3, 0}, {2, 3, 1}};
+
+	private final ApplicationContext context;
+
+	private final List<Long> branchIds = new ArrayList<>();
+
+	private final Map<Long, String> managerIds = new HashMap<>();
+
+	private final List<Long> serviceIds = new ArrayList<>();
+
+	private final List<Long> regularAccounts = new ArrayList<>();
+
+	private final List<Long> premiumAccounts = new ArrayList<>();
+
+	public LoadTestSeeder(ApplicationContext context) {
+		this.context = context;
+	}
+
+	/**
+	 * Seeds branches, counters, operators, service steps, services & customers
+	 *
+	 * @param branches
+	 * @param countersPerType counters per branch per customer type
+	 * @param customers
+	 * @param premiumRatio share of premium customers
+	 */
+	public void seed(int branches, int countersPerType, int customers, double premiumRatio) {
+		List<Long> stepIds = seedSteps();
+		seedServices(stepIds);
+		for(int b = 1; b <= branches; b++)
+			seedBranch(b, countersPerType, stepIds);
+		seedCustomers(customers, premiumRatio);
+		context.getBean(BranchService.class).reloadEntireCache();
+	}
+
+	public List<Long> getBranchIds() {
+		return branchIds;
+	}
+
+	public List<Long> getServiceIds() {
+		return serviceIds;
+	}
+
+	public List<Long> getAccounts(CustomerType type) {
+		return type == CustomerType.PREMIUM ? premiumAccounts : regularAccounts;
+	}
+
+	public String getManagerId(Long branchId) {
+		return managerIds.get(branchId);
+	}
+
+	public static String operatorId(Long branchId, Integer counterNumber) {
+		return "operator-" + branchId + "-" + counterNumber;
+	}
+
+	private List<Long> seedSteps() {
+		ServiceStepRepository repository = context.getBean(ServiceStepRepository.class);
+		List<Long> stepIds = new ArrayList<>();
+		for(String name: STEP_NAMES) {
+			ServiceStep step = new ServiceStep();
+			step.setName(name);
+			step.setCreatedBy(SEEDER);
+			stepIds.add(repository.save(step).getId());
+		}
+		return stepIds;
+	}
+
+	private void seedServices(List<Long> stepIds) {
+		ServiceRepository serviceRepository = context.getBean(ServiceRepository.class);
+		ServiceXServiceStepRepository workflowRepository = context.getBean(ServiceXServiceStepRepository.class);
+		for(int[] workflow: WORKFLOWS) {
+			Service service = new Service();
+			service.setName("Service " + (serviceIds.size() + 1));
+			service.setCreatedBy(SEEDER);
+			service = serviceRepository.save(service);
+			for(int order = 0; order < workflow.length; order++) {
+				ServiceXServiceStep step = new ServiceXServiceStep();
+				step.setServiceId(service.getId());
+				step.setStepId(stepIds.get(workflow[order]));
+				step.setOrder(order + 1);
+				step.setCreatedBy(SEEDER);
+				workflowRepository.save(step);
+			}
+			serviceIds.add(service.getId());
+		}
+	}
+
+	private void seedBranch(int index, int countersPerType, List<Long> stepIds) {
+		Branch branch = new Branch();
+		branch.setName("Load test branch " + index);
+		branch.setManagerId("manager-" + index);
+		branch.setLastModifiedBy(SEEDER);
+		seedUser(branch.getManagerId());
+		branch = context.getBean(BranchRepository.class).save(branch);
+		branchIds.add(branch.getId());
+		managerIds.put(branch.getId(), branch.getManagerId());
+
+		int number = 0;
+		for(CustomerType type: CustomerType.values()) {
+			for(int i = 0; i < countersPerType; i++)
+				seedCounter(branch.getId(), ++number, type, countersPerType < stepIds.size() ? stepIds :
+					pickSteps(stepIds, i));
+		}
+	}
+
+	private static List<Long> pickSteps(List<Long> stepIds, int counterIndex) {
+		List<Long> steps = new ArrayList<>();
+		steps.add(stepIds.get(counterIndex % stepIds.size()));
+		steps.add(stepIds.get((counterIndex + 1) % stepIds.size()));
+		return steps;
+	}
+
+	private void seedCounter(Long branchId, int number, CustomerType type, List<Long> stepIds) {
+		Counter counter = new Counter();
+		counter.setBranchId(branchId);
+		counter.setNumber(number);
+		counter.setServicingType(type);
+		counter.setCurrentOperator(operatorId(branchId, number));
+		counter.setLastModifiedBy(SEEDER);
+		counter = context.getBean(CounterRepository.class).save(counter);
+		seedUser(counter.getCurrentOperator());
+		CounterXServiceStepRepository repository = context.getBean(CounterXServiceStepRepository.class);
+		for(Long stepId: stepIds)
+			repository.save(new CounterXServiceStep(counter.getId(), stepId, SEEDER));
+	}
+
+	private void seedUser(String userId) {
+		User user = new User();
+		user.setUserId(userId);
+		user.setName(userId);
+		user.setCreatedBy(SEEDER);
+		context.getBean(UserRepository.class).save(user);
+	}
+
+	private void seedCustomers(int customers, double premiumRatio) {
+		CustomerRepository repository = context.getBean(CustomerRepository.class);
+		int premium = (int) Math.round(customers * premiumRatio);
+		for(int i = 0; i < customers; i++) {
+			Customer customer = new Customer();
+			customer.setName("Customer " + i);
+			customer.setType(i < premium ? CustomerType.PREMIUM : CustomerType.REGULAR);
+			customer = repository.save(customer);
+			getAccounts(customer.getType()).add(customer.getAccountNumber());
+		}
+	}
+}
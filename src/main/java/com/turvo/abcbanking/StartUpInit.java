@@ -10,6 +10,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.turvo.abcbanking.service.BranchService;
+import com.turvo.abcbanking.service.RoleService;
+import com.turvo.abcbanking.utils.IdBlockAllocator;
+import com.turvo.abcbanking.utils.QueueJournal;
 
 /**
  * Component to build up initial cache at start
@@ -25,11 +28,24 @@ public class StartUpInit {
 	@Autowired
 	BranchService branchService;
 	
+	@Autowired
+	RoleService roleService;
+	
+	@Autowired
+	QueueJournal queueJournal;
+	
+	@Autowired
+	IdBlockAllocator idBlockAllocator;
+	
 	@PostConstruct
 	public void init(){
 		DecimalFormat df = new DecimalFormat("#000");
 		long time = System.currentTimeMillis();
-		branchService.getAllBranches();
+		branchService.restoreCache();
+		queueJournal.compact();
+		roleService.reloadRoleCache();
+		idBlockAllocator.prefetch(IdBlockAllocator.TOKEN);
+		idBlockAllocator.prefetch(IdBlockAllocator.TOKEN_WORKFLOW);
 		long timetaken = System.currentTimeMillis() - time;
 		log.log(Level.INFO, () -> "Initial Cache built in " + (timetaken/1000) + 
 				"." + df.format(timetaken%1000) + " seconds");
@@ -1,20 +1,32 @@
 package com.turvo.abcbanking.controller;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
 
 import javax.validation.Valid;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import com.turvo.abcbanking.model.Branch;
 import com.turvo.abcbanking.model.CustomerType;
+import com.turvo.abcbanking.model.QueueEvent;
 import com.turvo.abcbanking.model.Service;
+import com.turvo.abcbanking.service.BranchEventService;
 import com.turvo.abcbanking.service.BranchService;
 
 /**
@@ -30,25 +42,84 @@ public class BranchController {
 	@Autowired
 	BranchService branchService;
 	
+	@Autowired
+	BranchEventService branchEventService;
+	
 	/**
 	 * For getting all the branches registered in the system
+	 * Not modified (304) response is sent if none of the branches changed since If-None-Match tag,
+ * tag is a digest of every branch's id & version tag
 	 * 
+	 * @param request
 	 * @return list of all branches
 	 */
 	@RequestMapping("/branches")
-	public List<Branch> getBranches() {
-		return branchService.getAllBranches();
+	public List<Branch> getBranches(WebRequest request) {
+		List<Branch> branches = branchService.getAllBranches();
+		String tags = branches.stream().sorted(Comparator.comparing(Branch::getId))
+				.map(branch -> branch.getId() + ":" + branch.getVersionTag()).collect(Collectors.joining(","));
+		if(request.checkNotModified(DigestUtils.md5DigestAsHex(tags.getBytes(StandardCharsets.UTF_8))))
+			return null;
+		return branches;
 	}
 	
 	/**
 	 * For getting a specific branch
+	 * Not modified (304) response is sent if branch is unchanged since If-None-Match tag
 	 * 
 	 * @param branchId
+	 * @param request
 	 * @return branch if existing null otherwise
 	 */
 	@RequestMapping("/branches/{id}")
-	public Branch getBranch(@PathVariable(value = "id") Long branchId) {
-		return branchService.getBranch(branchId);
+	public Branch getBranch(@PathVariable(value = "id") Long branchId, WebRequest request) {
+		Branch branch = branchService.getBranch(branchId);
+		if(!Objects.isNull(branch) && request.checkNotModified(branch.getVersionTag()))
+			return null;
+		return branch;
+	}
+	
+	/**
+	 * For getting compact queue state of a branch (display boards), 
+	 * pre-rendered snapshot is served as long as branch queues are unchanged
+	 * 
+	 * @param branchId
+	 * @param request
+	 * @return counter number, operator, depth & head token number of every counter
+	 */
+	@RequestMapping(value = "/branches/{id}/queue", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+	public byte[] getBranchQueue(@PathVariable(value = "id") Long branchId, WebRequest request) {
+		Branch branch = branchService.getBranch(branchId);
+		if(!Objects.isNull(branch) && request.checkNotModified(branch.getVersionTag()))
+			return null;
+		return branchService.getQueueSnapshot(branchId);
+	}
+	
+	/**
+	 * For streaming queue changes of a branch (server sent events), 
+	 * a reconnecting client gets events it missed replayed from Last-Event-ID
+	 * 
+	 * @param branchId
+	 * @param lastSequence
+	 * @return event stream
+	 */
+	@RequestMapping(value = "/branches/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public SseEmitter streamBranchEvents(@PathVariable(value = "id") Long branchId, 
+			@RequestHeader(value = "Last-Event-ID", required = false) Long lastSequence) {
+		return branchEventService.subscribe(branchId, lastSequence);
+	}
+	
+	/**
+	 * For long polling queue changes of a branch (clients which can't use server sent events)
+	 * 
+	 * @param branchId
+	 * @param since sequence of last event received
+	 * @return events after passed sequence
+	 */
+	@RequestMapping("/branches/{id}/events/poll")
+	public DeferredResult<List<QueueEvent>> pollBranchEvents(@PathVariable(value = "id") Long branchId, 
+			@RequestParam(value = "since", required = false) Long since) {
+		return branchEventService.poll(branchId, since);
 	}
 	
 	/**
@@ -79,14 +150,19 @@ public class BranchController {
 	
 	/**
 	 * For getting all the services served by a Branch
+	 * Not modified (304) response is sent if branch is unchanged since If-None-Match tag
 	 * 
 	 * @param branchId
 	 * @param type
+	 * @param request
 	 * @return list of services
 	 */
 	@RequestMapping("/branches/{id}/services/{type}")
-	public List<Service> getBranch(@PathVariable(value = "id") Long branchId, @PathVariable(value = "type") CustomerType type) {
+	public List<Service> getBranch(@PathVariable(value = "id") Long branchId, @PathVariable(value = "type") CustomerType type, 
+			WebRequest request) {
 		Branch branch =  branchService.getBranch(branchId);
+		if(request.checkNotModified(branch.getVersionTag()))
+			return null;
 		if(type == CustomerType.PREMIUM)
 			return branch.getPremiumServices();
 		return branch.getRegularServices();
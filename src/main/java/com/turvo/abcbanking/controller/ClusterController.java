@@ -0,0 +1,77 @@
+package com.turvo.abcbanking.controller;
+
+import java.util.Objects;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.turvo.abcbanking.exception.BusinessRuntimeException;
+import com.turvo.abcbanking.model.Service;
+import com.turvo.abcbanking.service.BranchService;
+import com.turvo.abcbanking.service.RoleService;
+import com.turvo.abcbanking.service.ServiceStepService;
+import com.turvo.abcbanking.utils.ApplicationConstants;
+import com.turvo.abcbanking.utils.BranchForwardingFilter;
+import com.turvo.abcbanking.utils.BranchSharding;
+
+/**
+ * Controller class for changes broadcast by other cluster members (see ClusterClient), 
+ * only requests marked by a member are accepted
+ * 
+ * @author Prabal Ghura
+ *
+ */
+@RestController
+@RequestMapping("/api/cluster")
+public class ClusterController {
+
+	@Autowired
+	BranchSharding branchSharding;
+	
+	@Autowired
+	RoleService roleService;
+	
+	@Autowired
+	ServiceStepService serviceStepService;
+	
+	@Autowired
+	BranchService branchService;
+	
+	/**
+	 * For evicting a user whose roles changed on another member from role cache
+	 * 
+	 * @param node member sending the change
+	 * @param userId
+	 */
+	@PostMapping("/roles/evict")
+	public void evictUserRoles(@RequestHeader(BranchForwardingFilter.FORWARDED_HEADER) String node, 
+			@RequestParam("userId") String userId) {
+		checkMember(node);
+		roleService.evictUserRoles(userId);
+	}
+	
+	/**
+	 * For refreshing cached branches after a service workflow changed on another member
+	 * 
+	 * @param node member sending the change
+	 * @param serviceId
+	 */
+	@PostMapping("/services/{id}/refresh")
+	public void refreshService(@RequestHeader(BranchForwardingFilter.FORWARDED_HEADER) String node, 
+			@PathVariable(value = "id") Long serviceId) {
+		checkMember(node);
+		Service service = serviceStepService.getService(serviceId);
+		if(!Objects.isNull(service))
+			branchService.refreshService(service);
+	}
+	
+	private void checkMember(String node) {
+		if(!branchSharding.getNodes().contains(node))
+			throw new BusinessRuntimeException(ApplicationConstants.ERR_ACCESS_DENIED);
+	}
+}
@@ -1,6 +1,7 @@
 package com.turvo.abcbanking.controller;
 
 import java.util.List;
+import java.util.Objects;
 
 import javax.validation.Valid;
 
@@ -11,11 +12,14 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
+import com.turvo.abcbanking.model.Branch;
 import com.turvo.abcbanking.model.Counter;
 import com.turvo.abcbanking.model.ServiceStep;
 import com.turvo.abcbanking.service.BranchService;
 import com.turvo.abcbanking.service.CounterService;
+import com.turvo.abcbanking.utils.BranchMailbox;
 
 /**
  * Controller class for Counter related operations
@@ -33,15 +37,23 @@ public class CounterController {
 	@Autowired
 	BranchService branchService;
 	
+	@Autowired
+	BranchMailbox branchMailbox;
+	
 	/**
 	 * For getting all counters in a specific branch
+	 * Not modified (304) response is sent if branch is unchanged since If-None-Match tag
 	 * 
 	 * @param branchId
+	 * @param request
 	 * @return list of counters
 	 */
 	@RequestMapping("/branches/{id}/counters")
-	public List<Counter> getBranchCounters(@PathVariable(value = "id") Long branchId) {
-		return branchService.getBranch(branchId).getCounters();
+	public List<Counter> getBranchCounters(@PathVariable(value = "id") Long branchId, WebRequest request) {
+		Branch branch = branchService.getBranch(branchId);
+		if(request.checkNotModified(branch.getVersionTag()))
+			return null;
+		return branch.getCounters();
 	}
 	
 	/**
@@ -76,13 +88,20 @@ public class CounterController {
 	/**
 	 * For getting a specific counter in a branch with all the service steps it currently serves
 	 * 
+	 * Not modified (304) response is sent if counter is unchanged since If-None-Match tag
+	 * 
 	 * @param branchId
 	 * @param counterNumber
+	 * @param request
 	 * @return counter instance if exists
 	 */
 	@RequestMapping("/branches/{id}/counters/{counterId}")
-	public Counter getBranchCounter(@PathVariable(value = "id") Long branchId, @PathVariable(value = "counterId") Integer counterNumber) {
-		return branchService.getBranch(branchId).getCounter(counterNumber);
+	public Counter getBranchCounter(@PathVariable(value = "id") Long branchId, @PathVariable(value = "counterId") Integer counterNumber, 
+			WebRequest request) {
+		Counter counter = branchService.getBranch(branchId).getCounter(counterNumber);
+		if(!Objects.isNull(counter) && request.checkNotModified(counter.getVersionTag()))
+			return null;
+		return counter;
 	}
 	
 	/**
@@ -112,7 +131,7 @@ public class CounterController {
 	@PostMapping("/branches/{id}/counters/{counterId}/service")
 	public String serviceStep(@RequestHeader("userId") String executorId, @PathVariable(value = "id") Long branchId, 
 			@PathVariable(value = "counterId") Integer counterNumber, @RequestBody String comments) {
-		counterService.serviceFirstCounter(executorId, branchId, counterNumber, comments);
+		branchMailbox.execute(branchId, () -> counterService.serviceFirstCounter(executorId, branchId, counterNumber, comments));
 		return "SUCCESS";
 	}
 }
@@ -19,6 +19,7 @@ import com.turvo.abcbanking.model.Token;
 import com.turvo.abcbanking.service.CustomerService;
 import com.turvo.abcbanking.service.TokenService;
 import com.turvo.abcbanking.utils.ApplicationConstants;
+import com.turvo.abcbanking.utils.BranchMailbox;
 import com.turvo.abcbanking.utils.CustomerServiceContainer;
 
 /**
@@ -37,6 +38,9 @@ public class CustomerController {
 	@Autowired
 	CustomerService customerService;
 	
+	@Autowired
+	BranchMailbox branchMailbox;
+	
 	/**
 	 * For creating token for an existing customer
 	 * 
@@ -50,7 +54,7 @@ public class CustomerController {
 			@PathVariable(value = "accountNumber") Long accountNumber, @Valid @RequestBody List<Service> services) {
 		validateServices(services);
 		Customer customer = customerService.getCustomer(accountNumber);
-		return tokenService.createToken(customer, branchId, services);
+		return branchMailbox.execute(branchId, () -> tokenService.createToken(customer, branchId, services));
 	}
 	
 	/**
@@ -65,7 +69,7 @@ public class CustomerController {
 			@Valid @RequestBody CustomerServiceContainer container) {
 		validateCustomerServiceContainer(container);
 		Customer customer = customerService.createNewCustomer(container.getCustomer());
-		return tokenService.createToken(customer, branchId, container.getServices());
+		return branchMailbox.execute(branchId, () -> tokenService.createToken(customer, branchId, container.getServices()));
 	}
 	
 	/**
@@ -0,0 +1,33 @@
+package com.turvo.abcbanking.controller;
+
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.turvo.abcbanking.service.MetricsService;
+
+/**
+ * Controller class for queue metrics
+ * 
+ * @author Prabal Ghura
+ *
+ */
+@RestController
+@RequestMapping("/api")
+public class MetricsController {
+
+	@Autowired
+	MetricsService metricsService;
+	
+	/**
+	 * For getting throughput counters, queue depths, time in queue & service time histograms
+	 * 
+	 * @return metrics
+	 */
+	@RequestMapping("/metrics")
+	public Map<String, Object> getMetrics() {
+		return metricsService.getMetrics();
+	}
+}
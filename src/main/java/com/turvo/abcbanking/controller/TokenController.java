@@ -8,6 +8,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.turvo.abcbanking.service.TokenService;
+import com.turvo.abcbanking.utils.BranchMailbox;
 
 /**
  * Controller class for Counter related operations
@@ -22,6 +23,9 @@ public class TokenController {
 	@Autowired
 	TokenService tokenService;
 	
+	@Autowired
+	BranchMailbox branchMailbox;
+	
 	/**
 	 * For marking a token as completed
 	 * 
@@ -33,7 +37,7 @@ public class TokenController {
 	@PostMapping("/branches/{id}/token/{tokenId}/complete")
 	public String markTokenAsCompleted(@RequestHeader("userId") String executorId, @PathVariable(value = "id") Long branchId, 
 			@PathVariable(value = "tokenId") Integer tokenNumber) {
-		tokenService.markTokenAsCompleted(executorId, branchId, tokenNumber);
+		branchMailbox.execute(branchId, () -> tokenService.markTokenAsCompleted(executorId, branchId, tokenNumber));
 		return "SUCCESS";
 	}
 	
@@ -48,7 +52,7 @@ public class TokenController {
 	@PostMapping("/branches/{id}/token/{tokenId}/cancel")
 	public String markTokenAsCancelled(@RequestHeader("userId") String executorId, @PathVariable(value = "id") Long branchId, 
 			@PathVariable(value = "tokenId") Integer tokenNumber) {
-		tokenService.markTokenAsCancelled(executorId, branchId, tokenNumber);
+		branchMailbox.execute(branchId, () -> tokenService.markTokenAsCancelled(executorId, branchId, tokenNumber));
 		return "SUCCESS";
 	}
 }
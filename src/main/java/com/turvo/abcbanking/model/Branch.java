@@ -1,11 +1,18 @@
 package com.turvo.abcbanking.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -23,6 +30,8 @@ import org.hibernate.annotations.UpdateTimestamp;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.turvo.abcbanking.utils.CounterHeap;
+import com.turvo.abcbanking.utils.TokenNumberGenerator;
 
 /**
  * Model class to represent Branch
@@ -34,6 +43,12 @@ import com.fasterxml.jackson.annotation.JsonInclude.Include;
 @Table(name="BRANCH")
 public class Branch {
 	
+	/**
+	 * Source of in memory instance ids (of branches & counters), seeded with start up time 
+	 * so that version tags stay unique across cache reloads & restarts
+	 */
+	private static final AtomicLong INSTANCES = new AtomicLong(System.currentTimeMillis());
+	
 	@Id
 	@GeneratedValue(strategy = GenerationType.IDENTITY)
 	@Column(name = "ID", insertable = false, updatable = false)
@@ -59,17 +74,19 @@ public class Branch {
 	
 	/**
 	 * Derived list based on branch-counter-serviceStep-service relationship
+	 * never modified in place, a new list is swapped in on change
 	 */
 	@Transient
 	@JsonInclude(Include.NON_EMPTY)
-	private List<Service> regularServices = new ArrayList<>();
+	private volatile List<Service> regularServices = new ArrayList<>();
 	
 	/**
 	 * Derived list based on branch-counter-serviceStep-service relationship
+	 * never modified in place, a new list is swapped in on change
 	 */
 	@Transient
 	@JsonInclude(Include.NON_EMPTY)
-	private List<Service> premiumServices = new ArrayList<>();
+	private volatile List<Service> premiumServices = new ArrayList<>();
 	
 	/**
 	 * Derived list made from regularCounters and premiumCounters map
@@ -79,11 +96,11 @@ public class Branch {
 	private List<Counter> counters = new ArrayList<>();
 	
 	/**
-	 * Branch specific token generator number to be assigned to new tokens, implementation is synchronized
+	 * Branch specific token number generator for new tokens, implementation is lock free
 	 */
 	@Transient
 	@JsonIgnore
-	private Integer tokenNumber;
+	private TokenNumberGenerator tokenNumberGenerator = new TokenNumberGenerator();
 	
 	@Transient
 	@JsonIgnore
@@ -93,6 +110,52 @@ public class Branch {
 	@JsonIgnore
 	private ConcurrentHashMap<Integer, Counter> premiumCounters = new ConcurrentHashMap<>();
 	
+	/**
+	 * Branch wide index of queued tokens, token number mapped against counter currently holding it.
+	 * Kept in step by counter queue operations so that a token can be located without scanning all counter queues
+	 */
+	@Transient
+	@JsonIgnore
+	private ConcurrentHashMap<Integer, Counter> tokenCounters = new ConcurrentHashMap<>();
+	
+	/**
+	 * Routing index, customer type and service step id mapped against heap of counters serving them (ordered by queue depth).
+	 * Map is rebuilt only when counter topology changes (counter added/replaced or its steps changed) 
+	 * and published as an immutable map so that routing reads never lock, heaps are updated incrementally by counter queue operations
+	 */
+	@Transient
+	@JsonIgnore
+	private volatile Map<CustomerType, Map<Long, CounterHeap>> routes = new EnumMap<>(CustomerType.class);
+	
+	/**
+	 * Queue state version, incremented on every counter queue change, counter update and branch change,
+	 * lets readers (like queue snapshot) detect a change without walking counters
+	 */
+	@Transient
+	@JsonIgnore
+	private final AtomicLong version = new AtomicLong();
+	
+	/**
+	 * Id of this in memory instance, tells apart instances which happen to be at same version
+	 */
+	@Transient
+	@JsonIgnore
+	private final long instance = nextInstance();
+	
+	/**
+	 * Receives counter queue changes (token added, pulled, moved or removed) as they happen, null if nobody listens
+	 */
+	@Transient
+	@JsonIgnore
+	private volatile Consumer<QueueEvent> queueListener;
+	
+	/**
+	 * Instance which replaced this one in cache (set when it adopts this instance's queues), null while this one is live
+	 */
+	@Transient
+	@JsonIgnore
+	private volatile Branch successor;
+	
 	public List<Service> getRegularServices() {
 		return regularServices;
 	}
@@ -192,20 +255,248 @@ public class Branch {
 	 * 
 	 * @param tokenNumber
 	 */
-	public synchronized void setTokenNumber(Integer tokenNumber) {
-		this.tokenNumber = tokenNumber;
+	public void setTokenNumber(Integer tokenNumber) {
+		tokenNumberGenerator.seed(Objects.isNull(tokenNumber) ? 0 : tokenNumber);
+	}
+	
+	/**
+	 * Token number generator for configuring wraparound/daily reset policy
+	 * 
+	 * @return generator
+	 */
+	@JsonIgnore
+	public TokenNumberGenerator getTokenNumberGenerator() {
+		return tokenNumberGenerator;
 	}
 
 	/**
 	 * Updating a token in the concurrent map
+	 * Counter replaced by a branch rebuild is never put back, its replacement is used instead,
+	 * likewise an update reaching a replaced branch is applied to the branch which replaced it
 	 * 
 	 * @param counter
+	 * @return live branch instance the counter was updated in
 	 */
-	public void updateCounter(Counter counter) {
+	public Branch updateCounter(Counter counter) {
+		Branch live = live();
+		if(live != this)
+			return live.updateCounter(counter);
+		counter = counter.live();
+		Counter previous = null;
 		if(counter.getServicingType() == CustomerType.REGULAR)
-			regularCounters.put(counter.getNumber(), counter);
+			previous = regularCounters.put(counter.getNumber(), counter);
 		else if(counter.getServicingType() == CustomerType.PREMIUM)
-			premiumCounters.put(counter.getNumber(), counter);
+			previous = premiumCounters.put(counter.getNumber(), counter);
+		else
+			return this;
+		
+		// token & routing indexes are only rebuilt when a counter instance is added or replaced
+		if(previous != counter) {
+			if(!Objects.isNull(previous))
+				previous.detach();
+			counter.attachTo(this);
+			rebuildRoutes();
+		}
+		counter.changed();
+		changed();
+		return this;
+	}
+	
+	/**
+	 * Putting all counters of a freshly assembled branch in the concurrent maps
+	 * Counters are put first and routing index is rebuilt once for all of them, instead of once per counter
+	 * 
+	 * @param counters1
+	 */
+	public void setCounters(List<Counter> counters1) {
+		List<Counter> added = new ArrayList<>();
+		for(Counter counter: counters1) {
+			Counter live = counter.live();
+			Counter previous;
+			if(live.getServicingType() == CustomerType.REGULAR)
+				previous = regularCounters.put(live.getNumber(), live);
+			else if(live.getServicingType() == CustomerType.PREMIUM)
+				previous = premiumCounters.put(live.getNumber(), live);
+			else
+				continue;
+			if(previous != live) {
+				if(!Objects.isNull(previous))
+					previous.detach();
+				added.add(live);
+			}
+			live.changed();
+		}
+		added.forEach(counter -> counter.attachTo(this));
+		if(!added.isEmpty())
+			rebuildRoutes();
+		changed();
+	}
+	
+	/**
+	 * Current queue state version
+	 * 
+	 * @return version
+	 */
+	@JsonIgnore
+	public long getVersion() {
+		return version.get();
+	}
+	
+	/**
+	 * Version tag (for HTTP ETag) of current branch state, changes whenever version moves ahead or instance is replaced
+	 * 
+	 * @return tag
+	 */
+	@JsonIgnore
+	public String getVersionTag() {
+		return instance + "-" + version.get();
+	}
+	
+	/**
+	 * Marks a change in branch state (manager, services, counters or counter queues), moves version ahead
+	 */
+	public void changed() {
+		version.incrementAndGet();
+	}
+	
+	/**
+	 * Next in memory instance id
+	 * 
+	 * @return instance id
+	 */
+	static long nextInstance() {
+		return INSTANCES.incrementAndGet();
+	}
+	
+	/**
+	 * Marks a token queue change of a counter, moves version ahead and notifies queue listener (if any)
+	 * 
+	 * @param type
+	 * @param counterNumber
+	 * @param tokenNumber
+	 * @param fromCounterNumber counter token moved from, null if not a move
+	 */
+	void queueChanged(QueueEventType type, Integer counterNumber, Integer tokenNumber, Integer fromCounterNumber) {
+		long version1 = version.incrementAndGet();
+		Consumer<QueueEvent> listener = queueListener;
+		if(!Objects.isNull(listener))
+			listener.accept(new QueueEvent(type, id, counterNumber, fromCounterNumber, tokenNumber, version1));
+	}
+	
+	/**
+	 * Sets receiver of counter queue changes
+	 * 
+	 * @param queueListener
+	 */
+	@JsonIgnore
+	public void setQueueListener(Consumer<QueueEvent> queueListener) {
+		this.queueListener = queueListener;
+	}
+	
+	/**
+	 * Carries live counter queues over from the branch instance this (freshly loaded) instance replaces,
+	 * so that tokens queued in memory (including ones not yet written to DB) are not lost.
+	 * Counters are matched by number & id, routing index is rebuilt afterwards and token numbering 
+	 * continues after the highest queued token number. Version continues after replaced instance's version.
+	 * Replaced instance forwards counter updates to this instance from now on.
+	 * 
+	 * @param previous branch instance currently in cache
+	 */
+	public void adoptQueues(Branch previous) {
+		if(previous == this)
+			return;
+		for(Map<Integer, Counter> counterMap: Arrays.asList(regularCounters, premiumCounters)) {
+			for(Counter counter: counterMap.values()) {
+				Counter previousCounter = previous.getCounter(counter.getNumber());
+				if(!Objects.isNull(previousCounter) && Objects.equals(previousCounter.getId(), counter.getId()))
+					counter.adoptQueue(previousCounter.live());
+			}
+		}
+		rebuildRoutes();
+		version.accumulateAndGet(previous.getVersion(), Math::max);
+		changed();
+		int maxQueuedNumber = tokenCounters.keySet().stream().mapToInt(Integer::intValue).max().orElse(0);
+		if(maxQueuedNumber > tokenNumberGenerator.current())
+			tokenNumberGenerator.seed(maxQueuedNumber);
+		previous.successor = this;
+	}
+	
+	/**
+	 * Current instance of this branch, following replacements made by branch rebuilds
+	 * 
+	 * @return live branch
+	 */
+	public Branch live() {
+		Branch branch = this;
+		while(!Objects.isNull(branch.successor))
+			branch = branch.successor;
+		return branch;
+	}
+	
+	/**
+	 * Getting least loaded counter of passed customer type which serves a service step, O(1) heap read
+	 * 
+	 * @param type
+	 * @param stepId
+	 * @return counter with minimum queue depth, null if no counter serves the step
+	 */
+	public Counter getLeastLoadedCounter(CustomerType type, Long stepId) {
+		CounterHeap heap = getCounterHeap(type, stepId);
+		return Objects.isNull(heap) ? null : heap.peek();
+	}
+	
+	private CounterHeap getCounterHeap(CustomerType type, Long stepId) {
+		Map<Long, CounterHeap> stepRoutes = routes.get(type);
+		if(Objects.isNull(stepRoutes) || Objects.isNull(stepId))
+			return null;
+		return stepRoutes.get(stepId);
+	}
+	
+	/**
+	 * Rebuilds routing index from current counter maps and swaps it in
+	 * 
+	 * Counters are pointed to their new heaps before heaps re-read queue depths, 
+	 * so no queue change happening during rebuild is missed
+	 */
+	synchronized void rebuildRoutes() {
+		Map<Counter, List<CounterHeap>> counterHeaps = new IdentityHashMap<>();
+		Map<CustomerType, Map<Long, CounterHeap>> routes1 = new EnumMap<>(CustomerType.class);
+		routes1.put(CustomerType.REGULAR, buildRoutes(regularCounters, counterHeaps));
+		routes1.put(CustomerType.PREMIUM, buildRoutes(premiumCounters, counterHeaps));
+		
+		regularCounters.values().forEach(counter -> counter.setLoadHeaps(counterHeaps.getOrDefault(counter, Collections.emptyList())));
+		premiumCounters.values().forEach(counter -> counter.setLoadHeaps(counterHeaps.getOrDefault(counter, Collections.emptyList())));
+		routes1.values().forEach(stepRoutes -> stepRoutes.values().forEach(CounterHeap::refresh));
+		
+		this.routes = routes1;
+	}
+	
+	/**
+	 * Maps service step ids against heap of counters serving them, also collects heaps every counter belongs to
+	 * 
+	 * @param counterMap
+	 * @param counterHeaps
+	 * @return step routes
+	 */
+	private static Map<Long, CounterHeap> buildRoutes(Map<Integer, Counter> counterMap, Map<Counter, List<CounterHeap>> counterHeaps) {
+		Map<Long, List<Counter>> stepCounters = new HashMap<>();
+		for(Counter counter: counterMap.values()) {
+			for(ServiceStep step: counter.getSteps()) {
+				if(Objects.isNull(step.getId()))
+					continue;
+				List<Counter> counters1 = stepCounters.computeIfAbsent(step.getId(), id -> new ArrayList<>());
+				if(!counters1.contains(counter))
+					counters1.add(counter);
+			}
+		}
+		
+		Map<Long, CounterHeap> stepRoutes = new HashMap<>();
+		stepCounters.forEach((stepId, counters1) -> {
+			CounterHeap heap = new CounterHeap(counters1);
+			stepRoutes.put(stepId, heap);
+			counters1.forEach(counter -> counterHeaps.computeIfAbsent(counter, c -> new ArrayList<>()).add(heap));
+		});
+		return stepRoutes;
 	}
 	
 	/**
@@ -222,12 +513,45 @@ public class Branch {
 			return counter;
 	}
 	
+	/**
+	 * Getting the counter which currently holds a token in its queue
+	 * 
+	 * @param tokenNumber
+	 * @return counter if token is queued in branch null otherwise
+	 */
+	public Counter getTokenCounter(Integer tokenNumber) {
+		if(Objects.isNull(tokenNumber))
+			return null;
+		return tokenCounters.get(tokenNumber);
+	}
+	
+	/**
+	 * Registers a queued token against the counter holding it
+	 * 
+	 * @param tokenNumber
+	 * @param counter
+	 */
+	void indexToken(Integer tokenNumber, Counter counter) {
+		tokenCounters.put(tokenNumber, counter);
+	}
+	
+	/**
+	 * Unregisters a token from branch index only if it is still mapped against passed counter
+	 * 
+	 * @param tokenNumber
+	 * @param counter
+	 */
+	void unindexToken(Integer tokenNumber, Counter counter) {
+		tokenCounters.remove(tokenNumber, counter);
+	}
+	
 	/**
 	 * Get a token number (branch specific) for assigning to a new token generated in the branch.  
+	 * Numbers still held by queued tokens (after wraparound or daily reset) are skipped.
 	 * 
 	 * @return tokenNumber
 	 */
-	public synchronized Integer getTokenNumber() {
-		return ++tokenNumber;
+	public Integer getTokenNumber() {
+		return tokenNumberGenerator.next(tokenCounters::containsKey);
 	}
 }
@@ -0,0 +1,57 @@
+package com.turvo.abcbanking.model;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Branch cache contents read back from a local snapshot file
+ *
+ * Counters are detached (tokens are kept aside in queue order) so that tokens closed after the snapshot
+ * can be left out before counters are queued and put in a branch.
+ *
+ * @author Prabal Ghura
+ *
+ */
+public class CacheSnapshot {
+
+	/**
+	 * Time (epoch millis) before cache was captured, DB rows modified after it may not be in snapshot
+	 */
+	private final long watermark;
+
+	/**
+	 * Last issued token number mapped against branch id, holds every branch in snapshot
+	 */
+	private final Map<Long, Integer> tokenNumbers = new HashMap<>();
+
+	/**
+	 * Counters (with steps) mapped against branch id
+	 */
+	private final Map<Long, List<Counter>> counters = new HashMap<>();
+
+	/**
+	 * Queued tokens (with workflows) in queue order mapped against counter id
+	 */
+	private final Map<Long, List<Token>> queues = new HashMap<>();
+
+	public CacheSnapshot(long watermark) {
+		this.watermark = watermark;
+	}
+
+	public long getWatermark() {
+		return watermark;
+	}
+
+	public Map<Long, Integer> getTokenNumbers() {
+		return tokenNumbers;
+	}
+
+	public Map<Long, List<Counter>> getCounters() {
+		return counters;
+	}
+
+	public Map<Long, List<Token>> getQueues() {
+		return queues;
+	}
+}
@@ -1,11 +1,12 @@
 package com.turvo.abcbanking.model;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Objects;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -27,6 +28,8 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.turvo.abcbanking.exception.BusinessRuntimeException;
 import com.turvo.abcbanking.utils.ApplicationConstants;
+import com.turvo.abcbanking.utils.CounterHeap;
+import com.turvo.abcbanking.utils.TokenQueue;
 
 /**
  * Model class to represent Counter
@@ -78,11 +81,47 @@ public class Counter {
 	private List<ServiceStep> steps = new ArrayList<>();
 	
 	/**
-	 * Concurrent Queue of tokens
+	 * Concurrent Queue of tokens indexed by token number
 	 */
 	@Transient
 	@JsonInclude(Include.NON_EMPTY)
-    private ConcurrentLinkedQueue<Token> tokens = new ConcurrentLinkedQueue<>();
+    private volatile TokenQueue tokens = new TokenQueue();
+	
+	/**
+	 * Parent branch (set when counter is put in branch) whose token index is kept in step with this queue
+	 */
+	@Transient
+	@JsonIgnore
+	private Branch branch;
+	
+	/**
+	 * Branch routing heaps (one per customer type & step served) which are notified whenever queue depth changes
+	 */
+	@Transient
+	@JsonIgnore
+	private volatile List<CounterHeap> loadHeaps = Collections.emptyList();
+	
+	/**
+	 * Counter which replaced this one in a rebuilt branch (sharing this counter's queue), 
+	 * set once replaced so that operations still holding this instance keep replacement's indexes up to date
+	 */
+	@Transient
+	@JsonIgnore
+	private volatile Counter successor;
+	
+	/**
+	 * Counter state version, incremented on every queue change and counter update
+	 */
+	@Transient
+	@JsonIgnore
+	private final AtomicLong version = new AtomicLong();
+	
+	/**
+	 * Id of this in memory instance, tells apart instances which happen to be at same version
+	 */
+	@Transient
+	@JsonIgnore
+	private final long instance = Branch.nextInstance();
 
 	public Long getId() {
 		return id;
@@ -144,14 +183,51 @@ public class Counter {
 		return steps;
 	}
 
+	/**
+	 * Steps served changes counter topology, so parent branch routing index (if attached) is rebuilt
+	 * 
+	 * @param steps
+	 */
 	public void setSteps(List<ServiceStep> steps) {
 		this.steps = steps;
+		if(!Objects.isNull(branch))
+			branch.rebuildRoutes();
 	}
 
 	public Queue<Token> getTokens() {
 		return tokens;
 	}
 	
+	/**
+	 * Current token queue depth, maintained atomically by queue operations so reading it never traverses the queue
+	 * 
+	 * @return number of tokens in counter queue
+	 */
+	@JsonIgnore
+	public int getQueueDepth() {
+		return tokens.size();
+	}
+	
+	/**
+	 * Current counter state version
+	 * 
+	 * @return version
+	 */
+	@JsonIgnore
+	public long getVersion() {
+		return version.get();
+	}
+	
+	/**
+	 * Version tag (for HTTP ETag) of current counter state, changes whenever version moves ahead or instance is replaced
+	 * 
+	 * @return tag
+	 */
+	@JsonIgnore
+	public String getVersionTag() {
+		return instance + "-" + version.get();
+	}
+	
 	/**
 	 * Retrieves and removes a token from the counter queue head
 	 * 
@@ -161,42 +237,159 @@ public class Counter {
 		Token token = tokens.poll();
 		if(Objects.isNull(token))
 			throw new BusinessRuntimeException(ApplicationConstants.ERR_EMPTY_COUNTER_QUEUE);
+		unindexToken(token);
+		depthChanged(QueueEventType.PULLED, token, null);
 		return token;
 	}
 	
 	/**
-	 * Retrives but does not remove a token from counter queue (traversal)
+	 * Retrives but does not remove a token from counter queue (constant time index lookup)
 	 * 
 	 * @param tokenNumber
 	 * @return token
 	 */
 	public Token hasToken(Integer tokenNumber) {
-		for(Token token: tokens) {
-			if(token.getNumber() == tokenNumber)
-				return token;
-		}
-		return null;
+		return tokens.get(tokenNumber);
 	}
 	
 	/**
-	 * Remove a token from counter token queue
+	 * Remove a token from counter token queue (constant time, even from middle of the queue)
 	 * 
 	 * @param token
 	 * @return updated counter instannce
 	 */
 	public Counter removeToken(Token token) {
-		tokens.remove(token);
+		if(tokens.remove(token)) {
+			unindexToken(token);
+			depthChanged(QueueEventType.REMOVED, token, null);
+		}
 		return this;
 	}
 
 	/**
-	 * Adds a token to the counter queue tail
+	 * Adds a token to the counter queue tail, a token whose number is already queued is rejected
+	 * (IllegalArgumentException) and left as it was
 	 * 
 	 * @param token
 	 */
 	public void addToken(Token token) {
+		Integer previousNumber = token.getCounterNumber();
+		this.tokens.offer(token);
 		token.setCounterNumber(number);
 		token.setBranchId(branchId);
-		this.tokens.offer(token);
+		Counter live = live();
+		if(!Objects.isNull(token.getNumber()) && !Objects.isNull(live.branch))
+			live.branch.indexToken(token.getNumber(), live);
+		if(Objects.isNull(previousNumber) || previousNumber.equals(number))
+			depthChanged(QueueEventType.ADDED, token, null);
+		else
+			depthChanged(QueueEventType.MOVED, token, previousNumber);
+	}
+	
+	/**
+	 * Attaches counter to its parent branch, tokens already in queue are published to branch token index
+	 * 
+	 * @param branch
+	 */
+	void attachTo(Branch branch) {
+		this.branch = branch;
+		if(Objects.isNull(branch))
+			return;
+		for(Token token: tokens) {
+			if(!Objects.isNull(token.getNumber()))
+				branch.indexToken(token.getNumber(), this);
+		}
+	}
+	
+	/**
+	 * Detaches counter from its parent branch, its tokens are removed from branch token index
+	 */
+	void detach() {
+		if(!Objects.isNull(branch)) {
+			for(Token token: tokens) {
+				if(!Objects.isNull(token.getNumber()))
+					branch.unindexToken(token.getNumber(), this);
+			}
+		}
+		this.branch = null;
+		this.loadHeaps = Collections.emptyList();
+	}
+	
+	/**
+	 * Takes over live token queue of the counter this one replaces in a rebuilt branch (tokens loaded from DB are dropped),
+	 * replaced counter forwards index & routing updates to this counter from now on
+	 * 
+	 * @param previous
+	 */
+	void adoptQueue(Counter previous) {
+		if(previous == this)
+			return;
+		previous.successor = this;
+		if(!Objects.isNull(branch)) {
+			for(Token token: tokens) {
+				if(!Objects.isNull(token.getNumber()))
+					branch.unindexToken(token.getNumber(), this);
+			}
+		}
+		this.tokens = previous.tokens;
+		this.version.accumulateAndGet(previous.getVersion(), Math::max);
+		attachTo(branch);
+	}
+	
+	/**
+	 * Current instance of this counter, following replacements made by branch rebuilds
+	 * 
+	 * @return live counter
+	 */
+	Counter live() {
+		Counter counter = this;
+		while(!Objects.isNull(counter.successor))
+			counter = counter.successor;
+		return counter;
+	}
+	
+	/**
+	 * Marks a change in counter state, moves version ahead
+	 */
+	void changed() {
+		version.incrementAndGet();
+	}
+	
+	/**
+	 * Points counter to the routing heaps it currently belongs to
+	 * 
+	 * @param loadHeaps
+	 */
+	void setLoadHeaps(List<CounterHeap> loadHeaps) {
+		this.loadHeaps = loadHeaps;
+	}
+	
+	/**
+	 * Re-positions counter in all routing heaps it belongs to after a queue change, 
+	 * change is reported to parent branch (version & queue listener)
+	 * 
+	 * @param type
+	 * @param token
+	 * @param fromCounterNumber counter token moved from, null if not a move
+	 */
+	private void depthChanged(QueueEventType type, Token token, Integer fromCounterNumber) {
+		Counter live = live();
+		live.changed();
+		for(CounterHeap heap: live.loadHeaps)
+			heap.update(live);
+		Branch branch1 = live.branch;
+		if(!Objects.isNull(branch1))
+			branch1.queueChanged(type, live.number, token.getNumber(), fromCounterNumber);
+	}
+	
+	/**
+	 * Removes a token which has left the queue from branch token index
+	 * 
+	 * @param token
+	 */
+	private void unindexToken(Token token) {
+		Counter live = live();
+		if(!Objects.isNull(token.getNumber()) && !Objects.isNull(live.branch))
+			live.branch.unindexToken(token.getNumber(), live);
 	}
 }
@@ -0,0 +1,50 @@
+package com.turvo.abcbanking.model;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Model class to represent an id generator row, value is the first id not yet reserved by any application instance
+ * 
+ * @author Prabal Ghura
+ *
+ */
+@Entity
+@Table(name = "ID_GENERATOR")
+public class IdGenerator {
+	
+	@Id
+	@Column(name = "GEN_NAME")
+	private String name;
+	
+	@Column(name = "GEN_VALUE")
+	private Long value;
+	
+	public IdGenerator() {
+		super();
+	}
+
+	public IdGenerator(String name, Long value) {
+		super();
+		this.name = name;
+		this.value = value;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public Long getValue() {
+		return value;
+	}
+
+	public void setValue(Long value) {
+		this.value = value;
+	}
+}
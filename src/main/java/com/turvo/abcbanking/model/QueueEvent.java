@@ -0,0 +1,76 @@
+package com.turvo.abcbanking.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
+/**
+ * Compact counter queue change of a branch, pushed to display boards & operator consoles
+ * 
+ * Sequence is assigned by branch event bus (consecutive per branch), version is branch queue version after the change
+ * so that events already contained in a queue snapshot can be skipped.
+ * 
+ * @author Prabal Ghura
+ *
+ */
+@JsonInclude(Include.NON_NULL)
+public class QueueEvent {
+	
+	private Long sequence;
+	
+	private QueueEventType type;
+	
+	private Long branchId;
+	
+	private Integer counterNumber;
+	
+	/**
+	 * Counter token was served at before moving, for MOVED events only
+	 */
+	private Integer fromCounterNumber;
+	
+	private Integer tokenNumber;
+	
+	private long version;
+	
+	public QueueEvent(QueueEventType type, Long branchId, Integer counterNumber, Integer fromCounterNumber, 
+			Integer tokenNumber, long version) {
+		this.type = type;
+		this.branchId = branchId;
+		this.counterNumber = counterNumber;
+		this.fromCounterNumber = fromCounterNumber;
+		this.tokenNumber = tokenNumber;
+		this.version = version;
+	}
+
+	public Long getSequence() {
+		return sequence;
+	}
+
+	public void setSequence(Long sequence) {
+		this.sequence = sequence;
+	}
+
+	public QueueEventType getType() {
+		return type;
+	}
+
+	public Long getBranchId() {
+		return branchId;
+	}
+
+	public Integer getCounterNumber() {
+		return counterNumber;
+	}
+
+	public Integer getFromCounterNumber() {
+		return fromCounterNumber;
+	}
+
+	public Integer getTokenNumber() {
+		return tokenNumber;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+}
@@ -0,0 +1,35 @@
+package com.turvo.abcbanking.model;
+
+/**
+ * Enum representing kinds of counter queue changes pushed to branch event subscribers
+ * 
+ * @author Prabal Ghura
+ *
+ */
+public enum QueueEventType {
+	
+	/**
+	 * Token added to a counter queue tail (new token)
+	 */
+	ADDED,
+	
+	/**
+	 * Token pulled from a counter queue head for service
+	 */
+	PULLED,
+	
+	/**
+	 * Token added to a counter queue after being served at another counter (next workflow step)
+	 */
+	MOVED,
+	
+	/**
+	 * Token removed from a counter queue (completed/cancelled)
+	 */
+	REMOVED,
+	
+	/**
+	 * Subscriber has missed events (or has just joined) and should re-read branch queue snapshot
+	 */
+	RESYNC
+}
@@ -3,20 +3,22 @@ package com.turvo.abcbanking.model;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Objects;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
-import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 import javax.persistence.Transient;
 
 import org.hibernate.annotations.CreationTimestamp;
+import org.springframework.data.domain.Persistable;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
@@ -30,12 +32,16 @@ import com.fasterxml.jackson.annotation.JsonInclude.Include;
  */
 @Entity
 @Table(name="TOKEN")
-public class Token {
+public class Token implements Persistable<Long>, WriteBehindEntity<Token> {
+
+	private static final long serialVersionUID = 1L;
 	
+	/**
+	 * Assigned from IdBlockAllocator before the entity is queued for insert
+	 */
 	@Id
 	@JsonIgnore
-	@GeneratedValue(strategy = GenerationType.IDENTITY)
-	@Column(name = "ID", insertable = false, updatable = false)
+	@Column(name = "ID", updatable = false)
     private Long id;
 	
 	@Column(name = "ACCOUNT_NUMBER")
@@ -84,6 +90,20 @@ public class Token {
 	@Transient
 	@JsonInclude(Include.NON_EMPTY)
     private List<TokenWorkflow> steps = new ArrayList<>();
+	
+	/**
+	 * Whether row exists in DB, decides between insert & update as id is always assigned
+	 */
+	@Transient
+	@JsonIgnore
+	private volatile boolean persisted;
+	
+	/**
+	 * Instance this copy was taken from (write behind snapshot), null for cached instances
+	 */
+	@Transient
+	@JsonIgnore
+	private Token source;
 
 	public Long getId() {
 		return id;
@@ -93,6 +113,40 @@ public class Token {
 		this.id = id;
 	}
 
+	@Override
+	@JsonIgnore
+	public boolean isNew() {
+		return !persisted && (Objects.isNull(source) || source.isNew());
+	}
+
+	/**
+	 * Marks entity as existing in DB, invoked by JPA after insert/load and by custom repository queries
+	 */
+	@Override
+	@PostLoad
+	@PostPersist
+	public void markPersisted() {
+		this.persisted = true;
+		if(!Objects.isNull(source))
+			source.markPersisted();
+	}
+
+	@Override
+	public Token snapshot() {
+		Token copy = new Token();
+		copy.id = id;
+		copy.accountNumber = accountNumber;
+		copy.number = number;
+		copy.status = status;
+		copy.createdDate = createdDate;
+		copy.branchId = branchId;
+		copy.counterNumber = counterNumber;
+		copy.type = type;
+		copy.persisted = persisted;
+		copy.source = this;
+		return copy;
+	}
+
 	public Long getAccountNumber() {
 		return accountNumber;
 	}
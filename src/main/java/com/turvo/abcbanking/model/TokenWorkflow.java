@@ -1,19 +1,22 @@
 package com.turvo.abcbanking.model;
 
 import java.util.Date;
+import java.util.Objects;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
-import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
+import javax.persistence.Transient;
 
 import org.hibernate.annotations.UpdateTimestamp;
+import org.springframework.data.domain.Persistable;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
@@ -25,12 +28,16 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
  */
 @Entity
 @Table(name="TOKEN_WORKFLOW")
-public class TokenWorkflow {
+public class TokenWorkflow implements Persistable<Long>, WriteBehindEntity<TokenWorkflow> {
 
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Assigned from IdBlockAllocator before the entity is queued for insert
+	 */
 	@Id
 	@JsonIgnore
-	@GeneratedValue(strategy = GenerationType.IDENTITY)
-	@Column(name = "ID", insertable = false, updatable = false)
+	@Column(name = "ID", updatable = false)
     private Long id;
 	
 	@Column(name = "TOKEN_ID")
@@ -59,6 +66,27 @@ public class TokenWorkflow {
     @JsonIgnore
     @UpdateTimestamp
     private Date servedDate;
+	
+	/**
+	 * Whether row exists in DB, decides between insert & update as id is always assigned
+	 */
+	@Transient
+	@JsonIgnore
+	private volatile boolean persisted;
+	
+	/**
+	 * Instance this copy was taken from (write behind snapshot), null for cached instances
+	 */
+	@Transient
+	@JsonIgnore
+	private TokenWorkflow source;
+	
+	/**
+	 * Time (epoch millis) at which step was assigned (or loaded as assigned) in this JVM, used for service time metrics
+	 */
+	@Transient
+	@JsonIgnore
+	private volatile long assignedAt;
 
 	public Long getId() {
 		return id;
@@ -68,6 +96,41 @@ public class TokenWorkflow {
 		this.id = id;
 	}
 
+	@Override
+	@JsonIgnore
+	public boolean isNew() {
+		return !persisted && (Objects.isNull(source) || source.isNew());
+	}
+
+	/**
+	 * Marks entity as existing in DB, invoked by JPA after insert/load and by custom repository queries
+	 */
+	@Override
+	@PostLoad
+	@PostPersist
+	public void markPersisted() {
+		this.persisted = true;
+		if(!Objects.isNull(source))
+			source.markPersisted();
+	}
+
+	@Override
+	public TokenWorkflow snapshot() {
+		TokenWorkflow copy = new TokenWorkflow();
+		copy.id = id;
+		copy.tokenId = tokenId;
+		copy.counterId = counterId;
+		copy.stepId = stepId;
+		copy.servedBy = servedBy;
+		copy.status = status;
+		copy.comments = comments;
+		copy.servedDate = servedDate;
+		copy.assignedAt = assignedAt;
+		copy.persisted = persisted;
+		copy.source = this;
+		return copy;
+	}
+
 	public Long getTokenId() {
 		return tokenId;
 	}
@@ -104,10 +167,22 @@ public class TokenWorkflow {
 		return status;
 	}
 
+	/**
+	 * Assignment time is noted when step moves to ASSIGNED
+	 * 
+	 * @param status
+	 */
 	public void setStatus(TokenWorklowStatus status) {
+		if(status == TokenWorklowStatus.ASSIGNED && this.status != TokenWorklowStatus.ASSIGNED)
+			this.assignedAt = System.currentTimeMillis();
 		this.status = status;
 	}
 
+	@JsonIgnore
+	public long getAssignedAt() {
+		return assignedAt;
+	}
+
 	public String getComments() {
 		return comments;
 	}
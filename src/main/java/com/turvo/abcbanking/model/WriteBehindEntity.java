@@ -0,0 +1,23 @@
+package com.turvo.abcbanking.model;
+
+/**
+ * Entity written to DB asynchronously by write behind executor
+ * 
+ * A copy taken at submit time is written, so changes made to cached instance meanwhile are written by their own
+ * (later) submission only. Copy tells whether row exists through the instance it was taken from.
+ * 
+ * @author Prabal Ghura
+ *
+ */
+public interface WriteBehindEntity<T> {
+
+	/**
+	 * @return copy of current state, marking the copy persisted also marks this instance
+	 */
+	T snapshot();
+
+	/**
+	 * Marks entity as existing in DB
+	 */
+	void markPersisted();
+}
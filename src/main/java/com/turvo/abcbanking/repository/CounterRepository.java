@@ -1,5 +1,6 @@
 package com.turvo.abcbanking.repository;
 
+import java.util.Date;
 import java.util.List;
 
 import org.springframework.data.jpa.repository.Query;
@@ -25,6 +26,14 @@ public interface CounterRepository extends BaseRepository<Counter, Long>{
 	 */
 	public List<Counter> findByBranchId(Long branchId);
 	
+	/**
+	 * For finding counters created or updated after a time
+	 * 
+	 * @param date
+	 * @return list of counters
+	 */
+	public List<Counter> findByModifiedDateAfter(Date date);
+	
 	/**
 	 * For finding max counter number in a branch
 	 * 
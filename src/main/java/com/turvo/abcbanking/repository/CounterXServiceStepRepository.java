@@ -1,5 +1,6 @@
 package com.turvo.abcbanking.repository;
 
+import java.util.Date;
 import java.util.List;
 
 import org.springframework.stereotype.Repository;
@@ -24,4 +25,12 @@ public interface CounterXServiceStepRepository extends BaseRepository<CounterXSe
 	 * @return
 	 */
 	public List<CounterXServiceStep> findByCounterIdAndStepIdIn(Long counterId, List<Long> stepIds);
+	
+	/**
+	 * For finding steps assigned to counters after a time
+	 * 
+	 * @param date
+	 * @return counter step mappings
+	 */
+	public List<CounterXServiceStep> findByCreatedDateAfter(Date date);
 }
@@ -0,0 +1,30 @@
+package com.turvo.abcbanking.repository;
+
+import javax.persistence.LockModeType;
+
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import com.turvo.abcbanking.model.IdGenerator;
+import com.turvo.abcbanking.utils.CustomQueries;
+
+/**
+ * Standard repository class for Id Generator operations
+ * 
+ * @author Prabal Ghura
+ *
+ */
+@Repository
+public interface IdGeneratorRepository extends BaseRepository<IdGenerator, String> {
+	
+	/**
+	 * For finding generator row locking it till end of transaction
+	 * 
+	 * @param name
+	 * @return generator row
+	 */
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query(CustomQueries.ID_GENERATOR_FOR_UPDATE)
+	IdGenerator findForUpdate(String name);
+}
@@ -43,4 +43,12 @@ public interface RoleRepository extends BaseRepository<Role, Integer> {
 	 * @return
 	 */
 	List<Role> findByNameIn(List<String> names);
+	
+	/**
+	 * Get role names assigned to all users
+	 * 
+	 * @return list of user id & role name pairs
+	 */
+	@Query(CustomQueries.ALL_USER_ROLE_NAMES)
+	List<Object[]> getAllUserRoleNames();
 }
@@ -21,4 +21,11 @@ public interface ServiceRepositoryCustom {
 	 * @return list of services
 	 */
 	public List<Service> getServicesForBranch(Long branchId, CustomerType type);
+	
+	/**
+	 * To get all the services defined in system along with their ordered steps
+	 * 
+	 * @return list of services
+	 */
+	public List<Service> getAllServicesWithSteps();
 }
@@ -42,4 +42,12 @@ public interface ServiceStepRepository extends BaseRepository<ServiceStep, Long>
 	 */
 	@Query(CustomQueries.STEPS_FOR_COUNTER)
 	public List<ServiceStep> findByCounterId(Long counterId);
+	
+	/**
+	 * To get service steps served by all counters
+	 * 
+	 * @return list of counter id & service step pairs
+	 */
+	@Query(CustomQueries.STEPS_FOR_ALL_COUNTERS)
+	public List<Object[]> findAllCounterSteps();
 }
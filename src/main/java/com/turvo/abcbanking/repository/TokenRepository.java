@@ -1,5 +1,8 @@
 package com.turvo.abcbanking.repository;
 
+import java.util.Date;
+import java.util.List;
+
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
@@ -23,4 +26,37 @@ public interface TokenRepository extends BaseRepository<Token, Long>, TokenRepos
 	 */
 	@Query(CustomQueries.TOKEN_MAX_NUMBER)
 	Integer getMaxCounterNumber(Long branchId);
+	
+	/**
+	 * For finding max pending token number of all branches
+	 * 
+	 * @return list of branch id & max token number pairs
+	 */
+	@Query(CustomQueries.TOKEN_MAX_NUMBER_BY_BRANCH)
+	List<Object[]> getMaxTokenNumbers();
+	
+	/**
+	 * For finding number of tokens waiting in every branch
+	 * 
+	 * @return list of branch id & pending token count pairs
+	 */
+	@Query(CustomQueries.PENDING_TOKEN_COUNT_BY_BRANCH)
+	List<Object[]> getPendingTokenCounts();
+	
+	/**
+	 * For finding tokens still open
+	 * 
+	 * @return ids of pending tokens
+	 */
+	@Query(CustomQueries.PENDING_TOKEN_IDS)
+	List<Long> getPendingTokenIds();
+	
+	/**
+	 * For finding counters holding tokens still open which were issued after a time
+	 * 
+	 * @param date
+	 * @return counter ids
+	 */
+	@Query(CustomQueries.COUNTERS_WITH_PENDING_TOKENS_CREATED_AFTER)
+	List<Long> getCounterIdsWithPendingTokensCreatedAfter(Date date);
 }
@@ -1,6 +1,7 @@
 package com.turvo.abcbanking.repository;
 
 import java.util.List;
+import java.util.Map;
 
 import com.turvo.abcbanking.model.Token;
 
@@ -19,4 +20,11 @@ public interface TokenRepositoryCustom {
 	 * @return list of tokens
 	 */
 	public List<Token> getTokensForCounter(Long counterId);
+	
+	/**
+	 * To get all the tokens all counters currently have to serve in one DB call
+	 * 
+	 * @return list of tokens mapped against counter id
+	 */
+	public Map<Long, List<Token>> getTokensForAllCounters();
 }
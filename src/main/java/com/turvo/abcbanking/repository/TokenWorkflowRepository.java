@@ -1,8 +1,13 @@
 package com.turvo.abcbanking.repository;
 
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import com.turvo.abcbanking.model.TokenWorkflow;
+import com.turvo.abcbanking.utils.CustomQueries;
 
 /**
  * Standard repository class for Token Workflow operations
@@ -12,4 +17,13 @@ import com.turvo.abcbanking.model.TokenWorkflow;
  */
 @Repository
 public interface TokenWorkflowRepository extends BaseRepository<TokenWorkflow, Long> {
+	
+	/**
+	 * For finding counters whose token workflow steps were created or updated after a time
+	 * 
+	 * @param date
+	 * @return counter ids
+	 */
+	@Query(CustomQueries.COUNTERS_SERVED_AFTER)
+	List<Long> getCounterIdsServedAfter(Date date);
 }
@@ -1,6 +1,7 @@
 package com.turvo.abcbanking.repository.impl;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 import javax.persistence.EntityManager;
 
@@ -28,4 +29,14 @@ extends SimpleJpaRepository<T, I> implements BaseRepository<T, I>{
         super(entityInformation, entityManager);
         this.entityManager = entityManager;
     }
+    
+    /**
+     * Numeric column value of a native query row as Long, whichever integer type the driver maps the column to (INT, BIGINT)
+     * 
+     * @param value
+     * @return long value, null for null
+     */
+    static Long toLong(Object value) {
+    	return Objects.isNull(value) ? null : ((Number) value).longValue();
+    }
 }
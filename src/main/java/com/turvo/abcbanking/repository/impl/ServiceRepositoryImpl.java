@@ -40,16 +40,37 @@ public class ServiceRepositoryImpl implements ServiceRepositoryCustom {
         query.setParameter(2, type.toString());
         @SuppressWarnings("unchecked")
 		List<Object[]> resultList =  query.getResultList();
-        Integer previousServiceId = null;
+        return toServices(resultList);
+    }
+    
+    /**
+     * The implementation fetches all Services along with service steps in one DB call
+     */
+    @Override
+    public List<Service> getAllServicesWithSteps() {
+        Query query = entityManager.createNativeQuery(CustomQueries.SERVICE_WORKFLOWS);
+        @SuppressWarnings("unchecked")
+		List<Object[]> resultList =  query.getResultList();
+        return toServices(resultList);
+    }
+    
+    /**
+     * Maps service rows (rows of a service are contiguous & ordered by workflow order) to services with their steps
+     * 
+     * @param resultList
+     * @return list of services
+     */
+    private List<Service> toServices(List<Object[]> resultList) {
+        Long previousServiceId = null;
         Service service = null;
         
         List<Service> services = new ArrayList<>();
         List<ServiceStep> steps = new ArrayList<>();
         
         for(Object[] record: resultList) {
-        	Integer serviceId = (Integer) record[0];
+        	Long serviceId = BaseRepositoryImpl.toLong(record[0]);
         	String serviceName = (String) record[1];
-        	Integer stepId = (Integer) record[2];
+        	Long stepId = BaseRepositoryImpl.toLong(record[2]);
         	String stepName = (String) record[3];
         	if(!serviceId.equals(previousServiceId)) {
         		if(!Objects.isNull(service)) {
@@ -58,11 +79,11 @@ public class ServiceRepositoryImpl implements ServiceRepositoryCustom {
         			services.add(service);
         		}
         		service = new Service();
-        		service.setId(serviceId.longValue());
+        		service.setId(serviceId);
         		service.setName(serviceName);
         	}
     		ServiceStep step = new ServiceStep();
-    		step.setId(stepId.longValue());
+    		step.setId(stepId);
     		step.setName(stepName);
     		steps.add(step);
         	previousServiceId = serviceId;
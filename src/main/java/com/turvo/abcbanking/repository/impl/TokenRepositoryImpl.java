@@ -2,7 +2,9 @@ package com.turvo.abcbanking.repository.impl;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 import javax.persistence.EntityManager;
@@ -42,23 +44,45 @@ public class TokenRepositoryImpl implements TokenRepositoryCustom{
         query.setParameter(1, counterId);
         @SuppressWarnings("unchecked")
 		List<Object[]> resultList =  query.getResultList();
-        Integer previousTokenId = null;
+        return toTokens(resultList).getOrDefault(counterId, new ArrayList<>());
+	}
+	
+	/**
+	 * The implementation fetches Tokens of all counters along with token workflow steps in one DB call
+	 */
+	@Override
+	public Map<Long, List<Token>> getTokensForAllCounters() {
+		Query query = entityManager.createNativeQuery(CustomQueries.TOKEN_FOR_ALL_COUNTERS);
+        @SuppressWarnings("unchecked")
+		List<Object[]> resultList =  query.getResultList();
+        return toTokens(resultList);
+	}
+	
+	/**
+	 * Maps token rows (rows of a token are contiguous) to tokens with their workflow steps
+	 * 
+	 * @param resultList
+	 * @return list of tokens in row order mapped against counter id they are assigned to
+	 */
+	private Map<Long, List<Token>> toTokens(List<Object[]> resultList) {
+        Long previousTokenId = null;
         Token token = null;
+        Long counterId = null;
         
-        List<Token> tokens = new ArrayList<>();
+        Map<Long, List<Token>> tokens = new HashMap<>();
         List<TokenWorkflow> steps = new ArrayList<>();
         
         for(Object[] record: resultList) {
-        	Integer tokenId = (Integer) record[0];
-        	Integer accountNumber = (Integer) record[1];
-        	Integer displayId = (Integer) record[2];
+        	Long tokenId = BaseRepositoryImpl.toLong(record[0]);
+        	Long accountNumber = BaseRepositoryImpl.toLong(record[1]);
+        	Integer displayId = Objects.isNull(record[2]) ? null : ((Number) record[2]).intValue();
         	String status = (String) record[3];
         	Date tokenCreationDate = (Date) record[4];
         	String servicingType = (String) record[13];
-        	Integer workflowId = (Integer) record[5];
-        	Integer tokenId1 = (Integer) record[6];
-        	Integer counterId1 = (Integer) record[7];
-        	Integer stepId = (Integer) record[8];
+        	Long workflowId = BaseRepositoryImpl.toLong(record[5]);
+        	Long tokenId1 = BaseRepositoryImpl.toLong(record[6]);
+        	Long counterId1 = BaseRepositoryImpl.toLong(record[7]);
+        	Long stepId = BaseRepositoryImpl.toLong(record[8]);
         	String servedBy = (String) record[9];
         	String workFlowStatus = (String) record[10];
         	String comments = (String) record[11];
@@ -67,31 +91,34 @@ public class TokenRepositoryImpl implements TokenRepositoryCustom{
         		if(!Objects.isNull(token)) {
         			token.setSteps(steps);
         			steps = new ArrayList<>();
-        			tokens.add(token);
+        			tokens.computeIfAbsent(counterId, id -> new ArrayList<>()).add(token);
         		}
         		token = new Token();
-        		token.setId(tokenId.longValue());
-        		token.setAccountNumber(accountNumber.longValue());
+        		token.setId(tokenId);
+        		token.setAccountNumber(accountNumber);
         		token.setNumber(displayId);
         		token.setStatus(TokenStatus.valueOf(status));
         		token.setCreatedDate(tokenCreationDate);
         		token.setType(CustomerType.valueOf(servicingType));
+        		token.markPersisted();
+        		counterId = BaseRepositoryImpl.toLong(record[14]);
         	}
         	TokenWorkflow step = new TokenWorkflow();
-    		step.setId(workflowId.longValue());
-    		step.setTokenId(tokenId1.longValue());
-    		step.setCounterId(counterId1 == null? null: counterId1.longValue());
-    		step.setStepId(stepId.longValue());
+    		step.setId(workflowId);
+    		step.setTokenId(tokenId1);
+    		step.setCounterId(counterId1);
+    		step.setStepId(stepId);
     		step.setServedBy(servedBy);
     		step.setStatus(TokenWorklowStatus.valueOf(workFlowStatus));
     		step.setComments(comments);
     		step.setServedDate(servedDate);
+    		step.markPersisted();
     		steps.add(step);
     		previousTokenId = tokenId;
         }
         if(!Objects.isNull(token)) {
         	token.setSteps(steps);
-			tokens.add(token);
+        	tokens.computeIfAbsent(counterId, id -> new ArrayList<>()).add(token);
 		}
         return tokens;
 	}
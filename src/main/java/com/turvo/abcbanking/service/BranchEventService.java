@@ -0,0 +1,42 @@
+package com.turvo.abcbanking.service;
+
+import java.util.List;
+
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.turvo.abcbanking.model.QueueEvent;
+
+/**
+ * Service contract/interface for branch event bus, fanning out counter queue changes of a branch to its subscribers
+ * 
+ * @author Prabal Ghura
+ *
+ */
+public interface BranchEventService {
+
+	/**
+	 * Publishes a counter queue change, called on token hot paths so it must not block
+	 * 
+	 * @param event
+	 */
+	public void publish(QueueEvent event);
+	
+	/**
+	 * Opens a server sent events stream of a branch's queue changes
+	 * 
+	 * @param branchId
+	 * @param lastSequence sequence of last event received on a previous stream, null for a fresh subscription
+	 * @return emitter
+	 */
+	public SseEmitter subscribe(Long branchId, Long lastSequence);
+	
+	/**
+	 * Long poll for a branch's queue changes
+	 * 
+	 * @param branchId
+	 * @param since sequence of last event received, null for a fresh subscription
+	 * @return events after passed sequence, completed as soon as there is one (empty list on timeout)
+	 */
+	public DeferredResult<List<QueueEvent>> poll(Long branchId, Long since);
+}
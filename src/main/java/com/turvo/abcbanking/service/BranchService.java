@@ -1,10 +1,12 @@
 package com.turvo.abcbanking.service;
 
 import java.util.List;
+import java.util.Map;
 
 import com.turvo.abcbanking.model.Branch;
 import com.turvo.abcbanking.model.Counter;
 import com.turvo.abcbanking.model.CustomerType;
+import com.turvo.abcbanking.model.Service;
 
 /**
  * Service contract/interface for Branch operations
@@ -29,6 +31,37 @@ public interface BranchService {
 	 */
 	public Branch getBranch(Long branchId);
 	
+	/**
+	 * Gets a branch from cache only, never loads it from DB.
+	 * 
+	 * @param branchId
+	 * @return cached branch instance, null if branch is not cached (yet)
+	 */
+	public Branch getCachedBranch(Long branchId);
+	
+	/**
+	 * Gets branches in cache only, never loads them from DB.
+	 * 
+	 * @return list of cached branches
+	 */
+	public List<Branch> getCachedBranches();
+	
+	/**
+	 * For getting branch cache statistics
+	 * 
+	 * @return cached branch count, warm up state & count of branches left to be loaded on access
+	 */
+	public Map<String, Object> getCacheStatistics();
+	
+	/**
+	 * Compact JSON projection of a branch's counter queues (counter number, operator, depth & head token number),
+	 * rendered once per branch version and served as is until branch queues change
+	 * 
+	 * @param branchId
+	 * @return rendered snapshot
+	 */
+	public byte[] getQueueSnapshot(Long branchId);
+	
 	/**
 	 * Creates a new branch in the system
 	 * 
@@ -76,10 +109,27 @@ public interface BranchService {
 	 */
 	public Counter updateCounter(Counter counter);
 	
+	/**
+	 * Recomputes whether each cached branch serves passed service after its workflow is changed,
+	 * other services & branch state are untouched
+	 * 
+	 * @param service service with its new ordered steps
+	 */
+	public void refreshService(Service service);
+	
 	/**
 	 * To scrap entire branch cache and reload it from DB 
-	 * used in case of change in service to service step mapping only
+	 * used at start up when there is no usable cache snapshot or most branches changed since it,
+	 * service workflow changes are applied in place by refreshService
 	 * 
 	 */
 	public void reloadEntireCache();
+	
+	/**
+	 * To build branch cache at start up from local cache snapshot reconciled with DB,
+	 * cache is loaded from DB if there is no usable snapshot.
+	 * In lazy loading mode returns immediately, branches are loaded on first access and warmed up in background
+	 * 
+	 */
+	public void restoreCache();
 }
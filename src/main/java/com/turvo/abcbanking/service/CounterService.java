@@ -1,6 +1,7 @@
 package com.turvo.abcbanking.service;
 
 import java.util.List;
+import java.util.Map;
 
 import com.turvo.abcbanking.model.Counter;
 import com.turvo.abcbanking.model.ServiceStep;
@@ -15,13 +16,21 @@ public interface CounterService {
 
 	/**
 	 * Gets full fledged branch counters defined in the system.
-	 * Used only during entire cache load
+	 * Counters of a cached branch are returned without tokens, caller takes over live queues of cached counters
 	 * 
 	 * @param branchId
 	 * @return list of counters
 	 */
 	public List<Counter> getBranchCountersFromDB(Long branchId);
 	
+	/**
+	 * Gets full fledged counters of all branches using set based queries.
+	 * Used only during entire cache load
+	 * 
+	 * @return list of counters mapped against branch id
+	 */
+	public Map<Long, List<Counter>> getAllCountersFromDB();
+	
 	/**
 	 * Creates a new counter in the branch specified
 	 * 
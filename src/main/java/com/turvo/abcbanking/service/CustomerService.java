@@ -1,5 +1,7 @@
 package com.turvo.abcbanking.service;
 
+import java.util.Map;
+
 import com.turvo.abcbanking.model.Customer;
 
 /**
@@ -25,4 +27,18 @@ public interface CustomerService {
 	 * @return new customer instance
 	 */
 	public Customer createNewCustomer(Customer customer);
+	
+	/**
+	 * Evicts a customer from customer cache, to be called when customer is modified outside application
+	 * 
+	 * @param accountNumber
+	 */
+	public void evictCustomer(Long accountNumber);
+	
+	/**
+	 * For getting customer cache statistics
+	 * 
+	 * @return size, hits, misses & evictions of customer cache
+	 */
+	public Map<String, Long> getCacheStatistics();
 }
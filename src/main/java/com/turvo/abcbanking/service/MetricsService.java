@@ -0,0 +1,49 @@
+package com.turvo.abcbanking.service;
+
+import java.util.Map;
+
+import com.turvo.abcbanking.model.Token;
+import com.turvo.abcbanking.model.TokenStatus;
+import com.turvo.abcbanking.model.TokenWorkflow;
+
+/**
+ * Service contract/interface for recording & reporting queue metrics
+ * 
+ * Recording methods are called on token hot paths and must not allocate or block
+ * 
+ * @author Prabal Ghura
+ *
+ */
+public interface MetricsService {
+
+	/**
+	 * Records creation of a token
+	 * 
+	 * @param token
+	 */
+	public void recordTokenCreated(Token token);
+	
+	/**
+	 * Records a token pulled from counter queue and its served workflow step,
+	 * time in queue is measured from token creation, service time from step assignment
+	 * 
+	 * @param token
+	 * @param servedStep
+	 */
+	public void recordStepServed(Token token, TokenWorkflow servedStep);
+	
+	/**
+	 * Records a token marked completed/cancelled
+	 * 
+	 * @param token
+	 * @param status
+	 */
+	public void recordTokenMarked(Token token, TokenStatus status);
+	
+	/**
+	 * For getting current metrics, queue depths are read from branch cache
+	 * 
+	 * @return throughput counters, per branch & per counter queue depths, time in queue & per step service time histograms
+	 */
+	public Map<String, Object> getMetrics();
+}
@@ -21,6 +21,25 @@ public interface RoleService {
 	 */
 	public Boolean checkAccessForUser(String userId, String role);
 	
+	/**
+	 * Loads role names of all users in role cache (replacing cached entries)
+	 */
+	public void reloadRoleCache();
+	
+	/**
+	 * Evicts a user from role cache of every cluster member, to be called whenever user or user's roles change
+	 * 
+	 * @param userId
+	 */
+	public void invalidateUserRoles(String userId);
+	
+	/**
+	 * Evicts a user from role cache of this node only (user changed on another member)
+	 * 
+	 * @param userId
+	 */
+	public void evictUserRoles(String userId);
+	
 	/**
 	 * Gets all the roles assigned to a user
 	 * 
@@ -0,0 +1,384 @@
+package com.turvo.abcbanking.service.impl;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.turvo.abcbanking.exception.BusinessRuntimeException;
+import com.turvo.abcbanking.model.Branch;
+import com.turvo.abcbanking.model.QueueEvent;
+import com.turvo.abcbanking.model.QueueEventType;
+import com.turvo.abcbanking.service.BranchEventService;
+import com.turvo.abcbanking.service.BranchService;
+import com.turvo.abcbanking.utils.ApplicationConstants;
+
+/**
+ * Service implementation for branch event bus
+ * 
+ * Publishing threads only hand events over to a bounded queue (events of branches nobody has subscribed to are dropped
+ * right away), a single dispatcher thread numbers them per branch, keeps last few of every branch for replay and 
+ * fans them out to SSE streams & waiting long polls. If the queue is full event is dropped and branch subscribers 
+ * get a RESYNC event instead, so a slow consumer never holds up token operations.
+ * 
+ * Dispatcher never writes to a stream itself: every SSE subscriber has a bounded buffer drained by a small pool 
+ * of sender threads, one drain per subscriber at a time so its events stay in order. A subscriber whose buffer 
+ * overflows has it replaced by a RESYNC event, so a slow stream neither blocks the branch nor other subscribers.
+ * 
+ * @author Prabal Ghura
+ *
+ */
+@Service("branchEventService")
+public class BranchEventServiceImpl implements BranchEventService {
+	
+	private static final Logger log = Logger.getLogger(BranchEventServiceImpl.class.getName());
+	
+	@Autowired
+	BranchService branchService;
+	
+	/**
+	 * Events waiting for dispatch
+	 */
+	@Value("${abcbanking.events.capacity:10000}")
+	int capacity;
+	
+	/**
+	 * Events kept per branch for replay to reconnecting subscribers
+	 */
+	@Value("${abcbanking.events.history:1000}")
+	int history;
+	
+	@Value("${abcbanking.events.sse-timeout-ms:1800000}")
+	long sseTimeout;
+	
+	@Value("${abcbanking.events.poll-timeout-ms:25000}")
+	long pollTimeout;
+	
+	/**
+	 * Events buffered per SSE subscriber before it is sent RESYNC instead
+	 */
+	@Value("${abcbanking.events.subscriber-buffer:256}")
+	int subscriberBuffer;
+	
+	@Value("${abcbanking.events.sender-threads:4}")
+	int senderThreads;
+	
+	/**
+	 * Channel of every branch subscribed to at least once
+	 */
+	private final ConcurrentHashMap<Long, BranchChannel> channels = new ConcurrentHashMap<>();
+	
+	private BlockingQueue<QueueEvent> pending;
+	
+	private Thread dispatcher;
+	
+	/**
+	 * Writes buffered events to SSE streams
+	 */
+	private ExecutorService senders;
+	
+	private volatile boolean running;
+	
+	@PostConstruct
+	public void start() {
+		pending = new ArrayBlockingQueue<>(Math.max(1, capacity));
+		running = true;
+		dispatcher = new Thread(this::dispatch, "branch-event-dispatcher");
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+		senders = Executors.newFixedThreadPool(Math.max(1, senderThreads), runnable -> {
+			Thread thread = new Thread(runnable, "branch-event-sender");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
+	/**
+	 * Stops dispatcher and completes open streams & polls
+	 */
+	@PreDestroy
+	public void stop() {
+		running = false;
+		dispatcher.interrupt();
+		try {
+			dispatcher.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		channels.values().forEach(BranchChannel::close);
+		senders.shutdownNow();
+	}
+	
+	@Override
+	public void publish(QueueEvent event) {
+		BranchChannel channel = channels.get(event.getBranchId());
+		if(Objects.isNull(channel))
+			return;
+		if(!pending.offer(event))
+			channel.lost = true;
+	}
+	
+	/**
+	 * Events after passed sequence are replayed (RESYNC if they are no longer kept) before live events
+	 */
+	@Override
+	public SseEmitter subscribe(Long branchId, Long lastSequence) {
+		SseEmitter emitter = new SseEmitter(sseTimeout);
+		getChannel(branchId).subscribe(emitter, lastSequence);
+		return emitter;
+	}
+	
+	/**
+	 * Completed right away if there are events after passed sequence (RESYNC if they are no longer kept)
+	 */
+	@Override
+	public DeferredResult<List<QueueEvent>> poll(Long branchId, Long since) {
+		DeferredResult<List<QueueEvent>> result = new DeferredResult<>(pollTimeout, Collections.emptyList());
+		getChannel(branchId).poll(result, since);
+		return result;
+	}
+	
+	private BranchChannel getChannel(Long branchId) {
+		if(Objects.isNull(branchService.getBranch(branchId)))
+			throw new BusinessRuntimeException(ApplicationConstants.ERR_BRANCH_NOT_EXIST);
+		return channels.computeIfAbsent(branchId, BranchChannel::new);
+	}
+	
+	private void dispatch() {
+		while(running) {
+			try {
+				QueueEvent event = pending.poll(200, TimeUnit.MILLISECONDS);
+				if(!Objects.isNull(event))
+					channels.get(event.getBranchId()).append(event);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (RuntimeException e) {
+				log.log(Level.WARNING, "Branch event could not be dispatched", e);
+			}
+		}
+	}
+	
+	/**
+	 * Subscribers & recent events of a branch, guarded by its own lock
+	 */
+	private class BranchChannel {
+		
+		private final Long branchId;
+		
+		private final QueueEvent[] events = new QueueEvent[Math.max(1, history)];
+		
+		private long sequence;
+		
+		private final List<Subscriber> emitters = new ArrayList<>();
+		
+		private final List<DeferredResult<List<QueueEvent>>> waiters = new ArrayList<>();
+		
+		/**
+		 * Set when an event of this branch is dropped, subscribers are sent RESYNC before next event
+		 */
+		volatile boolean lost;
+		
+		BranchChannel(Long branchId) {
+			this.branchId = branchId;
+		}
+		
+		synchronized void append(QueueEvent event) {
+			if(lost) {
+				lost = false;
+				deliver(resync());
+			}
+			deliver(event);
+		}
+		
+		synchronized void subscribe(SseEmitter emitter, Long lastSequence) {
+			Subscriber subscriber = new Subscriber(emitter);
+			getEventsSince(lastSequence).forEach(subscriber::offer);
+			emitters.add(subscriber);
+			emitter.onCompletion(() -> remove(emitter));
+			emitter.onTimeout(() -> remove(emitter));
+		}
+		
+		synchronized void poll(DeferredResult<List<QueueEvent>> result, Long since) {
+			List<QueueEvent> events1 = getEventsSince(since);
+			if(!events1.isEmpty()) {
+				result.setResult(events1);
+				return;
+			}
+			waiters.add(result);
+			result.onCompletion(() -> remove(result));
+		}
+		
+		synchronized void close() {
+			List<Subscriber> emitters1 = new ArrayList<>(emitters);
+			List<DeferredResult<List<QueueEvent>>> waiters1 = new ArrayList<>(waiters);
+			emitters.clear();
+			waiters.clear();
+			emitters1.forEach(subscriber -> subscriber.emitter.complete());
+			waiters1.forEach(waiter -> waiter.setResult(Collections.emptyList()));
+		}
+		
+		private synchronized void remove(Object subscriber) {
+			emitters.removeIf(subscriber1 -> subscriber1.emitter == subscriber);
+			waiters.remove(subscriber);
+		}
+		
+		private void deliver(QueueEvent event) {
+			event.setSequence(++sequence);
+			events[(int) (sequence % events.length)] = event;
+			emitters.forEach(subscriber -> subscriber.offer(event));
+			List<QueueEvent> events1 = Collections.singletonList(event);
+			List<DeferredResult<List<QueueEvent>>> waiters1 = new ArrayList<>(waiters);
+			waiters.clear();
+			waiters1.forEach(waiter -> waiter.setResult(events1));
+		}
+		
+		/**
+		 * Kept events after passed sequence, RESYNC (at current sequence) if passed sequence is null, 
+		 * unknown or its following events are no longer kept
+		 * 
+		 * @param since
+		 * @return events
+		 */
+		private List<QueueEvent> getEventsSince(Long since) {
+			if(Objects.isNull(since) || since > sequence || since < sequence - events.length)
+				return Collections.singletonList(resync());
+			List<QueueEvent> events1 = new ArrayList<>();
+			for(long sequence1 = since + 1; sequence1 <= sequence; sequence1++)
+				events1.add(events[(int) (sequence1 % events.length)]);
+			return events1;
+		}
+		
+		/**
+		 * RESYNC at current sequence carrying cached branch version, built under channel lock so branch is never loaded here
+		 * 
+		 * @return event
+		 */
+		private QueueEvent resync() {
+			Branch branch = branchService.getCachedBranch(branchId);
+			QueueEvent event = new QueueEvent(QueueEventType.RESYNC, branchId, null, null, null, 
+					Objects.isNull(branch) ? 0 : branch.getVersion());
+			event.setSequence(sequence);
+			return event;
+		}
+		
+		/**
+		 * SSE stream of a branch with its own buffer, filled under channel lock and drained on a sender thread
+		 */
+		private class Subscriber implements Runnable {
+			
+			private final SseEmitter emitter;
+			
+			/**
+			 * Events waiting to be sent, guarded by subscriber
+			 */
+			private final Deque<QueueEvent> buffer = new ArrayDeque<>();
+			
+			/**
+			 * Set while a drain is submitted or running
+			 */
+			private boolean scheduled;
+			
+			private boolean failed;
+			
+			Subscriber(SseEmitter emitter) {
+				this.emitter = emitter;
+			}
+			
+			/**
+			 * Buffers an event, when buffer is full it is replaced by a RESYNC (at current sequence, so it covers the event)
+			 */
+			void offer(QueueEvent event) {
+				synchronized(this) {
+					if(failed)
+						return;
+					if(buffer.size() < Math.max(1, subscriberBuffer)) {
+						buffer.add(event);
+					} else {
+						buffer.clear();
+						buffer.add(event.getType() == QueueEventType.RESYNC ? event : resync());
+					}
+				}
+				schedule();
+			}
+			
+			@Override
+			public void run() {
+				for(int i = 0; i < Math.max(1, subscriberBuffer); i++) {
+					QueueEvent event;
+					synchronized(this) {
+						event = failed ? null : buffer.poll();
+						if(Objects.isNull(event)) {
+							scheduled = false;
+							return;
+						}
+					}
+					if(!send(event)) {
+						synchronized(this) {
+							failed = true;
+							buffer.clear();
+							scheduled = false;
+						}
+						remove(emitter);
+						return;
+					}
+				}
+				synchronized(this) {
+					scheduled = false;
+				}
+				schedule();
+			}
+			
+			/**
+			 * Submits a drain unless one is pending, sender threads are shared so a drain yields after a buffer worth of events
+			 */
+			private void schedule() {
+				synchronized(this) {
+					if(scheduled || failed || buffer.isEmpty())
+						return;
+					scheduled = true;
+				}
+				try {
+					senders.execute(this);
+				} catch (RejectedExecutionException e) {
+					synchronized(this) {
+						scheduled = false;
+					}
+				}
+			}
+			
+			private boolean send(QueueEvent event) {
+				try {
+					emitter.send(SseEmitter.event().id(String.valueOf(event.getSequence())).name(event.getType().name())
+							.data(event, MediaType.APPLICATION_JSON));
+					return true;
+				} catch (IOException | IllegalStateException e) {
+					emitter.completeWithError(e);
+					return false;
+				}
+			}
+		}
+	}
+}
@@ -1,27 +1,64 @@
 package com.turvo.abcbanking.service.impl;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.turvo.abcbanking.exception.BusinessRuntimeException;
 import com.turvo.abcbanking.model.Branch;
+import com.turvo.abcbanking.model.CacheSnapshot;
 import com.turvo.abcbanking.model.Counter;
 import com.turvo.abcbanking.model.CustomerType;
+import com.turvo.abcbanking.model.QueueEvent;
 import com.turvo.abcbanking.model.Service;
 import com.turvo.abcbanking.model.ServiceStep;
+import com.turvo.abcbanking.model.Token;
 import com.turvo.abcbanking.repository.BranchRepository;
+import com.turvo.abcbanking.repository.CounterRepository;
+import com.turvo.abcbanking.repository.CounterXServiceStepRepository;
 import com.turvo.abcbanking.repository.ServiceRepository;
 import com.turvo.abcbanking.repository.TokenRepository;
+import com.turvo.abcbanking.repository.TokenWorkflowRepository;
+import com.turvo.abcbanking.service.BranchEventService;
 import com.turvo.abcbanking.service.BranchService;
 import com.turvo.abcbanking.service.CounterService;
 import com.turvo.abcbanking.service.UserService;
 import com.turvo.abcbanking.utils.ApplicationConstants;
+import com.turvo.abcbanking.utils.BranchCacheSnapshot;
+import com.turvo.abcbanking.utils.BranchMailbox;
+import com.turvo.abcbanking.utils.BranchSharding;
+import com.turvo.abcbanking.utils.DBWriteBehindExecutor;
+import com.turvo.abcbanking.utils.QueueJournal;
 
 /**
  * Service implementation for Branch operations
@@ -32,6 +69,8 @@ import com.turvo.abcbanking.utils.ApplicationConstants;
 @org.springframework.stereotype.Service("branchService")
 public class BranchServiceImpl extends BaseServiceImpl implements BranchService {
 	
+	private static final Logger log = Logger.getLogger(BranchServiceImpl.class.getName());
+	
 	/**
 	 * Central JVM cache
 	 * 
@@ -42,8 +81,35 @@ public class BranchServiceImpl extends BaseServiceImpl implements BranchService
 	 * immediately updated in JVM cache (least possible granular level) 
 	 * in thread safe manner for fast access.
 	 * 
+	 * When branches are sharded over multiple nodes only branches owned by this node are cached.
+	 * 
 	 */
 	private ConcurrentHashMap<Long, Branch> branches = new ConcurrentHashMap<>();
+	
+	/**
+	 * Last rendered queue snapshot of every branch, valid as long as branch instance & version are unchanged
+	 */
+	private ConcurrentHashMap<Long, QueueSnapshot> snapshots = new ConcurrentHashMap<>();
+	
+	/**
+	 * Branch loads in flight, concurrent requests for a branch being loaded wait for the same load
+	 */
+	private ConcurrentHashMap<Long, CompletableFuture<Branch>> loading = new ConcurrentHashMap<>();
+	
+	/**
+	 * Set while branches are being warmed up in background (lazy loading), missing branches are loaded on access meanwhile
+	 */
+	private volatile boolean warmingUp;
+	
+	/**
+	 * Owned branches warm up failed to load (after its retries), these are loaded on access instead
+	 */
+	private final Set<Long> unloaded = ConcurrentHashMap.newKeySet();
+	
+	/**
+	 * Set if warm up could not even list owned branches, every missing branch is then loaded on access
+	 */
+	private volatile boolean warmUpFailed;
 
 	@Autowired
 	BranchRepository branchRepository;
@@ -60,15 +126,159 @@ public class BranchServiceImpl extends BaseServiceImpl implements BranchService
 	@Autowired
 	TokenRepository tokenRepository;
 	
+	@Autowired
+	ObjectMapper objectMapper;
+	
+	@Autowired
+	BranchEventService branchEventService;
+	
+	@Autowired
+	BranchSharding branchSharding;
+	
+	@Autowired
+	QueueJournal queueJournal;
+	
+	@Autowired
+	BranchCacheSnapshot branchCacheSnapshot;
+	
+	@Autowired
+	CounterRepository counterRepository;
+	
+	@Autowired
+	CounterXServiceStepRepository counterXServiceStepRepository;
+	
+	@Autowired
+	TokenWorkflowRepository tokenWorkflowRepository;
+	
+	@Autowired
+	DBWriteBehindExecutor dbWriteBehindExecutor;
+	
+	@Autowired
+	BranchMailbox branchMailbox;
+	
+	/**
+	 * Token number after which branch token numbering wraps around to 1 (0 disables wraparound)
+	 */
+	@Value("${abcbanking.token.max-number:0}")
+	int tokenMaxNumber;
+	
+	/**
+	 * Whether branch token numbering restarts from 1 every day
+	 */
+	@Value("${abcbanking.token.daily-reset:false}")
+	boolean tokenDailyReset;
+	
+	/**
+	 * Threads used for full cache load (0 uses available processors)
+	 */
+	@Value("${abcbanking.cache.load-parallelism:0}")
+	int cacheLoadParallelism;
+	
+	/**
+	 * Whether start up doesn't wait for cache, branches are then loaded on first access & warmed up in background
+	 */
+	@Value("${abcbanking.cache.lazy:false}")
+	boolean lazyLoading;
+	
+	/**
+	 * Rounds in which warm up retries branches that failed to load, after these they are left to be loaded on access
+	 */
+	@Value("${abcbanking.cache.warm-up-retries:3}")
+	int warmUpRetries;
+	
+	@Value("${abcbanking.cache.warm-up-retry-ms:1000}")
+	long warmUpRetryDelay;
+	
+	/**
+	 * Subtracted from snapshot watermark when looking for rows modified after it (clock difference between nodes)
+	 */
+	@Value("${abcbanking.snapshot.clock-skew-ms:5000}")
+	long snapshotClockSkew;
+	
+	/**
+	 * Time a branch handover may take: previous owner flushes pending writes within it, 
+	 * new owner doesn't load a branch taken over before it has passed since membership change
+	 */
+	@Value("${abcbanking.cluster.handoff-ms:30000}")
+	long handoffTimeout;
+	
+	/**
+	 * Branches no longer owned by this node are handed over on membership change: mutations already handed to 
+	 * their mailbox loops are executed and queued DB writes are flushed before they are dropped from cache 
+	 * (their pending tokens are loaded from DB by new owner), newly owned ones are loaded on first access
+	 */
+	@PostConstruct
+	public void watchMembership() {
+		branchSharding.addMembershipListener(() -> {
+			List<Long> departing = branches.keySet().stream().filter(branchId -> !branchSharding.isLocal(branchId))
+					.collect(Collectors.toList());
+			if(!departing.isEmpty())
+				handOver(departing);
+			branches.keySet().removeIf(branchId -> !branchSharding.isLocal(branchId));
+			snapshots.keySet().removeIf(branchId -> !branchSharding.isLocal(branchId));
+		});
+	}
+	
+	/**
+	 * Waits for pending mutations & DB writes of branches moving to another node, 
+	 * writes not flushed within handoff timeout are left to write behind executor (logged)
+	 * 
+	 * @param branchIds
+	 */
+	private void handOver(List<Long> branchIds) {
+		long time = System.currentTimeMillis();
+		for(Long branchId: branchIds) {
+			try {
+				branchMailbox.execute(branchId, () -> {});
+			} catch (RuntimeException e) {
+				log.log(Level.WARNING, "Pending mutations of branch " + branchId + " could not be drained before hand over", e);
+			}
+		}
+		if(dbWriteBehindExecutor.flush(Math.max(1, time + handoffTimeout - System.currentTimeMillis())))
+			log.log(Level.INFO, () -> branchIds.size() + " branches handed over in " + (System.currentTimeMillis() - time) + " ms");
+		else
+			log.log(Level.SEVERE, () -> "DB writes could not be flushed before handing over " + branchIds.size() 
+					+ " branches, new owner may load them without latest changes");
+	}
+	
+	/**
+	 * Branch taken over from another node with last membership change is not loaded before handoff timeout 
+	 * has passed since the change, so that previous owner's pending writes are in DB
+	 * 
+	 * @param branchId
+	 */
+	private void awaitHandOver(Long branchId) {
+		long wait = branchSharding.getMembershipChangedAt() + handoffTimeout - System.currentTimeMillis();
+		if(wait <= 0 || !branchSharding.isTakenOver(branchId))
+			return;
+		try {
+			TimeUnit.MILLISECONDS.sleep(wait);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for hand over of branch " + branchId, e);
+		}
+	}
+	
+	/**
+	 * Queue journal is compacted & cache snapshot is captured from cached branches
+	 */
+	@PostConstruct
+	public void attachLocalStores() {
+		queueJournal.setSource(branches::values);
+		branchCacheSnapshot.setSource(branches::values);
+	}
+	
 	/**
 	 * If branch cache is empty then it is fetched from DB
 	 * This task is ran post system build for initial heavy lifting as well
+	 * While branches are warmed up in background, branches loaded so far are returned, listing never queries DB
+	 * nor waits for branches still loading (those are loaded by warmer or on access)
 	 * 
 	 * @return List of branches made by traversing the cache
 	 */
 	@Override
 	public List<Branch> getAllBranches() {
-		if(branches.size() == 0) {
+		if(!warmingUp && branches.size() == 0) {
 			List<Branch> branches2 = getBranchesFromDB();
 			branches2.forEach(branch -> branches.put(branch.getId(), branch));
 		}
@@ -81,16 +291,68 @@ public class BranchServiceImpl extends BaseServiceImpl implements BranchService
 	
 	/**
 	 * id is passed as key to map and instance is returned
+	 * When sharded, a branch owned by this node but not in cache yet (created on another node or 
+	 * moved here by a membership change) is loaded from DB, same for any branch while cache is being warmed up
+	 * or which warm up failed to load
 	 */
 	@Override
 	public Branch getBranch(Long id) {
-		return branches.get(id);
+		Branch branch = branches.get(id);
+		if(Objects.isNull(branch) && !Objects.isNull(id) && (warmingUp || warmUpFailed || branchSharding.isClustered() 
+				|| unloaded.contains(id)) && branchSharding.isLocal(id))
+			branch = loadBranch(id);
+		return branch;
+	}
+	
+	/**
+	 * Plain cache read, for callers to whom a DB load would be a side effect
+	 */
+	@Override
+	public Branch getCachedBranch(Long id) {
+		return Objects.isNull(id) ? null : branches.get(id);
+	}
+	
+	@Override
+	public List<Branch> getCachedBranches() {
+		return new ArrayList<>(branches.values());
+	}
+	
+	/**
+	 * Warm up failed means it could not list branches, every missing branch is then loaded on access
+	 */
+	@Override
+	public Map<String, Object> getCacheStatistics() {
+		Map<String, Object> statistics = new LinkedHashMap<>();
+		statistics.put("size", branches.size());
+		statistics.put("warmingUp", warmingUp);
+		statistics.put("warmUpFailed", warmUpFailed);
+		statistics.put("unloaded", unloaded.size());
+		return statistics;
+	}
+
+	/**
+	 * Cached snapshot is returned if it was rendered from current branch instance at current version,
+	 * otherwise counters are projected and rendered again. Version is read before rendering so a change made 
+	 * while rendering is picked up by next call.
+	 */
+	@Override
+	public byte[] getQueueSnapshot(Long branchId) {
+		Branch branch = getBranch(branchId);
+		if(Objects.isNull(branch))
+			throw new BusinessRuntimeException(ApplicationConstants.ERR_BRANCH_NOT_EXIST);
+		QueueSnapshot snapshot = snapshots.get(branchId);
+		if(!Objects.isNull(snapshot) && snapshot.branch == branch && snapshot.version == branch.getVersion())
+			return snapshot.bytes;
+		long version = branch.getVersion();
+		snapshot = new QueueSnapshot(branch, version, renderQueueSnapshot(branch, version));
+		snapshots.put(branchId, snapshot);
+		return snapshot.bytes;
 	}
 
 	/**
 	 * Access check is performed
 	 * Passed branch object is validated
-	 * Branch is pushed to DB and instance is created in cache synchronously
+	 * Branch is pushed to DB and instance is created in cache synchronously (if owned by this node)
 	 */
 	@Override
 	@Transactional(readOnly = false)
@@ -99,8 +361,8 @@ public class BranchServiceImpl extends BaseServiceImpl implements BranchService
 		if(!roleService.checkAccessForUser(branch.getManagerId(), ApplicationConstants.ROLE_MANAGER))
 			throw new BusinessRuntimeException(ApplicationConstants.ERR_MANAGER_NOT_EXIST);
 		branch.setLastModifiedBy(creatorId);
-		branch = updateBranch(getBranchFull(branchRepository.saveAndFlush(branch)));
-		return branch;
+		branch = getBranchFull(branchRepository.saveAndFlush(branch));
+		return branchSharding.isLocal(branch.getId()) ? updateBranch(branch) : branch;
 	}
 
 	/**
@@ -148,46 +410,37 @@ public class BranchServiceImpl extends BaseServiceImpl implements BranchService
 		Branch branch = getBranch(counter.getBranchId());
 		if(Objects.isNull(branch))
 			throw new BusinessRuntimeException(ApplicationConstants.ERR_BRANCH_NOT_EXIST);
-		branch.updateCounter(counter);
-		return updateBranch(branch).getCounter(counter.getNumber());
+		return updateBranch(branch.updateCounter(counter)).getCounter(counter.getNumber());
 	}
 	
 	/**
-	 * All the counters within a branch serving passed customer type are short-listed. 
-	 * Counters which are not serving passed service_step are removed from the list. 
-	 * From the remaining list counter with least token queue size is returned
+	 * Counters within a branch serving passed customer type and service_step are kept in a heap ordered by token queue size 
+	 * (branch routing index), counter with least token queue size is read from heap top in constant time
 	 */
 	@Override
 	public Counter getBestCounter(Long branchId, CustomerType type, Long stepId) {
-		List<Counter> counters;
-		List<Counter> counters1 = new ArrayList<>();
 		Branch branch = getBranch(branchId);
 		if(Objects.isNull(branch))
 			throw new BusinessRuntimeException(ApplicationConstants.ERR_BRANCH_NOT_EXIST);
-		if(type == CustomerType.REGULAR)
-			counters = branch.getRegularCounters();
-		else
-			counters = branch.getPremiumCounters();
-		
-		for(Counter counter: counters) {
-			for(ServiceStep step: counter.getSteps()) {
-				if(step.getId() == stepId) {
-					counters1.add(counter);
-					break;
-				}
-			}
-		}
-		
-		int leastSize = Integer.MAX_VALUE;
-		Counter counter = null;
-		
-		for(Counter counter1: counters1) {
-			if(leastSize > counter1.getTokens().size()) {
-				leastSize = counter1.getTokens().size();
-				counter = counter1;
-			}
+		return branch.getLeastLoadedCounter(type, stepId);
+	}
+	
+	/**
+	 * For every cached branch & customer type, served steps are derived from in memory counters and
+	 * a new service list is built off to the side (passed service removed, added back if all its steps are served)
+	 * and swapped in. Branches stay in cache and readable throughout.
+	 * 
+	 * Synchronized so that concurrent workflow changes don't overwrite each other's lists
+	 */
+	@Override
+	public synchronized void refreshService(Service service) {
+		for(Branch branch: branches.values()) {
+			branch.setRegularServices(replaceService(branch.getRegularServices(), service, 
+					getServedStepIds(branch.getRegularCounters(), CustomerType.REGULAR)));
+			branch.setPremiumServices(replaceService(branch.getPremiumServices(), service, 
+					getServedStepIds(branch.getPremiumCounters(), CustomerType.PREMIUM)));
+			branch.changed();
 		}
-		return counter;
 	}
 	
 	/**
@@ -200,47 +453,277 @@ public class BranchServiceImpl extends BaseServiceImpl implements BranchService
 	}
 	
 	/**
-	 * updates a branch in the cache
+	 * Snapshot branches with no DB change after snapshot watermark are restored as they were (tokens closed since are left out),
+	 * the rest are loaded from DB. Services are fetched with a single query and matched against restored counters.
+	 */
+	@Override
+	public void restoreCache() {
+		if(lazyLoading) {
+			warmingUp = true;
+			warmUpFailed = false;
+			unloaded.clear();
+			branches.clear();
+			Thread warmer = new Thread(this::warmUpCache, "branch-warmer");
+			warmer.setDaemon(true);
+			warmer.start();
+			return;
+		}
+		CacheSnapshot snapshot = branchCacheSnapshot.read();
+		if(Objects.isNull(snapshot)) {
+			reloadEntireCache();
+			return;
+		}
+		long time = System.currentTimeMillis();
+		List<Branch> branchList = branchRepository.findAll().stream().filter(branch -> branchSharding.isLocal(branch.getId()))
+				.collect(Collectors.toList());
+		Set<Long> modified = getBranchesModifiedAfter(snapshot, branchList);
+		if(modified.size() * 2 > branchList.size()) {
+			log.log(Level.INFO, () -> modified.size() + " of " + branchList.size() + " branches changed since cache snapshot, loading all from DB");
+			reloadEntireCache();
+			return;
+		}
+		
+		Set<Long> pendingTokens = new HashSet<>(tokenRepository.getPendingTokenIds());
+		List<Service> services = serviceRepository.getAllServicesWithSteps();
+		branches.clear();
+		for(Branch branch: branchList) {
+			if(modified.contains(branch.getId())) {
+				branches.put(branch.getId(), getBranchFull(branch));
+				continue;
+			}
+			List<Counter> counters = snapshot.getCounters().getOrDefault(branch.getId(), Collections.emptyList());
+			for(Counter counter: counters) {
+				snapshot.getQueues().getOrDefault(counter.getId(), Collections.emptyList()).stream()
+						.filter(token -> pendingTokens.contains(token.getId())).forEach(counter::addToken);
+			}
+			branches.put(branch.getId(), getBranchFull(branch, counters, services, snapshot.getTokenNumbers().get(branch.getId())));
+		}
+		log.log(Level.INFO, () -> (branchList.size() - modified.size()) + " branches restored from cache snapshot, " 
+				+ modified.size() + " loaded from DB in " + (System.currentTimeMillis() - time) + " ms");
+	}
+	
+	/**
+	 * updates a branch in the cache, branch version is moved ahead
+	 * If passed instance replaces another one, live counter queues & version are carried over from it,
+	 * an instance already replaced is never put back (its replacement is updated instead)
 	 * 
 	 * @param branch
 	 * @return updated Branch instance
 	 */
 	private Branch updateBranch(Branch branch) {
+		branch = branch.live();
+		Branch previous = branches.get(branch.getId());
+		if(Objects.isNull(previous) || previous == branch)
+			branch.changed();
+		else
+			branch.adoptQueues(previous);
 		branches.put(branch.getId(), branch);
 		return branch;
 	}
 	
 	/**
 	 * updates a branch in the cache by fetching it from DB synchronously
-	 * Branch is immediately removed from cache so that all operations fail till it is fetched from DB
-	 * it's like making branch and its entire children unavailable till it is ready again.
+	 * Replacement instance is built off to the side while current instance keeps serving,
+	 * live counter queues are carried over from current instance and replacement is published with a single put,
+	 * so branch is never unavailable and in-flight tokens are not dropped.
 	 * 
 	 * @param branchId
 	 * @return updated Branch instance
 	 */
 	private Branch updateBranch(Long branchId) {
-		branches.remove(branchId);
+		Branch branch = getBranchFull(branchRepository.findOne(branchId));
 		
-		Branch branch = branchRepository.findOne(branchId);
+		Branch previous = branches.get(branchId);
+		if(!Objects.isNull(previous))
+			branch.adoptQueues(previous);
 		
-		//putting back updated instance
-		branches.put(branchId, getBranchFull(branch));
+		branches.put(branchId, branch);
+		return branch;
+	}
+	
+	/**
+	 * Loads an owned branch missing from cache, if another thread has cached it meanwhile that instance is kept
+	 * Single flight: a caller finding a load of same branch in flight waits for it (and gets its result or exception)
+	 * 
+	 * @param branchId
+	 * @return cached instance, null if branch doesn't exist
+	 */
+	private Branch loadBranch(Long branchId) {
+		CompletableFuture<Branch> load = new CompletableFuture<>();
+		CompletableFuture<Branch> inFlight = loading.putIfAbsent(branchId, load);
+		if(!Objects.isNull(inFlight))
+			return join(inFlight);
+		try {
+			Branch branch = branches.get(branchId);
+			if(Objects.isNull(branch)) {
+				awaitHandOver(branchId);
+				branch = branchRepository.findOne(branchId);
+				if(!Objects.isNull(branch)) {
+					branch = getBranchFull(branch);
+					Branch previous = branches.putIfAbsent(branchId, branch);
+					branch = Objects.isNull(previous) ? branch : previous;
+				}
+			}
+			unloaded.remove(branchId);
+			load.complete(branch);
+			return branch;
+		} catch (RuntimeException e) {
+			load.completeExceptionally(e);
+			throw e;
+		} finally {
+			loading.remove(branchId, load);
+		}
+	}
+	
+	/**
+	 * Loads all owned branches not cached yet, most active (most pending tokens) first, on cache load parallelism threads.
+	 * Branches failing to load are retried for warm up retries rounds, those still failing are left to be loaded on access.
+	 * Warm up is over once it returns, whatever the outcome.
+	 */
+	private void warmUpCache() {
+		long time = System.currentTimeMillis();
+		int parallelism = cacheLoadParallelism > 0 ? cacheLoadParallelism : Runtime.getRuntime().availableProcessors();
+		AtomicInteger threads = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(parallelism, runnable -> {
+			Thread thread = new Thread(runnable, "branch-warmer-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		List<Long> pending = null;
+		try {
+			for(int round = 0; round <= warmUpRetries; round++) {
+				if(round > 0)
+					Thread.sleep(warmUpRetryDelay);
+				try {
+					if(Objects.isNull(pending))
+						pending = getBranchIdsByActivity();
+					pending = warmUp(pool, pending);
+				} catch (RuntimeException e) {
+					log.log(Level.WARNING, "Branch cache warm up round failed", e);
+				}
+				if(!Objects.isNull(pending) && pending.isEmpty())
+					break;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			pool.shutdownNow();
+			if(Objects.isNull(pending))
+				warmUpFailed = true;
+			else
+				unloaded.addAll(pending);
+			warmingUp = false;
+		}
+		List<Long> pending1 = pending;
+		if(Objects.isNull(pending1))
+			log.log(Level.SEVERE, "Branch cache warm up failed, branches are loaded on access");
+		else
+			log.log(Level.INFO, () -> "Branch cache warmed up in " + (System.currentTimeMillis() - time) + " ms" 
+					+ (pending1.isEmpty() ? "" : ", branches " + pending1 + " are left to be loaded on access"));
+	}
+	
+	/**
+	 * Loads passed branches on warm up pool and waits for them
+	 * 
+	 * @param pool
+	 * @param branchIds
+	 * @return ids of branches which failed to load
+	 * @throws InterruptedException
+	 */
+	private List<Long> warmUp(ExecutorService pool, List<Long> branchIds) throws InterruptedException {
+		Map<Long, Future<Branch>> loads = new LinkedHashMap<>();
+		for(Long branchId: branchIds)
+			loads.put(branchId, pool.submit(() -> getBranch(branchId)));
+		List<Long> failed = new ArrayList<>();
+		for(Map.Entry<Long, Future<Branch>> load: loads.entrySet()) {
+			try {
+				load.getValue().get();
+			} catch (ExecutionException e) {
+				failed.add(load.getKey());
+				log.log(Level.WARNING, "Branch " + load.getKey() + " could not be warmed up", e.getCause());
+			}
+		}
+		return failed;
+	}
+	
+	/**
+	 * Owned branch ids ordered by number of pending tokens (descending)
+	 * 
+	 * @return list of branch ids
+	 */
+	private List<Long> getBranchIdsByActivity() {
+		Map<Long, Long> pendingTokens = new HashMap<>();
+		tokenRepository.getPendingTokenCounts().forEach(record -> 
+			pendingTokens.put((Long) record[0], ((Number) record[1]).longValue()));
+		return branchRepository.findAll().stream().map(Branch::getId).filter(branchSharding::isLocal)
+				.sorted(Comparator.comparing((Long branchId) -> pendingTokens.getOrDefault(branchId, 0L)).reversed()
+						.thenComparing(Comparator.naturalOrder()))
+				.collect(Collectors.toList());
+	}
+	
+	/**
+	 * Branches which are not in snapshot or whose branch, counter, counter step or token workflow rows
+	 * were created or modified after snapshot watermark, or which got tokens issued after it (a new token only has
+	 * an assigned workflow step, no served date, so it is found through token creation date)
+	 * 
+	 * @param snapshot
+	 * @param branchList branches in DB
+	 * @return branch ids
+	 */
+	private Set<Long> getBranchesModifiedAfter(CacheSnapshot snapshot, List<Branch> branchList) {
+		Date since = new Date(snapshot.getWatermark() - snapshotClockSkew);
+		Map<Long, Long> counterBranches = new HashMap<>();
+		snapshot.getCounters().forEach((branchId, counters) -> 
+			counters.forEach(counter -> counterBranches.put(counter.getId(), branchId)));
 		
-		return branches.get(branchId);
+		Set<Long> modified = new HashSet<>();
+		for(Branch branch: branchList) {
+			if(!snapshot.getTokenNumbers().containsKey(branch.getId()) 
+					|| (!Objects.isNull(branch.getModifiedDate()) && branch.getModifiedDate().after(since)))
+				modified.add(branch.getId());
+		}
+		counterRepository.findByModifiedDateAfter(since).forEach(counter -> modified.add(counter.getBranchId()));
+		counterXServiceStepRepository.findByCreatedDateAfter(since).forEach(step -> 
+			modified.add(counterBranches.get(step.getCounterId())));
+		tokenWorkflowRepository.getCounterIdsServedAfter(since).forEach(counterId -> modified.add(counterBranches.get(counterId)));
+		tokenRepository.getCounterIdsWithPendingTokensCreatedAfter(since).forEach(counterId -> 
+			modified.add(counterBranches.get(counterId)));
+		modified.remove(null);
+		return modified;
 	}
 	
 	/**
 	 * For full cache load
 	 * 
+	 * Branches (owned by this node), counters (with steps & open tokens), services (with steps) and token numbers are fetched 
+	 * with a handful of set based queries, branches are then assembled in memory in parallel.
+	 * 
+	 * Queries are run on calling thread, full load runs while application context is initialising (start up) and a
+	 * repository call on another thread would block on singleton creation lock held by caller.
+	 * 
+	 * Nothing is cached when branches are fully loaded, so queued DB writes are flushed first for DB to catch up with 
+	 * token queues (load goes ahead with a warning if they can't be flushed within handoff timeout).
+	 * 
 	 * @return list of branches
 	 */
 	private List<Branch> getBranchesFromDB() {
-		List<Branch> branchList = branchRepository.findAll();
-		List<Branch> resultList = new ArrayList<>();
-		
-		branchList.forEach(branch -> resultList.add(getBranchFull(branch)));
+		if(!dbWriteBehindExecutor.flush(handoffTimeout))
+			log.log(Level.WARNING, "DB writes could not be flushed before loading branches, tokens queued meanwhile may be missed");
+		List<Branch> branchList = branchRepository.findAll().stream()
+				.filter(branch -> branchSharding.isLocal(branch.getId())).collect(Collectors.toList());
+		Map<Long, List<Counter>> counters = counterService.getAllCountersFromDB();
+		List<Service> services = serviceRepository.getAllServicesWithSteps();
+		Map<Long, Integer> tokenNumbers = getTokenNumbersFromDB();
 		
-		return resultList;
+		ForkJoinPool pool = new ForkJoinPool(cacheLoadParallelism > 0 ? cacheLoadParallelism : Runtime.getRuntime().availableProcessors());
+		try {
+			return pool.invoke(ForkJoinTask.adapt(() -> branchList.parallelStream()
+					.map(branch -> getBranchFull(branch, counters.getOrDefault(branch.getId(), new ArrayList<>()), 
+							services, tokenNumbers.get(branch.getId())))
+					.collect(Collectors.toList())));
+		} finally {
+			pool.shutdown();
+		}
 	}
 	
 	/**
@@ -249,7 +732,7 @@ public class BranchServiceImpl extends BaseServiceImpl implements BranchService
 	 * 
 	 * services are fetched
 	 * counters are fetched
-	 * branch token generator base value is fetched
+	 * branch token generator base value is fetched and numbering policy is applied
 	 * 
 	 * @param branch
 	 * @return full branch instance
@@ -258,13 +741,190 @@ public class BranchServiceImpl extends BaseServiceImpl implements BranchService
 		branch.setPremiumServices(getServicesFromDB(branch.getId(), CustomerType.PREMIUM));
 		branch.setRegularServices(getServicesFromDB(branch.getId(), CustomerType.REGULAR));
 		List<Counter> counters = counterService.getBranchCountersFromDB(branch.getId());
-		branch.setTokenNumber(tokenRepository.getMaxCounterNumber(branch.getId()));
+		return assembleBranch(branch, counters, tokenRepository.getMaxCounterNumber(branch.getId()));
+	}
+	
+	/**
+	 * To get full fledged branch from bulk loaded data (no DB call)
+	 * 
+	 * A service is served for a customer type if all its steps are served by branch counters of that type
+	 * 
+	 * @param branch
+	 * @param counters branch counters
+	 * @param services all services with their steps
+	 * @param tokenNumber max pending token number of branch, null if none
+	 * @return full branch instance
+	 */
+	private Branch getBranchFull(Branch branch, List<Counter> counters, List<Service> services, Integer tokenNumber) {
+		branch.setPremiumServices(getServedServices(counters, services, CustomerType.PREMIUM));
+		branch.setRegularServices(getServedServices(counters, services, CustomerType.REGULAR));
+		return assembleBranch(branch, counters, tokenNumber);
+	}
+	
+	/**
+	 * branch token generator base value is set and numbering policy is applied, counters are put in branch,
+	 * counter queue changes are journaled & published to branch event bus
+	 * 
+	 * @param branch
+	 * @param counters
+	 * @param tokenNumber
+	 * @return full branch instance
+	 */
+	private Branch assembleBranch(Branch branch, List<Counter> counters, Integer tokenNumber) {
+		branch.setTokenNumber(tokenNumber);
+		branch.getTokenNumberGenerator().setMaxNumber(tokenMaxNumber);
+		branch.getTokenNumberGenerator().setDailyReset(tokenDailyReset);
+		branch.setQueueListener(this::queueChanged);
 		
-		counters.forEach(branch::updateCounter);
+		branch.setCounters(counters);
 		
 		return branch;
 	}
 	
+	/**
+	 * Counter queue change is appended to queue journal & published to branch event bus
+	 * 
+	 * @param event
+	 */
+	private void queueChanged(QueueEvent event) {
+		queueJournal.append(event);
+		branchEventService.publish(event);
+	}
+	
+	/**
+	 * Services whose all steps are served by passed counters of a customer type
+	 * 
+	 * @param counters
+	 * @param services
+	 * @param type
+	 * @return list of served services
+	 */
+	private List<Service> getServedServices(List<Counter> counters, List<Service> services, CustomerType type) {
+		Set<Long> stepIds = getServedStepIds(counters, type);
+		return services.stream().filter(service -> isServed(service, stepIds)).collect(Collectors.toList());
+	}
+	
+	/**
+	 * Steps served by passed counters of a customer type
+	 * 
+	 * @param counters
+	 * @param type
+	 * @return set of step ids
+	 */
+	private Set<Long> getServedStepIds(List<Counter> counters, CustomerType type) {
+		return counters.stream().filter(counter -> counter.getServicingType() == type)
+				.flatMap(counter -> counter.getSteps().stream()).map(ServiceStep::getId).collect(Collectors.toSet());
+	}
+	
+	/**
+	 * A service is served if it has steps and all of them are served (services without workflow are never served)
+	 * 
+	 * @param service
+	 * @param stepIds served step ids
+	 * @return true if served
+	 */
+	private boolean isServed(Service service, Set<Long> stepIds) {
+		return !service.getSteps().isEmpty() && service.getSteps().stream().allMatch(step -> stepIds.contains(step.getId()));
+	}
+	
+	/**
+	 * New service list with passed service replaced (or removed if not served), ordered by service id as loaded from DB
+	 * 
+	 * @param services current list
+	 * @param service changed service
+	 * @param stepIds served step ids
+	 * @return new list
+	 */
+	private List<Service> replaceService(List<Service> services, Service service, Set<Long> stepIds) {
+		List<Service> services1 = services.stream().filter(service1 -> !service1.getId().equals(service.getId()))
+				.collect(Collectors.toCollection(ArrayList::new));
+		if(isServed(service, stepIds)) {
+			int position = 0;
+			while(position < services1.size() && services1.get(position).getId() < service.getId())
+				position++;
+			services1.add(position, service);
+		}
+		return services1;
+	}
+	
+	/**
+	 * Max pending token number of all branches
+	 * 
+	 * @return token number mapped against branch id
+	 */
+	private Map<Long, Integer> getTokenNumbersFromDB() {
+		Map<Long, Integer> tokenNumbers = new HashMap<>();
+		tokenRepository.getMaxTokenNumbers().forEach(record -> tokenNumbers.put((Long) record[0], ((Number) record[1]).intValue()));
+		return tokenNumbers;
+	}
+	
+	/**
+	 * Waits for a branch load running on another thread (single flight), runtime exception thrown by load is rethrown as is
+	 * 
+	 * @param future
+	 * @return load result
+	 */
+	private static <T> T join(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Renders branch counters (ordered by number) as compact JSON
+	 * 
+	 * @param branch
+	 * @param version branch version being rendered
+	 * @return JSON bytes
+	 */
+	private byte[] renderQueueSnapshot(Branch branch, long version) {
+		// local list, shared one behind getCounters is cleared & refilled by concurrent callers
+		List<Counter> branchCounters = branch.getRegularCounters();
+		branchCounters.addAll(branch.getPremiumCounters());
+		List<Map<String, Object>> counters = branchCounters.stream()
+				.sorted(Comparator.comparing(Counter::getNumber)).map(counter -> {
+			Map<String, Object> counter1 = new LinkedHashMap<>();
+			Token head = counter.getTokens().peek();
+			counter1.put("number", counter.getNumber());
+			counter1.put("type", counter.getServicingType());
+			counter1.put("operator", counter.getCurrentOperator());
+			counter1.put("depth", counter.getQueueDepth());
+			counter1.put("headToken", Objects.isNull(head) ? null : head.getNumber());
+			return counter1;
+		}).collect(Collectors.toList());
+		Map<String, Object> snapshot = new LinkedHashMap<>();
+		snapshot.put("branchId", branch.getId());
+		snapshot.put("version", version);
+		snapshot.put("counters", counters);
+		try {
+			return objectMapper.writeValueAsBytes(snapshot);
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Rendered queue snapshot along with branch instance & version it was rendered from
+	 */
+	private static class QueueSnapshot {
+		
+		final Branch branch;
+		
+		final long version;
+		
+		final byte[] bytes;
+		
+		QueueSnapshot(Branch branch, long version, byte[] bytes) {
+			this.branch = branch;
+			this.version = version;
+			this.bytes = bytes;
+		}
+	}
+	
 	/**
 	 * For service + service step load for a branch and customer type
 	 * 
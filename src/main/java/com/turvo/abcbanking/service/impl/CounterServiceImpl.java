@@ -1,9 +1,13 @@
 package com.turvo.abcbanking.service.impl;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -25,8 +29,11 @@ import com.turvo.abcbanking.repository.TokenRepository;
 import com.turvo.abcbanking.repository.TokenWorkflowRepository;
 import com.turvo.abcbanking.service.BranchService;
 import com.turvo.abcbanking.service.CounterService;
+import com.turvo.abcbanking.service.MetricsService;
 import com.turvo.abcbanking.service.UserService;
 import com.turvo.abcbanking.utils.ApplicationConstants;
+import com.turvo.abcbanking.utils.DBWriteBehindExecutor;
+import com.turvo.abcbanking.utils.QueueJournal;
 
 /**
  * Service implementation for Counter operations
@@ -36,6 +43,8 @@ import com.turvo.abcbanking.utils.ApplicationConstants;
  */
 @Service("counterService")
 public class CounterServiceImpl extends BaseServiceImpl implements CounterService {
+	
+	private static final Logger log = Logger.getLogger(CounterServiceImpl.class.getName());
 
 	@Autowired
 	BranchService branchService;
@@ -58,6 +67,15 @@ public class CounterServiceImpl extends BaseServiceImpl implements CounterServic
 	@Autowired
 	CounterXServiceStepRepository counterXServiceStepRepository;
 	
+	@Autowired
+	DBWriteBehindExecutor dbWriteBehindExecutor;
+	
+	@Autowired
+	MetricsService metricsService;
+	
+	@Autowired
+	QueueJournal queueJournal;
+	
 	/**
 	 * Fetches all counters in branch from DB and fetches all internal components using breadth first search approach
 	 */
@@ -71,26 +89,82 @@ public class CounterServiceImpl extends BaseServiceImpl implements CounterServic
 		return resultList;
 	}
 	
+	/**
+	 * Fetches all counters, all counter steps & all open tokens from DB in three queries 
+	 * and assembles counters in memory (tokens are pushed to counter queue in journaled queue order, else in order of retrieval)
+	 */
+	@Override
+	public Map<Long, List<Counter>> getAllCountersFromDB() {
+		List<Counter> counterList = counterRepository.findAll();
+		Map<Long, List<ServiceStep>> steps = new HashMap<>();
+		serviceStepRepository.findAllCounterSteps().forEach(record -> 
+			steps.computeIfAbsent((Long) record[0], id -> new ArrayList<>()).add((ServiceStep) record[1]));
+		Map<Long, List<Token>> tokens = tokenRepository.getTokensForAllCounters();
+		
+		Map<Long, List<Counter>> resultMap = new HashMap<>();
+		for(Counter counter: counterList) {
+			counter.setSteps(steps.getOrDefault(counter.getId(), new ArrayList<>()));
+			queueTokens(counter, queueJournal.inQueueOrder(counter.getBranchId(), counter.getNumber(), 
+					tokens.getOrDefault(counter.getId(), new ArrayList<>())));
+			resultMap.computeIfAbsent(counter.getBranchId(), id -> new ArrayList<>()).add(counter);
+		}
+		return resultMap;
+	}
+	
 	/**
 	 * Fetches services steps for a counter from DB
 	 * Fetches tokens assigned to a counter from DB
 	 * tokens are pushed to counter queue in order of retrieval
 	 * 
-	 * If branch is refreshed from DB again, it is possible that tokens are not added to counter queue in the same order as it was before
 	 * DB doesn't maintain counter queue order. This is done intentionally to provide asynchronous DB calls.
-	 * However in normal scenario counter will not be fetched again & again from DB that's why maintaining queue only at JVM cache level
-	 * will solve the purpose
+	 * In normal scenario counter will not be fetched again & again from DB (a refreshed branch takes over live queues),
+	 * after a restart queue order is restored from queue journal when it is enabled
+	 * 
+	 * Tokens of a cached counter are not fetched, DB lags its live queue while token writes are queued for write behind,
+	 * rebuilt branch takes over the live queue instead
 	 * 
 	 * @param counter
 	 * @return
 	 */
 	private Counter getCounterFull(Counter counter) {
 		counter.setSteps(serviceStepRepository.findByCounterId(counter.getId()));
+		if(isCached(counter))
+			return counter;
 		List<Token> tokens = tokenRepository.getTokensForCounter(counter.getId());
-		tokens.forEach(counter::addToken);
+		queueTokens(counter, queueJournal.inQueueOrder(counter.getBranchId(), counter.getNumber(), tokens));
 		
 		return counter;
 	}
+	
+	/**
+	 * Whether passed counter (as loaded from DB) is in cached branch
+	 * 
+	 * @param counter
+	 * @return true if cached
+	 */
+	private boolean isCached(Counter counter) {
+		Branch branch = branchService.getCachedBranch(counter.getBranchId());
+		Counter cached = Objects.isNull(branch) ? null : branch.getCounter(counter.getNumber());
+		return !Objects.isNull(cached) && Objects.equals(cached.getId(), counter.getId());
+	}
+	
+	/**
+	 * Queues tokens loaded from DB, a token whose number is already queued at counter (pending rows left
+	 * from before numbers were checked for reuse) is left out of the queue and logged instead of failing the load
+	 * 
+	 * @param counter
+	 * @param tokens
+	 */
+	private static void queueTokens(Counter counter, List<Token> tokens) {
+		for(Token token: tokens) {
+			try {
+				counter.addToken(token);
+			} catch (IllegalArgumentException e) {
+				log.log(Level.WARNING, () -> "Token " + token.getId() + " is not queued at counter " + counter.getId() 
+						+ ", " + e.getMessage());
+			}
+		}
+	}
 
 	/**
 	 * Branch Id is validated
@@ -98,6 +172,7 @@ public class CounterServiceImpl extends BaseServiceImpl implements CounterServic
 	 * Passed counter instance is validated
 	 * 
 	 * counter is persisted in DB and synchronously updated in JVM cache.
+	 * A new counter has no steps (assigned separately) nor tokens, so nothing is read back from DB
 	 */
 	@Override
 	@Transactional(readOnly = false)
@@ -108,7 +183,8 @@ public class CounterServiceImpl extends BaseServiceImpl implements CounterServic
 		counter.setBranchId(branchId);
 		counter.setNumber(counterRepository.getMaxCounterNumber(branchId) + 1);
 		counter.setLastModifiedBy(creatorId);
-		counter = getCounterFull(counterRepository.saveAndFlush(counter));
+		counter = counterRepository.saveAndFlush(counter);
+		counter.setSteps(new ArrayList<>());
 		
 		branchService.updateCounter(counter);
 		return counter;
@@ -118,7 +194,8 @@ public class CounterServiceImpl extends BaseServiceImpl implements CounterServic
 	 * Inputs are validated
 	 * Access is checked
 	 * 
-	 * counter is updated in DB and synchronously updated in JVM cache.
+	 * cached counter is updated in place and saved to DB, its live token queue is kept as is
+	 * (DB lags token queues while token writes are queued for write behind)
 	 */
 	@Override
 	@Transactional(readOnly = false)
@@ -129,7 +206,7 @@ public class CounterServiceImpl extends BaseServiceImpl implements CounterServic
 		Counter counter = getCounter(branchId, counterNumber);
 		counter.setCurrentOperator(operatorId);
 		counter.setLastModifiedBy(assignerId);
-		counter = getCounterFull(counterRepository.saveAndFlush(counter));
+		counter.setModifiedDate(counterRepository.saveAndFlush(counter).getModifiedDate());
 		
 		branchService.updateCounter(counter);
 		return counter;
@@ -171,7 +248,7 @@ public class CounterServiceImpl extends BaseServiceImpl implements CounterServic
 	 * Operator access is checked
 	 * First token in counter queue is polled and assigned counter is updated in cache
 	 * 
-	 * Token workflow is updated
+	 * Token workflow update is queued for asynchronous DB write (ordered per token)
 	 * If next step is required token is added to counter queue of next best counter in branch
 	 * New counter is updated in cache
 	 * 
@@ -184,6 +261,7 @@ public class CounterServiceImpl extends BaseServiceImpl implements CounterServic
 		Token token = counter.pullToken();
 		
 		List<TokenWorkflow> steps1 = token.serviceAndGetNextPendingWorkFlowStep(comments, counter.getCurrentOperator());
+		metricsService.recordStepServed(token, steps1.isEmpty() ? null : steps1.get(0));
 		
 		Counter nextCounter = null;
 		if(steps1.size()>1) {
@@ -193,8 +271,7 @@ public class CounterServiceImpl extends BaseServiceImpl implements CounterServic
 			nextCounter.addToken(token);
 			
 		}
-		tokenWorkflowRepository.save(steps1);
-		tokenWorkflowRepository.flush();
+		dbWriteBehindExecutor.submit(token.getId(), steps1, tokenWorkflowRepository);
 		branchService.updateCounter(counter);
 		if(steps1.size()>1) {
 			branchService.updateCounter(nextCounter);			
@@ -1,8 +1,13 @@
 package com.turvo.abcbanking.service.impl;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
 
+import javax.annotation.PostConstruct;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.turvo.abcbanking.exception.BusinessRuntimeException;
@@ -10,6 +15,7 @@ import com.turvo.abcbanking.model.Customer;
 import com.turvo.abcbanking.repository.CustomerRepository;
 import com.turvo.abcbanking.service.CustomerService;
 import com.turvo.abcbanking.utils.ApplicationConstants;
+import com.turvo.abcbanking.utils.LruTtlCache;
 
 /**
  * Service implementation for Customer operations
@@ -23,23 +29,59 @@ public class CustomerServiceImpl extends BaseServiceImpl implements CustomerServ
 	@Autowired
 	CustomerRepository customerRepository;
 	
+	@Value("${abcbanking.cache.customer.max-size:10000}")
+	int cacheMaxSize;
+	
+	@Value("${abcbanking.cache.customer.ttl-ms:600000}")
+	long cacheTtl;
+	
+	/**
+	 * Customer cache, account number mapped against customer
+	 */
+	private LruTtlCache<Long, Customer> customers;
+	
+	@PostConstruct
+	public void init() {
+		customers = new LruTtlCache<>(cacheMaxSize, cacheTtl);
+	}
+	
 	/**
-	 * Customer instance is fetched from DB and returned
+	 * Customer instance is looked up in customer cache, fetched from DB on miss and returned
 	 * Exception is thrown if found none.
 	 */
 	@Override
 	public Customer getCustomer(Long accountNumber) {
-		Customer customer = customerRepository.findOne(accountNumber);
+		if(Objects.isNull(accountNumber))
+			throw new BusinessRuntimeException(ApplicationConstants.ERR_CUSTOMER_NOT_EXIST);
+		Customer customer = customers.get(accountNumber, customerRepository::findOne);
 		if(Objects.isNull(customer))
 			throw new BusinessRuntimeException(ApplicationConstants.ERR_CUSTOMER_NOT_EXIST);
 		return customer;
 	}
 
 	/**
-	 * Passed Customer instance is persisted in DB and returned
+	 * Passed Customer instance is persisted in DB, written to customer cache and returned
 	 */
 	@Override
 	public Customer createNewCustomer(Customer customer) {
-		return customerRepository.save(customer);
+		customer = customerRepository.save(customer);
+		if(!Objects.isNull(customer))
+			customers.put(customer.getAccountNumber(), customer);
+		return customer;
+	}
+	
+	@Override
+	public void evictCustomer(Long accountNumber) {
+		customers.invalidate(accountNumber);
+	}
+	
+	@Override
+	public Map<String, Long> getCacheStatistics() {
+		Map<String, Long> statistics = new LinkedHashMap<>();
+		statistics.put("size", (long) customers.size());
+		statistics.put("hits", customers.getHitCount());
+		statistics.put("misses", customers.getMissCount());
+		statistics.put("evictions", customers.getEvictionCount());
+		return statistics;
 	}
 }
@@ -0,0 +1,167 @@
+package com.turvo.abcbanking.service.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.turvo.abcbanking.model.Branch;
+import com.turvo.abcbanking.model.Counter;
+import com.turvo.abcbanking.model.Token;
+import com.turvo.abcbanking.model.TokenStatus;
+import com.turvo.abcbanking.model.TokenWorkflow;
+import com.turvo.abcbanking.service.BranchService;
+import com.turvo.abcbanking.service.CustomerService;
+import com.turvo.abcbanking.service.MetricsService;
+import com.turvo.abcbanking.utils.LatencyHistogram;
+
+/**
+ * Service implementation for queue metrics
+ * 
+ * Counters are LongAdders and durations go to fixed bucket histograms, per branch & per step instances are created
+ * once on first use, so recording after warm up doesn't allocate. Queue depth gauges are not recorded at all,
+ * they are read from counter queues (constant time) when metrics are requested.
+ * 
+ * @author Prabal Ghura
+ *
+ */
+@Service("metricsService")
+public class MetricsServiceImpl implements MetricsService {
+	
+	@Autowired
+	BranchService branchService;
+	
+	@Autowired
+	CustomerService customerService;
+	
+	/**
+	 * Throughput counters of a branch
+	 */
+	private static final class BranchCounters {
+		private final LongAdder tokensCreated = new LongAdder();
+		private final LongAdder stepsServed = new LongAdder();
+	}
+	
+	private final LongAdder tokensCreated = new LongAdder();
+	
+	private final LongAdder stepsServed = new LongAdder();
+	
+	private final LongAdder tokensCompleted = new LongAdder();
+	
+	private final LongAdder tokensCancelled = new LongAdder();
+	
+	private final LatencyHistogram timeInQueue = new LatencyHistogram();
+	
+	private final ConcurrentHashMap<Long, BranchCounters> branchCounters = new ConcurrentHashMap<>();
+	
+	private final ConcurrentHashMap<Long, LatencyHistogram> serviceTimes = new ConcurrentHashMap<>();
+
+	@Override
+	public void recordTokenCreated(Token token) {
+		tokensCreated.increment();
+		BranchCounters counters = getBranchCounters(token.getBranchId());
+		if(!Objects.isNull(counters))
+			counters.tokensCreated.increment();
+	}
+
+	@Override
+	public void recordStepServed(Token token, TokenWorkflow servedStep) {
+		long now = System.currentTimeMillis();
+		stepsServed.increment();
+		BranchCounters counters = getBranchCounters(token.getBranchId());
+		if(!Objects.isNull(counters))
+			counters.stepsServed.increment();
+		if(!Objects.isNull(token.getCreatedDate()))
+			timeInQueue.record(now - token.getCreatedDate().getTime());
+		if(!Objects.isNull(servedStep) && !Objects.isNull(servedStep.getStepId()) && servedStep.getAssignedAt() > 0)
+			getServiceTime(servedStep.getStepId()).record(now - servedStep.getAssignedAt());
+	}
+
+	@Override
+	public void recordTokenMarked(Token token, TokenStatus status) {
+		if(status == TokenStatus.COMPLETED)
+			tokensCompleted.increment();
+		else if(status == TokenStatus.CANCELLED)
+			tokensCancelled.increment();
+	}
+
+	/**
+	 * Metrics are assembled from counters, histograms & current branch cache,
+	 * only branches already cached are reported (reading metrics never loads a branch)
+	 */
+	@Override
+	public Map<String, Object> getMetrics() {
+		Map<String, Object> tokens = new LinkedHashMap<>();
+		tokens.put("created", tokensCreated.sum());
+		tokens.put("stepsServed", stepsServed.sum());
+		tokens.put("completed", tokensCompleted.sum());
+		tokens.put("cancelled", tokensCancelled.sum());
+		
+		List<Map<String, Object>> branches = new ArrayList<>();
+		for(Branch branch: branchService.getCachedBranches())
+			branches.add(getBranchMetrics(branch));
+		
+		Map<Long, Object> serviceTimes1 = new TreeMap<>();
+		serviceTimes.forEach((stepId, histogram) -> serviceTimes1.put(stepId, histogram.getSummary()));
+		
+		Map<String, Object> metrics = new LinkedHashMap<>();
+		metrics.put("tokens", tokens);
+		metrics.put("branches", branches);
+		metrics.put("timeInQueueMs", timeInQueue.getSummary());
+		metrics.put("serviceTimeMs", serviceTimes1);
+		metrics.put("branchCache", branchService.getCacheStatistics());
+		metrics.put("customerCache", customerService.getCacheStatistics());
+		return metrics;
+	}
+	
+	/**
+	 * Queue depth gauges & throughput counters of a branch
+	 * 
+	 * @param branch
+	 * @return branch metrics
+	 */
+	private Map<String, Object> getBranchMetrics(Branch branch) {
+		int queueDepth = 0;
+		List<Map<String, Object>> counters = new ArrayList<>();
+		// getCounters refills one list shared by all callers, metrics may be read concurrently
+		List<Counter> counterList = branch.getRegularCounters();
+		counterList.addAll(branch.getPremiumCounters());
+		for(Counter counter: counterList) {
+			Map<String, Object> counterMetrics = new LinkedHashMap<>();
+			counterMetrics.put("number", counter.getNumber());
+			counterMetrics.put("type", counter.getServicingType());
+			counterMetrics.put("operator", counter.getCurrentOperator());
+			counterMetrics.put("queueDepth", counter.getQueueDepth());
+			counters.add(counterMetrics);
+			queueDepth += counter.getQueueDepth();
+		}
+		BranchCounters branchCounters1 = branchCounters.get(branch.getId());
+		Map<String, Object> branchMetrics = new LinkedHashMap<>();
+		branchMetrics.put("id", branch.getId());
+		branchMetrics.put("name", branch.getName());
+		branchMetrics.put("queueDepth", queueDepth);
+		branchMetrics.put("tokensCreated", Objects.isNull(branchCounters1) ? 0 : branchCounters1.tokensCreated.sum());
+		branchMetrics.put("stepsServed", Objects.isNull(branchCounters1) ? 0 : branchCounters1.stepsServed.sum());
+		branchMetrics.put("counters", counters);
+		return branchMetrics;
+	}
+	
+	private BranchCounters getBranchCounters(Long branchId) {
+		if(Objects.isNull(branchId))
+			return null;
+		BranchCounters counters = branchCounters.get(branchId);
+		return Objects.isNull(counters) ? branchCounters.computeIfAbsent(branchId, id -> new BranchCounters()) : counters;
+	}
+	
+	private LatencyHistogram getServiceTime(Long stepId) {
+		LatencyHistogram histogram = serviceTimes.get(stepId);
+		return Objects.isNull(histogram) ? serviceTimes.computeIfAbsent(stepId, id -> new LatencyHistogram()) : histogram;
+	}
+}
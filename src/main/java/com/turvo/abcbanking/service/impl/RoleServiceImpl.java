@@ -1,13 +1,24 @@
 package com.turvo.abcbanking.service.impl;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.turvo.abcbanking.exception.BusinessRuntimeException;
 import com.turvo.abcbanking.model.Role;
@@ -17,6 +28,7 @@ import com.turvo.abcbanking.repository.UserRepository;
 import com.turvo.abcbanking.repository.UserXRoleRepository;
 import com.turvo.abcbanking.service.RoleService;
 import com.turvo.abcbanking.utils.ApplicationConstants;
+import com.turvo.abcbanking.utils.ClusterClient;
 
 /**
  * Service implementation for Role operations
@@ -27,6 +39,19 @@ import com.turvo.abcbanking.utils.ApplicationConstants;
 @Service("roleService")
 public class RoleServiceImpl extends BaseServiceImpl implements RoleService{
 	
+	/**
+	 * Role cache, user id mapped against names of roles user holds (users not in DB are not cached)
+	 * 
+	 * Loaded at start up and read through on miss, entries are evicted whenever user or user's roles change
+	 * so that access checks are hash lookups without any DB call.
+	 */
+	private ConcurrentHashMap<String, Set<String>> userRoles = new ConcurrentHashMap<>();
+	
+	/**
+	 * Incremented on every eviction, roles read from DB are cached only if no eviction happened meanwhile
+	 */
+	private final AtomicLong evictions = new AtomicLong();
+	
 	@Autowired
 	UserRepository userRepository;
 	
@@ -35,12 +60,88 @@ public class RoleServiceImpl extends BaseServiceImpl implements RoleService{
 	
 	@Autowired
 	UserXRoleRepository userXroleRepository;
+	
+	@Autowired
+	ClusterClient clusterClient;
 
+	/**
+	 * Role is looked up in role cache, user's roles are fetched from DB on cache miss (outside of cache locks).
+	 * Unknown users are not cached so that they can't fill the cache, a user created later is found on next check.
+	 */
 	@Override
 	public Boolean checkAccessForUser(String userId, String role) {
-		if(!userRepository.exists(userId))
+		if(Objects.isNull(userId))
 			return false;
-		return roleRepository.checkAccess(userId, role) != 0;
+		Set<String> roles = userRoles.get(userId);
+		if(Objects.isNull(roles)) {
+			long evictions1 = evictions.get();
+			roles = getRoleNamesFromDB(userId);
+			if(Objects.isNull(roles))
+				return false;
+			userRoles.putIfAbsent(userId, roles);
+			// roles read before a concurrent eviction may be stale, they are not left in cache
+			if(evictions.get() != evictions1)
+				userRoles.remove(userId, roles);
+		}
+		return roles.contains(role);
+	}
+	
+	/**
+	 * Users & all user role mappings are fetched in two queries and swapped into cache
+	 */
+	@Override
+	public void reloadRoleCache() {
+		Map<String, Set<String>> userRoles1 = new HashMap<>();
+		userRepository.findAll().forEach(user -> userRoles1.put(user.getUserId(), new HashSet<>()));
+		roleRepository.getAllUserRoleNames().forEach(record -> 
+			userRoles1.computeIfAbsent((String) record[0], id -> new HashSet<>()).add((String) record[1]));
+		evictions.incrementAndGet();
+		userRoles.clear();
+		userRoles.putAll(userRoles1);
+	}
+	
+	/**
+	 * If called within a transaction user is evicted after commit, so that a concurrent cache miss
+	 * can't re-load uncommitted (old) roles, user is also evicted immediately.
+	 * Other cluster members are told to evict user (after commit)
+	 */
+	@Override
+	public void invalidateUserRoles(String userId) {
+		evictUserRoles(userId);
+		if(TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					evictUserRoles(userId);
+				}
+			});
+		}
+		try {
+			clusterClient.broadcast("/api/cluster/roles/evict?userId=" + URLEncoder.encode(userId, StandardCharsets.UTF_8.name()));
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Local eviction only, roles read before it are not left in cache
+	 */
+	@Override
+	public void evictUserRoles(String userId) {
+		evictions.incrementAndGet();
+		userRoles.remove(userId);
+	}
+	
+	/**
+	 * Names of roles user holds, null if user doesn't exist
+	 * 
+	 * @param userId
+	 * @return set of role names
+	 */
+	private Set<String> getRoleNamesFromDB(String userId) {
+		if(!userRepository.exists(userId))
+			return null;
+		return roleRepository.getRolesForUser(userId).stream().map(Role::getName).collect(Collectors.toSet());
 	}
 	
 	/**
@@ -59,6 +160,7 @@ public class RoleServiceImpl extends BaseServiceImpl implements RoleService{
 	 * userId is validated against DB, exception is thrown if found none
 	 * 
 	 * only roles which exist in DB and currently not possessed by user are updated in DB.
+	 * user is evicted from role cache
 	 */
 	@Override
 	@Transactional(readOnly = false)
@@ -82,6 +184,7 @@ public class RoleServiceImpl extends BaseServiceImpl implements RoleService{
 		
 		userXroleRepository.save(toBeAssignedRoles);
 		userXroleRepository.flush();
+		invalidateUserRoles(userId);
 		
 		return getUserRoles(userId);
 	}
@@ -19,6 +19,7 @@ import com.turvo.abcbanking.repository.ServiceXServiceStepRepository;
 import com.turvo.abcbanking.service.BranchService;
 import com.turvo.abcbanking.service.ServiceStepService;
 import com.turvo.abcbanking.utils.ApplicationConstants;
+import com.turvo.abcbanking.utils.ClusterClient;
 
 /**
  * Service implementation for Service operations
@@ -41,6 +42,9 @@ public class ServiceStepServiceImpl extends BaseServiceImpl implements ServiceSt
 	@Autowired
 	ServiceXServiceStepRepository serviceXServiceStepRepository;
 	
+	@Autowired
+	ClusterClient clusterClient;
+	
 	/**
 	 * All services are fetched and returned
 	 */
@@ -118,7 +122,9 @@ public class ServiceStepServiceImpl extends BaseServiceImpl implements ServiceSt
 	 * New workflow is updated in DB
 	 * 
 	 * Because this operation affects all the branches as they might have now different set of services they can offer based on
-	 * counter-service step step mapping. So entire JVM branch cache is flushed and refetched from DB.
+	 * counter-service step step mapping. So every cached branch recomputes (in memory) whether it serves this service
+	 * and swaps in its new service lists, branches remain available throughout.
+	 * Other cluster members are told to do the same for their branches once workflow is committed.
 	 */
 	@Override
 	@Transactional(readOnly = false)
@@ -154,8 +160,10 @@ public class ServiceStepServiceImpl extends BaseServiceImpl implements ServiceSt
 		serviceXServiceStepRepository.save(workflowList);
 		serviceXServiceStepRepository.flush();
 		
-		branchService.reloadEntireCache();
+		Service service = getService(serviceId);
+		branchService.refreshService(service);
+		clusterClient.broadcast("/api/cluster/services/" + serviceId + "/refresh");
 		
-		return getService(serviceId);
+		return service;
 	}
 }
@@ -1,6 +1,7 @@
 package com.turvo.abcbanking.service.impl;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -23,8 +24,11 @@ import com.turvo.abcbanking.model.TokenWorklowStatus;
 import com.turvo.abcbanking.repository.TokenRepository;
 import com.turvo.abcbanking.repository.TokenWorkflowRepository;
 import com.turvo.abcbanking.service.BranchService;
+import com.turvo.abcbanking.service.MetricsService;
 import com.turvo.abcbanking.service.TokenService;
 import com.turvo.abcbanking.utils.ApplicationConstants;
+import com.turvo.abcbanking.utils.DBWriteBehindExecutor;
+import com.turvo.abcbanking.utils.IdBlockAllocator;
 
 /**
  * Service implementation for Counter operations
@@ -44,6 +48,15 @@ public class TokenServiceImpl extends BaseServiceImpl implements TokenService {
 	@Autowired
 	TokenWorkflowRepository tokenWorkflowRepository;
 	
+	@Autowired
+	DBWriteBehindExecutor dbWriteBehindExecutor;
+	
+	@Autowired
+	IdBlockAllocator idBlockAllocator;
+	
+	@Autowired
+	MetricsService metricsService;
+	
 	/**
 	 * To fetch full fledged services with steps serviced by branch
 	 * 
@@ -76,16 +89,17 @@ public class TokenServiceImpl extends BaseServiceImpl implements TokenService {
 	
 	/**
 	 * This is 2 of 3 frequent operations in entire application which involves DB update
-	 * But because of the way counter queues are maintained in application we need to wait for DB update to return result 
-	 * therefore both DB updates are made synchronously
+	 * Token & workflow ids are handed out from in process id blocks, so the token can be queued in counter 
+	 * and returned without waiting for DB inserts
 	 * 
 	 * Services are checked for being empty
 	 * Services are broken down into steps in an orderly fashion
-	 * Pending Token is made with display number fetched from branch instance's token generator
-	 * Token is saved synchronously in DB
+	 * Pending Token is made with id from id allocator and display number fetched from branch instance's token generator
 	 * 
 	 * Workflow steps are made based on services requested
-	 * First step is assigned to best counter in branch and steps are saved in DB synchronously
+	 * First step is assigned to best counter in branch
+	 * Token & steps inserts are queued for asynchronous DB write before token enters counter queue,
+	 * so that they are always written before any later update of the token
 	 * counter in branch cache is updated
 	 * 
 	 * And token is returned
@@ -100,16 +114,17 @@ public class TokenServiceImpl extends BaseServiceImpl implements TokenService {
 		Branch branch = branchService.getBranch(branchId);
 		
 		Token token = new Token();
+		token.setId(idBlockAllocator.next(IdBlockAllocator.TOKEN));
 		token.setAccountNumber(customer.getAccountNumber());
 		token.setNumber(branch.getTokenNumber());
 		token.setStatus(TokenStatus.PENDING);
-		
-		token = tokenRepository.save(token);
+		token.setCreatedDate(new Date());
 		
 		List<TokenWorkflow> workflowSteps = new ArrayList<>();
 		for(ServiceStep step: steps) {
 			TokenWorkflow workflowStep = new TokenWorkflow();
 			
+			workflowStep.setId(idBlockAllocator.next(IdBlockAllocator.TOKEN_WORKFLOW));
 			workflowStep.setStatus(TokenWorklowStatus.PENDING);
 			workflowStep.setStepId(step.getId());
 			workflowStep.setTokenId(token.getId());
@@ -125,13 +140,14 @@ public class TokenServiceImpl extends BaseServiceImpl implements TokenService {
 		
 		workflowSteps.set(0, workflowStep);
 		
-		workflowSteps = tokenWorkflowRepository.save(workflowSteps);
-		tokenWorkflowRepository.flush();
+		dbWriteBehindExecutor.submit(token.getId(), token, tokenRepository);
+		dbWriteBehindExecutor.submit(token.getId(), workflowSteps, tokenWorkflowRepository);
 		
 		token.setType(customer.getType());
 		token.setSteps(workflowSteps);
 		
 		firstCounter.addToken(token);
+		metricsService.recordTokenCreated(token);
 		
 		branchService.updateCounter(firstCounter);
 		
@@ -151,12 +167,12 @@ public class TokenServiceImpl extends BaseServiceImpl implements TokenService {
 	/**
 	 * This is 3 of 3 frequent operations in entire application which involves DB update
 	 * 
-	 * Branch's all counter queues are searched for token exception is thrown if none found.
+	 * Counter holding the token is looked up from branch token index, exception is thrown if none found.
 	 * If token is found, access check is performed to check if operation executor is branch manager 
 	 * or operator of the counter to which token is assigned, exception is thrown if both cases fail
 	 * 
 	 * Token is removed from counter queue and counter is updated in JVM cache
-	 * token is marked with passed status CANCELLED/COMPLETED and asynchronous DB update is made
+	 * token is marked with passed status CANCELLED/COMPLETED and asynchronous DB update is queued (ordered per token)
 	 * 
 	 * @param executorId
 	 * @param branchId
@@ -165,20 +181,17 @@ public class TokenServiceImpl extends BaseServiceImpl implements TokenService {
 	 */
 	private void markToken(String executorId, Long branchId, Integer tokenNumber, TokenStatus status) {
 		Branch branch = getBranch(branchId);
-		List<Counter> counters = branch.getCounters();
-		for(Counter counter: counters) {
-			Token token = counter.hasToken(tokenNumber);
-			if(!Objects.isNull(token)) {
-				if(!branch.getManagerId().equals(executorId) && !counter.getCurrentOperator().equals(executorId))
-					throw new BusinessRuntimeException(ApplicationConstants.ERR_ACCESS_DENIED);
-				token.setStatus(status);
-				
-				tokenRepository.saveAndFlush(token);
-				branchService.updateCounter(counter.removeToken(token));
-				return;
-			}
-		}
-		throw new BusinessRuntimeException(ApplicationConstants.ERR_TOKEN_NOT_EXIST);
+		Counter counter = branch.getTokenCounter(tokenNumber);
+		Token token = Objects.isNull(counter) ? null : counter.hasToken(tokenNumber);
+		if(Objects.isNull(token))
+			throw new BusinessRuntimeException(ApplicationConstants.ERR_TOKEN_NOT_EXIST);
+		if(!branch.getManagerId().equals(executorId) && !counter.getCurrentOperator().equals(executorId))
+			throw new BusinessRuntimeException(ApplicationConstants.ERR_ACCESS_DENIED);
+		token.setStatus(status);
+		metricsService.recordTokenMarked(token, status);
+		
+		dbWriteBehindExecutor.submit(token.getId(), token, tokenRepository);
+		branchService.updateCounter(counter.removeToken(token));
 	}
 	
 	/**
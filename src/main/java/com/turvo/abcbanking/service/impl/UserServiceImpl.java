@@ -38,7 +38,7 @@ public class UserServiceImpl extends BaseServiceImpl implements UserService{
 	 * Access is checked
 	 * if userId exists already in DB exception is thrown
 	 * 
-	 * User is created and returned
+	 * User is created, evicted from role cache (it may be cached as non existing) and returned
 	 */
 	@Override
 	@Transactional(readOnly = false)
@@ -47,6 +47,7 @@ public class UserServiceImpl extends BaseServiceImpl implements UserService{
 		if(userRepository.exists(user.getUserId()))
 			throw new BusinessRuntimeException(ApplicationConstants.ERR_USER_ID_EXIST);
 		user.setCreatedBy(creatorId);
+		roleService.invalidateUserRoles(user.getUserId());
 		return userRepository.saveAndFlush(user);
 	}
 }
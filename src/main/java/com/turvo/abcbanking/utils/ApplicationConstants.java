@@ -35,6 +35,11 @@ public class ApplicationConstants {
 	public static final String ERR_INVALID_SERVICE_ID = "Service id must not be null";
 	public static final String ERR_TOKEN_DUPLICATE_SERVICE = "Unique services must be provided for generating token";
 	public static final String ERR_BRANCH_INVALID_SERVICE = "Branch does not serve requested service";
+	public static final String ERR_TOKEN_NUMBER_EXHAUSTED = "All token numbers are in use";
+	public static final String ERR_MAILBOX_STOPPED = "Branch requests are not accepted, application is shutting down";
+	public static final String ERR_MAILBOX_TIMEOUT = "Branch is too busy, request could not be taken up in time";
+	public static final String ERR_ID_GENERATOR_NOT_EXIST = "Id generator does not exist";
+	public static final String ERR_ID_RESERVE_FAILED = "Ids could not be reserved, please try again";
 	
 	// Roles
 	public static final String ROLE_ASSIGN_ROLES = "ASSIGN_ROLES";
@@ -0,0 +1,327 @@
+package com.turvo.abcbanking.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.turvo.abcbanking.model.Branch;
+import com.turvo.abcbanking.model.CacheSnapshot;
+import com.turvo.abcbanking.model.Counter;
+import com.turvo.abcbanking.model.CustomerType;
+import com.turvo.abcbanking.model.ServiceStep;
+import com.turvo.abcbanking.model.Token;
+import com.turvo.abcbanking.model.TokenStatus;
+import com.turvo.abcbanking.model.TokenWorkflow;
+import com.turvo.abcbanking.model.TokenWorklowStatus;
+
+/**
+ * Periodic binary snapshot of branch cache on local disk, read back at start up instead of loading every branch from DB
+ *
+ * Snapshot holds per branch the last issued token number and counters with their steps and queued tokens
+ * (with workflows) in queue order. Branch rows & services are not written, they are read back from DB with a
+ * query each. Watermark (time before cache is captured) is written first, a change racing with capture is
+ * written to DB after it, so rows modified after watermark tell which branches to reload.
+ *
+ * File is written to a temporary file and moved in place, a CRC32 trailer guards against torn or foreign files
+ * (such snapshot is ignored and cache is loaded from DB).
+ *
+ * @author Prabal Ghura
+ *
+ */
+@Component
+public class BranchCacheSnapshot {
+
+	private static final Logger log = Logger.getLogger(BranchCacheSnapshot.class.getName());
+
+	private static final int MAGIC = 0x42435331;
+
+	private static final int FORMAT_VERSION = 1;
+
+	@Value("${abcbanking.snapshot.enabled:false}")
+	boolean enabled;
+
+	@Value("${abcbanking.snapshot.file:cache.snapshot}")
+	String fileName;
+
+	@Value("${abcbanking.snapshot.interval-ms:300000}")
+	long interval;
+
+	private Supplier<Collection<Branch>> source;
+
+	private ScheduledExecutorService writer;
+
+	@PostConstruct
+	public void start() {
+		if(!enabled)
+			return;
+		writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "cache-snapshot");
+			thread.setDaemon(true);
+			return thread;
+		});
+		writer.scheduleWithFixedDelay(this::write, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Writes last snapshot before shutdown
+	 */
+	@PreDestroy
+	public void stop() {
+		if(Objects.isNull(writer))
+			return;
+		writer.shutdownNow();
+		write();
+	}
+
+	/**
+	 * Sets where snapshot is captured from (cached branches)
+	 *
+	 * @param source
+	 */
+	public void setSource(Supplier<Collection<Branch>> source) {
+		this.source = source;
+	}
+
+	/**
+	 * Captures cached branches into snapshot file, failure is logged and previous snapshot is kept
+	 */
+	public synchronized void write() {
+		if(!enabled || Objects.isNull(source))
+			return;
+		Path file = Paths.get(fileName).toAbsolutePath();
+		Path next = file.resolveSibling(file.getFileName() + ".next");
+		long time = System.currentTimeMillis();
+		try {
+			Files.createDirectories(file.getParent());
+			CRC32 crc = new CRC32();
+			try(DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(next)), crc))) {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeLong(time);
+				List<Branch> branches = new ArrayList<>(source.get());
+				out.writeInt(branches.size());
+				for(Branch branch: branches)
+					writeBranch(out, branch);
+				out.flush();
+				out.writeLong(crc.getValue());
+			}
+			Files.move(next, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			log.log(Level.INFO, () -> "Branch cache snapshot written in " + (System.currentTimeMillis() - time) + " ms");
+		} catch (IOException | RuntimeException e) {
+			log.log(Level.WARNING, "Branch cache snapshot could not be written", e);
+		}
+	}
+
+	/**
+	 * Reads snapshot file
+	 *
+	 * @return snapshot, null if disabled, missing or unreadable
+	 */
+	public CacheSnapshot read() {
+		if(!enabled)
+			return null;
+		Path file = Paths.get(fileName).toAbsolutePath();
+		if(!Files.exists(file))
+			return null;
+		CRC32 crc = new CRC32();
+		try(DataInputStream in = new DataInputStream(new CheckedInputStream(
+				new BufferedInputStream(Files.newInputStream(file)), crc))) {
+			if(in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+				throw new IOException("not a branch cache snapshot");
+			CacheSnapshot snapshot = new CacheSnapshot(in.readLong());
+			int branches = in.readInt();
+			for(int i = 0; i < branches; i++)
+				readBranch(in, snapshot);
+			long checksum = crc.getValue();
+			if(in.readLong() != checksum)
+				throw new IOException("checksum mismatch");
+			return snapshot;
+		} catch (IOException | RuntimeException e) {
+			log.log(Level.WARNING, e, () -> "Ignoring branch cache snapshot " + file);
+			return null;
+		}
+	}
+
+	private static void writeBranch(DataOutputStream out, Branch branch) throws IOException {
+		out.writeLong(branch.getId());
+		out.writeInt(branch.getTokenNumberGenerator().current());
+		List<Counter> counters = branch.getRegularCounters();
+		counters.addAll(branch.getPremiumCounters());
+		out.writeInt(counters.size());
+		for(Counter counter: counters) {
+			out.writeLong(counter.getId());
+			out.writeInt(counter.getNumber());
+			writeString(out, counter.getServicingType().name());
+			writeString(out, counter.getCurrentOperator());
+			writeString(out, counter.getLastModifiedBy());
+			writeDate(out, counter.getModifiedDate());
+			List<ServiceStep> steps = new ArrayList<>(counter.getSteps());
+			out.writeInt(steps.size());
+			for(ServiceStep step: steps) {
+				out.writeLong(step.getId());
+				writeString(out, step.getName());
+			}
+			List<Token> tokens = new ArrayList<>(counter.getTokens());
+			out.writeInt(tokens.size());
+			for(Token token: tokens)
+				writeToken(out, token);
+		}
+	}
+
+	private static void writeToken(DataOutputStream out, Token token) throws IOException {
+		out.writeLong(token.getId());
+		writeLong(out, token.getAccountNumber());
+		writeInteger(out, token.getNumber());
+		writeString(out, token.getStatus().name());
+		writeDate(out, token.getCreatedDate());
+		writeString(out, token.getType().name());
+		List<TokenWorkflow> steps = new ArrayList<>(token.getSteps());
+		out.writeInt(steps.size());
+		for(TokenWorkflow step: steps) {
+			out.writeLong(step.getId());
+			writeLong(out, step.getCounterId());
+			writeLong(out, step.getStepId());
+			writeString(out, step.getServedBy());
+			writeString(out, step.getStatus().name());
+			writeString(out, step.getComments());
+			writeDate(out, step.getServedDate());
+		}
+	}
+
+	private static void readBranch(DataInputStream in, CacheSnapshot snapshot) throws IOException {
+		long branchId = in.readLong();
+		snapshot.getTokenNumbers().put(branchId, in.readInt());
+		List<Counter> counters = new ArrayList<>();
+		int counterCount = in.readInt();
+		for(int i = 0; i < counterCount; i++) {
+			Counter counter = new Counter();
+			counter.setId(in.readLong());
+			counter.setBranchId(branchId);
+			counter.setNumber(in.readInt());
+			counter.setServicingType(CustomerType.valueOf(readString(in)));
+			counter.setCurrentOperator(readString(in));
+			counter.setLastModifiedBy(readString(in));
+			counter.setModifiedDate(readDate(in));
+			List<ServiceStep> steps = new ArrayList<>();
+			int stepCount = in.readInt();
+			for(int j = 0; j < stepCount; j++) {
+				ServiceStep step = new ServiceStep();
+				step.setId(in.readLong());
+				step.setName(readString(in));
+				steps.add(step);
+			}
+			counter.setSteps(steps);
+			List<Token> tokens = new ArrayList<>();
+			int tokenCount = in.readInt();
+			for(int j = 0; j < tokenCount; j++)
+				tokens.add(readToken(in));
+			snapshot.getQueues().put(counter.getId(), tokens);
+			counters.add(counter);
+		}
+		snapshot.getCounters().put(branchId, counters);
+	}
+
+	private static Token readToken(DataInputStream in) throws IOException {
+		Token token = new Token();
+		token.setId(in.readLong());
+		token.setAccountNumber(readLong(in));
+		token.setNumber(readInteger(in));
+		token.setStatus(TokenStatus.valueOf(readString(in)));
+		token.setCreatedDate(readDate(in));
+		token.setType(CustomerType.valueOf(readString(in)));
+		token.markPersisted();
+		List<TokenWorkflow> steps = new ArrayList<>();
+		int stepCount = in.readInt();
+		for(int i = 0; i < stepCount; i++) {
+			TokenWorkflow step = new TokenWorkflow();
+			step.setId(in.readLong());
+			step.setTokenId(token.getId());
+			step.setCounterId(readLong(in));
+			step.setStepId(readLong(in));
+			step.setServedBy(readString(in));
+			step.setStatus(TokenWorklowStatus.valueOf(readString(in)));
+			step.setComments(readString(in));
+			step.setServedDate(readDate(in));
+			step.markPersisted();
+			steps.add(step);
+		}
+		token.setSteps(steps);
+		return token;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if(Objects.isNull(value)) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if(length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeLong(DataOutputStream out, Long value) throws IOException {
+		out.writeBoolean(!Objects.isNull(value));
+		if(!Objects.isNull(value))
+			out.writeLong(value);
+	}
+
+	private static Long readLong(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readLong() : null;
+	}
+
+	private static void writeInteger(DataOutputStream out, Integer value) throws IOException {
+		out.writeBoolean(!Objects.isNull(value));
+		if(!Objects.isNull(value))
+			out.writeInt(value);
+	}
+
+	private static Integer readInteger(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readInt() : null;
+	}
+
+	private static void writeDate(DataOutputStream out, Date value) throws IOException {
+		writeLong(out, Objects.isNull(value) ? null : value.getTime());
+	}
+
+	private static Date readDate(DataInputStream in) throws IOException {
+		Long time = readLong(in);
+		return Objects.isNull(time) ? null : new Date(time);
+	}
+}
@@ -0,0 +1,250 @@
+package com.turvo.abcbanking.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Forwards requests for a branch owned by another node (see BranchSharding) to its owner
+ *
+ * Request (method, headers & body) is replayed against owner and owner's response is copied back as is.
+ * Event streams are long lived, so instead of being relayed their clients are redirected (307) to owner.
+ * Forwarded requests are marked and never forwarded again, so nodes disagreeing on membership during a change
+ * can't bounce a request between them. Branch list is merged from branches of every member, other requests
+ * not addressing a branch (users, metrics...) are served locally.
+ *
+ * @author Prabal Ghura
+ *
+ */
+@Component
+public class BranchForwardingFilter extends OncePerRequestFilter {
+
+	public static final String FORWARDED_HEADER = "X-Abcbanking-Forwarded-By";
+
+	private static final Pattern BRANCH_PATH = Pattern.compile("^/api/branches/(\\d{1,18})(/.*)?$");
+	
+	private static final String BRANCH_LIST_PATH = "/api/branches";
+
+	private static final Set<String> HOP_HEADERS = new HashSet<>(Arrays.asList("host", "connection", "keep-alive", 
+			"content-length", "transfer-encoding", "upgrade", "te", "trailer", "proxy-connection"));
+
+	@Autowired
+	BranchSharding branchSharding;
+	
+	@Autowired
+	ClusterClient clusterClient;
+	
+	@Autowired
+	ObjectMapper objectMapper;
+
+	@Value("${abcbanking.cluster.connect-timeout-ms:2000}")
+	int connectTimeout;
+
+	/**
+	 * Longer than long poll timeout, so forwarded long polls complete on owner
+	 */
+	@Value("${abcbanking.cluster.read-timeout-ms:60000}")
+	int readTimeout;
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+		String path = request.getRequestURI().substring(request.getContextPath().length());
+		if(branchSharding.isClustered() && BRANCH_LIST_PATH.equals(path) && "GET".equals(request.getMethod()) 
+				&& Objects.isNull(request.getHeader(FORWARDED_HEADER))) {
+			listAllBranches(request, response, filterChain);
+			return;
+		}
+		Matcher matcher = BRANCH_PATH.matcher(path);
+		if(!branchSharding.isClustered() || !matcher.matches() || !Objects.isNull(request.getHeader(FORWARDED_HEADER))
+				|| branchSharding.isLocal(Long.valueOf(matcher.group(1)))) {
+			filterChain.doFilter(request, response);
+			return;
+		}
+		String owner = branchSharding.getOwner(Long.valueOf(matcher.group(1)));
+		String url = owner + request.getRequestURI() + (Objects.isNull(request.getQueryString()) ? "" : "?" + request.getQueryString());
+		if(path.endsWith("/events")) {
+			response.setStatus(HttpStatus.TEMPORARY_REDIRECT.value());
+			response.setHeader("Location", url);
+			return;
+		}
+		forward(request, response, owner, url);
+	}
+
+	/**
+	 * Branches of this node (rendered by filter chain) are merged with branches of every other member (ordered by id),
+	 * list is tagged with a digest of all members' tags, so not modified (304) is sent only if no member's branches changed.
+	 * List is not served partially, if a member can't be reached service unavailable (503) is sent.
+	 *
+	 * @param request
+	 * @param response
+	 * @param filterChain
+	 * @throws ServletException
+	 * @throws IOException
+	 */
+	private void listAllBranches(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+		List<ClusterClient.Reply> replies;
+		try {
+			replies = clusterClient.gather(BRANCH_LIST_PATH);
+		} catch (IOException e) {
+			logger.warn("Branches of other nodes could not be listed", e);
+			response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "Branches of other nodes could not be listed");
+			return;
+		}
+		LocalResponse local = new LocalResponse(response);
+		filterChain.doFilter(new UnconditionalRequest(request), local);
+		if(local.getStatus() != HttpStatus.OK.value()) {
+			local.copyBodyToResponse();
+			return;
+		}
+		StringBuilder tags = new StringBuilder(String.valueOf(local.tag));
+		replies.forEach(reply -> tags.append(',').append(reply.getNode()).append('=').append(reply.getTag()));
+		if(new ServletWebRequest(request, response).checkNotModified(DigestUtils.md5DigestAsHex(tags.toString().getBytes(StandardCharsets.UTF_8))))
+			return;
+		
+		List<JsonNode> branches = new ArrayList<>();
+		objectMapper.readTree(local.getContentAsByteArray()).forEach(branches::add);
+		for(ClusterClient.Reply reply: replies)
+			objectMapper.readTree(reply.getBody()).forEach(branches::add);
+		branches.sort(Comparator.comparing(branch -> branch.path("id").asLong()));
+		response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+		objectMapper.writeValue(response.getOutputStream(), branches);
+	}
+
+	/**
+	 * Replays request against owner and copies its response
+	 *
+	 * @param request
+	 * @param response
+	 * @param owner
+	 * @param url
+	 * @throws IOException
+	 */
+	private void forward(HttpServletRequest request, HttpServletResponse response, String owner, String url) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		int status;
+		try {
+			connection.setRequestMethod(request.getMethod());
+			connection.setConnectTimeout(connectTimeout);
+			connection.setReadTimeout(readTimeout);
+			connection.setInstanceFollowRedirects(false);
+			for(String name: Collections.list(request.getHeaderNames())) {
+				if(!HOP_HEADERS.contains(name.toLowerCase()))
+					Collections.list(request.getHeaders(name)).forEach(value -> connection.addRequestProperty(name, value));
+			}
+			connection.setRequestProperty(FORWARDED_HEADER, branchSharding.getSelf());
+			if("POST".equals(request.getMethod()) || "PUT".equals(request.getMethod())) {
+				connection.setDoOutput(true);
+				try(OutputStream body = connection.getOutputStream()) {
+					StreamUtils.copy(request.getInputStream(), body);
+				}
+			}
+			status = connection.getResponseCode();
+		} catch (IOException e) {
+			logger.warn("Branch owner " + owner + " is unreachable", e);
+			response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "Branch owner " + owner + " is unreachable");
+			return;
+		}
+		response.setStatus(status);
+		for(Map.Entry<String, List<String>> header: connection.getHeaderFields().entrySet()) {
+			if(!Objects.isNull(header.getKey()) && !HOP_HEADERS.contains(header.getKey().toLowerCase()))
+				header.getValue().forEach(value -> response.addHeader(header.getKey(), value));
+		}
+		try(InputStream body = status >= 400 ? connection.getErrorStream() : connection.getInputStream()) {
+			if(!Objects.isNull(body))
+				StreamUtils.copy(body, response.getOutputStream());
+		}
+	}
+
+	/**
+	 * Local part of a merged response, its body & tag are held back so that merged ones are sent instead
+	 */
+	private static class LocalResponse extends ContentCachingResponseWrapper {
+
+		private String tag;
+
+		LocalResponse(HttpServletResponse response) {
+			super(response);
+		}
+
+		@Override
+		public void setHeader(String name, String value) {
+			if(HttpHeaders.ETAG.equalsIgnoreCase(name))
+				tag = value;
+			else
+				super.setHeader(name, value);
+		}
+
+		@Override
+		public void addHeader(String name, String value) {
+			if(HttpHeaders.ETAG.equalsIgnoreCase(name))
+				tag = value;
+			else
+				super.addHeader(name, value);
+		}
+	}
+
+	/**
+	 * Request without conditional headers, so that local part of a merged response is always rendered
+	 */
+	private static class UnconditionalRequest extends HttpServletRequestWrapper {
+
+		private static final Set<String> CONDITIONAL_HEADERS = new HashSet<>(Arrays.asList("if-none-match", "if-modified-since"));
+
+		UnconditionalRequest(HttpServletRequest request) {
+			super(request);
+		}
+
+		@Override
+		public String getHeader(String name) {
+			return CONDITIONAL_HEADERS.contains(name.toLowerCase()) ? null : super.getHeader(name);
+		}
+
+		@Override
+		public Enumeration<String> getHeaders(String name) {
+			return CONDITIONAL_HEADERS.contains(name.toLowerCase()) ? Collections.emptyEnumeration() : super.getHeaders(name);
+		}
+
+		@Override
+		public long getDateHeader(String name) {
+			return CONDITIONAL_HEADERS.contains(name.toLowerCase()) ? -1 : super.getDateHeader(name);
+		}
+	}
+}
@@ -0,0 +1,245 @@
+package com.turvo.abcbanking.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.turvo.abcbanking.exception.BusinessRuntimeException;
+
+/**
+ * Opt in single writer execution of branch queue mutations (token creation, service & marking)
+ *
+ * Every branch is owned by one of a fixed number of event loops, each a single thread draining its own bounded mailbox.
+ * Mutations of a branch are handed in to its owner's mailbox and executed one at a time in arrival order, 
+ * so two requests never change queues of same branch concurrently (e.g. a token can't be served while being cancelled).
+ * Calling request thread waits for its result, exception thrown by the mutation is rethrown to caller as is.
+ * When mailbox is full caller blocks (back pressure). Mutations submitted from an event loop run inline, 
+ * so nested calls never wait on their own loop. Pending mutations are drained on shutdown.
+ * 
+ * Loops never block on write behind lanes (see DBWriteBehindExecutor), instead a mutation is admitted only once
+ * no write behind lane overflows, a mutation not admitted within submit timeout is rejected.
+ * A mutation still waiting in mailbox after submit timeout (mailbox full or loop stuck) is taken back and rejected,
+ * once mailbox is stopping new mutations are rejected, so a caller never waits on a loop which is gone.
+ * A rejected mutation is never executed.
+ *
+ * If disabled, mutations are executed on the calling thread.
+ *
+ * @author Prabal Ghura
+ *
+ */
+@Component
+public class BranchMailbox {
+
+	private static final Logger log = Logger.getLogger(BranchMailbox.class.getName());
+
+	/**
+	 * Set on event loop threads
+	 */
+	private static final ThreadLocal<Boolean> ON_LOOP = ThreadLocal.withInitial(() -> false);
+
+	@Autowired
+	DBWriteBehindExecutor dbWriteBehindExecutor;
+
+	@Value("${abcbanking.mailbox.enabled:false}")
+	boolean enabled;
+
+	/**
+	 * Event loops branches are spread over (0 uses available processors)
+	 */
+	@Value("${abcbanking.mailbox.loops:0}")
+	int loopCount;
+
+	@Value("${abcbanking.mailbox.capacity:10000}")
+	int capacity;
+
+	/**
+	 * Time a mutation may wait to be picked by its loop before it is rejected
+	 */
+	@Value("${abcbanking.mailbox.submit-timeout-ms:30000}")
+	long submitTimeout;
+
+	@Value("${abcbanking.mailbox.shutdown-timeout-ms:30000}")
+	long shutdownTimeout;
+
+	private final List<BlockingQueue<FutureTask<?>>> mailboxes = new ArrayList<>();
+
+	private final List<Thread> loops = new ArrayList<>();
+
+	private volatile boolean running;
+
+	/**
+	 * Set once loops are started, mutations are rejected after stop instead of running on calling thread
+	 */
+	private volatile boolean started;
+
+	@PostConstruct
+	public void start() {
+		if(!enabled)
+			return;
+		running = true;
+		started = true;
+		int loopCount1 = loopCount > 0 ? loopCount : Runtime.getRuntime().availableProcessors();
+		for(int i = 0; i < loopCount1; i++) {
+			BlockingQueue<FutureTask<?>> mailbox = new ArrayBlockingQueue<>(Math.max(1, capacity));
+			Thread loop = new Thread(() -> drain(mailbox), "branch-mailbox-" + i);
+			loop.setDaemon(true);
+			mailboxes.add(mailbox);
+			loops.add(loop);
+			loop.start();
+		}
+	}
+
+	/**
+	 * Stops accepting new mutations, waits for event loops to execute pending ones (till shutdown timeout), 
+	 * mutations still pending after it are cancelled so their callers don't wait forever
+	 */
+	@PreDestroy
+	public void stop() {
+		running = false;
+		long deadline = System.currentTimeMillis() + shutdownTimeout;
+		for(Thread loop: loops) {
+			try {
+				loop.join(Math.max(1, deadline - System.currentTimeMillis()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		int pending = 0;
+		for(BlockingQueue<FutureTask<?>> mailbox: mailboxes) {
+			List<FutureTask<?>> left = new ArrayList<>();
+			mailbox.drainTo(left);
+			left.forEach(task -> task.cancel(false));
+			pending += left.size();
+		}
+		int pending1 = pending;
+		if(pending1 > 0)
+			log.log(Level.SEVERE, () -> pending1 + " branch mutations could not be executed before shutdown, rejected");
+	}
+
+	/**
+	 * @return whether calling thread is an event loop (it must not block on back pressure)
+	 */
+	public static boolean isOnLoop() {
+		return ON_LOOP.get();
+	}
+
+	/**
+	 * Executes a mutation of passed branch on its event loop and waits for its result
+	 *
+	 * @param branchId
+	 * @param mutation
+	 * @return mutation result
+	 */
+	public <T> T execute(Long branchId, Supplier<T> mutation) {
+		if(ON_LOOP.get() || !started || Objects.isNull(branchId))
+			return mutation.get();
+		if(!running)
+			throw new BusinessRuntimeException(ApplicationConstants.ERR_MAILBOX_STOPPED);
+		if(!dbWriteBehindExecutor.awaitCapacity(submitTimeout))
+			throw new BusinessRuntimeException(ApplicationConstants.ERR_MAILBOX_TIMEOUT);
+		FutureTask<T> task = new FutureTask<>(mutation::get);
+		BlockingQueue<FutureTask<?>> mailbox = getMailbox(branchId);
+		try {
+			if(!mailbox.offer(task, submitTimeout, TimeUnit.MILLISECONDS))
+				throw new BusinessRuntimeException(ApplicationConstants.ERR_MAILBOX_TIMEOUT);
+			// loop may have seen mailbox empty & stopped before task was put, take it back
+			if(!running && mailbox.remove(task))
+				throw new BusinessRuntimeException(ApplicationConstants.ERR_MAILBOX_STOPPED);
+			return await(task, mailbox, submitTimeout);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			if(mailbox.remove(task))
+				throw new IllegalStateException("Interrupted while waiting for branch " + branchId + " mutation", e);
+			throw new IllegalStateException("Interrupted while branch " + branchId + " mutation was executing", e);
+		} catch (CancellationException e) {
+			throw new BusinessRuntimeException(ApplicationConstants.ERR_MAILBOX_STOPPED);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			if(e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Waits for task result, task not picked by its loop within submit timeout is taken back & rejected,
+	 * task already picked is waited for till it completes
+	 *
+	 * @param task
+	 * @param mailbox
+	 * @param timeout in millis
+	 * @return task result
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	private static <T> T await(FutureTask<T> task, BlockingQueue<FutureTask<?>> mailbox, long timeout) 
+			throws InterruptedException, ExecutionException {
+		try {
+			return task.get(timeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			if(mailbox.remove(task))
+				throw new BusinessRuntimeException(ApplicationConstants.ERR_MAILBOX_TIMEOUT);
+			return task.get();
+		}
+	}
+
+	/**
+	 * Executes a mutation of passed branch on its event loop and waits for it to complete
+	 *
+	 * @param branchId
+	 * @param mutation
+	 */
+	public void execute(Long branchId, Runnable mutation) {
+		execute(branchId, () -> {
+			mutation.run();
+			return null;
+		});
+	}
+
+	private BlockingQueue<FutureTask<?>> getMailbox(Long branchId) {
+		return mailboxes.get(Math.floorMod(branchId.hashCode(), mailboxes.size()));
+	}
+
+	/**
+	 * Event loop, executes mutations in arrival order, all mutations already waiting are taken in one go
+	 *
+	 * @param mailbox
+	 */
+	private void drain(BlockingQueue<FutureTask<?>> mailbox) {
+		ON_LOOP.set(true);
+		List<FutureTask<?>> batch = new ArrayList<>();
+		while(running || !mailbox.isEmpty()) {
+			try {
+				FutureTask<?> task = mailbox.poll(200, TimeUnit.MILLISECONDS);
+				if(Objects.isNull(task))
+					continue;
+				batch.add(task);
+				mailbox.drainTo(batch);
+				batch.forEach(FutureTask::run);
+				batch.clear();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,213 @@
+package com.turvo.abcbanking.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Assigns branches to application nodes, so that every branch is cached & mutated by exactly one node
+ *
+ * Membership is a list of node base URLs (e.g. http://host:8080) given inline or in a file (one URL per line, 
+ * # for comments) which is re-read when modified. Branch ids are mapped to nodes with a consistent hash ring,
+ * so a membership change only moves branches of joining/leaving nodes. Membership listeners are notified of changes.
+ * Previous membership is kept, so that a node can tell branches it took over from another node with last change.
+ *
+ * Without membership or own URL (self) node is standalone and owns every branch.
+ *
+ * @author Prabal Ghura
+ *
+ */
+@Component
+public class BranchSharding {
+
+	private static final Logger log = Logger.getLogger(BranchSharding.class.getName());
+
+	/**
+	 * Base URL of this node as it appears in membership
+	 */
+	@Value("${abcbanking.cluster.self:}")
+	String self;
+
+	@Value("${abcbanking.cluster.nodes:}")
+	String nodes;
+
+	@Value("${abcbanking.cluster.nodes-file:}")
+	String nodesFile;
+
+	@Value("${abcbanking.cluster.virtual-nodes:128}")
+	int virtualNodes;
+
+	@Value("${abcbanking.cluster.refresh-ms:5000}")
+	long refreshInterval;
+
+	private volatile ConsistentHashRing ring = new ConsistentHashRing(Collections.emptyList(), 1);
+
+	/**
+	 * Ring before last membership change
+	 */
+	private volatile ConsistentHashRing previousRing = ring;
+
+	/**
+	 * Time (epoch millis) of last membership change
+	 */
+	private volatile long membershipChangedAt;
+
+	private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+	private ScheduledExecutorService refresher;
+
+	private long nodesFileModified;
+
+	@PostConstruct
+	public void start() {
+		self = normalize(self);
+		if(nodesFile.trim().isEmpty()) {
+			setMembership(Arrays.asList(nodes.split(",")));
+			return;
+		}
+		refreshMembership();
+		refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "cluster-membership");
+			thread.setDaemon(true);
+			return thread;
+		});
+		refresher.scheduleWithFixedDelay(this::refreshMembership, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void stop() {
+		if(!Objects.isNull(refresher))
+			refresher.shutdownNow();
+	}
+
+	/**
+	 * Whether branches are spread over multiple nodes
+	 *
+	 * @return true if membership & own URL are configured
+	 */
+	public boolean isClustered() {
+		return !ring.isEmpty() && !self.isEmpty();
+	}
+
+	/**
+	 * Whether this node owns passed branch
+	 *
+	 * @param branchId
+	 * @return true if owned (always true for standalone node)
+	 */
+	public boolean isLocal(Long branchId) {
+		ConsistentHashRing ring1 = ring;
+		return ring1.isEmpty() || self.isEmpty() || Objects.isNull(branchId) || self.equals(ring1.getOwner(branchId));
+	}
+
+	/**
+	 * Node owning passed branch
+	 *
+	 * @param branchId
+	 * @return base URL of owner, null for standalone node
+	 */
+	public String getOwner(Long branchId) {
+		return ring.getOwner(branchId);
+	}
+
+	/**
+	 * Whether passed branch is owned by this node since last membership change and was owned by another node before it
+	 *
+	 * @param branchId
+	 * @return true if branch was taken over from another node
+	 */
+	public boolean isTakenOver(Long branchId) {
+		ConsistentHashRing previous = previousRing;
+		if(previous.isEmpty() || self.isEmpty() || Objects.isNull(branchId) || !isLocal(branchId))
+			return false;
+		return !self.equals(previous.getOwner(branchId));
+	}
+
+	/**
+	 * @return time (epoch millis) of last membership change
+	 */
+	public long getMembershipChangedAt() {
+		return membershipChangedAt;
+	}
+
+	public String getSelf() {
+		return self;
+	}
+
+	public List<String> getNodes() {
+		return ring.getNodes();
+	}
+
+	/**
+	 * Registers a callback run (on membership changing thread) whenever branch ownership may have changed
+	 *
+	 * @param listener
+	 */
+	public void addMembershipListener(Runnable listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Replaces membership, listeners are notified if it has changed
+	 *
+	 * @param nodes1 node base URLs
+	 */
+	public synchronized void setMembership(List<String> nodes1) {
+		List<String> members = nodes1.stream().map(BranchSharding::normalize).filter(node -> !node.isEmpty())
+				.distinct().sorted().collect(Collectors.toList());
+		if(members.equals(ring.getNodes()))
+			return;
+		previousRing = ring;
+		ring = new ConsistentHashRing(members, virtualNodes);
+		membershipChangedAt = System.currentTimeMillis();
+		if(!self.isEmpty() && !members.isEmpty() && !members.contains(self))
+			log.log(Level.WARNING, () -> "Node " + self + " is not a member of " + members + ", it owns no branch");
+		log.log(Level.INFO, () -> "Cluster membership " + members);
+		listeners.forEach(Runnable::run);
+	}
+
+	/**
+	 * Re-reads membership file if it was modified since last read
+	 */
+	private void refreshMembership() {
+		try {
+			Path path = Paths.get(nodesFile.trim());
+			long modified = Files.getLastModifiedTime(path).toMillis();
+			if(modified == nodesFileModified)
+				return;
+			nodesFileModified = modified;
+			try(Stream<String> lines = Files.lines(path, StandardCharsets.UTF_8)) {
+				setMembership(lines.filter(line -> !line.trim().startsWith("#")).collect(Collectors.toList()));
+			}
+		} catch (IOException | RuntimeException e) {
+			log.log(Level.WARNING, "Cluster membership file " + nodesFile + " could not be read", e);
+		}
+	}
+
+	private static String normalize(String node) {
+		String node1 = node.trim();
+		while(node1.endsWith("/"))
+			node1 = node1.substring(0, node1.length() - 1);
+		return node1;
+	}
+}
@@ -0,0 +1,208 @@
+package com.turvo.abcbanking.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Calls other cluster members (see BranchSharding) for state every node keeps on its own
+ *
+ * Broadcast posts a change (e.g. role or service workflow change) to every other member so that they drop or refresh
+ * their copy. Within a transaction it is sent once transaction commits, so members read committed state.
+ * Members are called in turn on calling thread, a member which can't be reached is retried in background
+ * (while it stays a member) for broadcast retries times.
+ * Gather reads a resource (e.g. branch list) from every other member, so that it can be merged with local one.
+ * Requests are marked like forwarded ones, so members answer them locally.
+ *
+ * Standalone node has no other member, calls are no-ops.
+ *
+ * @author Prabal Ghura
+ *
+ */
+@Component
+public class ClusterClient {
+
+	private static final Logger log = Logger.getLogger(ClusterClient.class.getName());
+
+	@Autowired
+	BranchSharding branchSharding;
+
+	@Value("${abcbanking.cluster.connect-timeout-ms:2000}")
+	int connectTimeout;
+
+	/**
+	 * Read timeout of broadcast & gather requests (these are answered from member's memory)
+	 */
+	@Value("${abcbanking.cluster.request-timeout-ms:5000}")
+	int requestTimeout;
+
+	@Value("${abcbanking.cluster.broadcast-retries:5}")
+	int broadcastRetries;
+
+	@Value("${abcbanking.cluster.broadcast-retry-ms:2000}")
+	long broadcastRetryDelay;
+
+	private ScheduledExecutorService retrier;
+
+	@PostConstruct
+	public void start() {
+		retrier = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "cluster-broadcast-retry");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	public void stop() {
+		retrier.shutdownNow();
+	}
+
+	/**
+	 * Posts passed path to every other member, after commit if called within a transaction (not sent on rollback)
+	 *
+	 * @param path request path with query, e.g. /api/cluster/roles/evict?userId=abc
+	 */
+	public void broadcast(String path) {
+		if(!branchSharding.isClustered())
+			return;
+		if(TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					send(path);
+				}
+			});
+		} else {
+			send(path);
+		}
+	}
+
+	/**
+	 * Reads passed path from every other member
+	 *
+	 * @param path request path with query
+	 * @return replies of members, in membership order
+	 * @throws IOException if a member can't be reached or doesn't answer with 200
+	 */
+	public List<Reply> gather(String path) throws IOException {
+		List<Reply> replies = new ArrayList<>();
+		if(!branchSharding.isClustered())
+			return replies;
+		for(String node: getOtherNodes()) {
+			HttpURLConnection connection = open(node, path, "GET");
+			try {
+				int status = connection.getResponseCode();
+				if(status != HttpURLConnection.HTTP_OK)
+					throw new IOException("Node " + node + " answered " + path + " with status " + status);
+				try(InputStream body = connection.getInputStream()) {
+					replies.add(new Reply(node, connection.getHeaderField("ETag"), StreamUtils.copyToByteArray(body)));
+				}
+			} finally {
+				connection.disconnect();
+			}
+		}
+		return replies;
+	}
+
+	private void send(String path) {
+		getOtherNodes().forEach(node -> send(node, path, 0));
+	}
+
+	/**
+	 * Posts to a member, failed post is rescheduled on retry thread unless member has left or retries are exhausted
+	 *
+	 * @param node
+	 * @param path
+	 * @param attempt
+	 */
+	private void send(String node, String path, int attempt) {
+		if(!getOtherNodes().contains(node))
+			return;
+		try {
+			HttpURLConnection connection = open(node, path, "POST");
+			try {
+				int status = connection.getResponseCode();
+				if(status >= 300)
+					throw new IOException("Node " + node + " answered " + path + " with status " + status);
+			} finally {
+				connection.disconnect();
+			}
+		} catch (IOException e) {
+			if(attempt >= broadcastRetries || retrier.isShutdown()) {
+				log.log(Level.SEVERE, "Broadcast " + path + " could not be sent to node " + node + ", its copy stays stale till restart", e);
+				return;
+			}
+			log.log(Level.WARNING, () -> "Broadcast " + path + " to node " + node + " failed (" + e.getMessage()
+					+ "), retrying in " + broadcastRetryDelay + " ms");
+			retrier.schedule(() -> send(node, path, attempt + 1), broadcastRetryDelay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private HttpURLConnection open(String node, String path, String method) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(node + path).openConnection();
+		connection.setRequestMethod(method);
+		connection.setConnectTimeout(connectTimeout);
+		connection.setReadTimeout(requestTimeout);
+		connection.setInstanceFollowRedirects(false);
+		connection.setRequestProperty(BranchForwardingFilter.FORWARDED_HEADER, branchSharding.getSelf());
+		return connection;
+	}
+
+	private List<String> getOtherNodes() {
+		List<String> nodes = new ArrayList<>(branchSharding.getNodes());
+		nodes.remove(branchSharding.getSelf());
+		return nodes;
+	}
+
+	/**
+	 * Answer of a member to a gather request
+	 */
+	public static class Reply {
+
+		private final String node;
+
+		private final String tag;
+
+		private final byte[] body;
+
+		Reply(String node, String tag, byte[] body) {
+			this.node = node;
+			this.tag = tag;
+			this.body = body;
+		}
+
+		public String getNode() {
+			return node;
+		}
+
+		/**
+		 * @return ETag of member's answer, null if it sent none
+		 */
+		public String getTag() {
+			return tag;
+		}
+
+		public byte[] getBody() {
+			return body;
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package com.turvo.abcbanking.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Immutable consistent hash ring assigning keys (branch ids) to nodes
+ *
+ * Every node is put on the ring at a number of pseudo random points (virtual nodes), a key is owned by the node 
+ * at first point clockwise from key's hash. Adding or removing a node only moves keys between that node and 
+ * the others, and hashes don't depend on JVM, so all nodes with same membership agree on owners.
+ *
+ * @author Prabal Ghura
+ *
+ */
+public class ConsistentHashRing {
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final TreeMap<Long, String> points = new TreeMap<>();
+
+	private final List<String> nodes;
+
+	/**
+	 * @param nodes node names (base URLs)
+	 * @param virtualNodes points per node
+	 */
+	public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+		this.nodes = Collections.unmodifiableList(new ArrayList<>(new TreeSet<>(nodes)));
+		for(String node: this.nodes) {
+			for(int i = 0; i < Math.max(1, virtualNodes); i++)
+				points.putIfAbsent(hash(node + "#" + i), node);
+		}
+	}
+
+	/**
+	 * Node owning passed key
+	 *
+	 * @param key
+	 * @return node, null if ring is empty
+	 */
+	public String getOwner(long key) {
+		if(points.isEmpty())
+			return null;
+		Map.Entry<Long, String> point = points.ceilingEntry(mix(key));
+		return (point == null ? points.firstEntry() : point).getValue();
+	}
+
+	/**
+	 * Sorted node names
+	 *
+	 * @return nodes
+	 */
+	public List<String> getNodes() {
+		return nodes;
+	}
+
+	public boolean isEmpty() {
+		return nodes.isEmpty();
+	}
+
+	private static long hash(String value) {
+		long hash = FNV_OFFSET;
+		for(byte b: value.getBytes(StandardCharsets.UTF_8)) {
+			hash ^= b & 0xff;
+			hash *= FNV_PRIME;
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * Murmur3 64 bit finalizer, spreads consecutive keys (ids) over the ring
+	 */
+	private static long mix(long value) {
+		long value1 = value;
+		value1 ^= value1 >>> 33;
+		value1 *= 0xff51afd7ed558ccdL;
+		value1 ^= value1 >>> 33;
+		value1 *= 0xc4ceb9fe1a85ec53L;
+		value1 ^= value1 >>> 33;
+		return value1;
+	}
+}
@@ -0,0 +1,149 @@
+package com.turvo.abcbanking.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.turvo.abcbanking.model.Counter;
+
+/**
+ * Indexed binary min-heap of counters ordered by live queue depth (ties broken by counter number)
+ *
+ * One heap is kept per branch, customer type & service step. Counters notify the heaps they belong to whenever
+ * their queue changes, heap re-reads the counter depth under its lock and re-positions only that counter (O(log n)).
+ * Least loaded counter is published through a volatile field so that it is read in O(1) without locking.
+ *
+ * @author Prabal Ghura
+ *
+ */
+public class CounterHeap {
+
+	private final Counter[] counters;
+
+	/**
+	 * Queue depth of counter at same heap position, as last read under lock
+	 */
+	private final int[] depths;
+
+	/**
+	 * Counter mapped against its current heap position
+	 */
+	private final Map<Counter, Integer> positions = new IdentityHashMap<>();
+
+	private volatile Counter leastLoaded;
+
+	/**
+	 * Builds heap from passed counters reading their current queue depths
+	 *
+	 * @param counters
+	 */
+	public CounterHeap(Collection<Counter> counters) {
+		this.counters = counters.toArray(new Counter[0]);
+		this.depths = new int[this.counters.length];
+		refresh();
+	}
+
+	/**
+	 * Least loaded counter in O(1)
+	 *
+	 * @return counter with minimum queue depth, null if heap is empty
+	 */
+	public Counter peek() {
+		return leastLoaded;
+	}
+
+	public int size() {
+		return counters.length;
+	}
+
+	/**
+	 * Counters in heap (in no particular order)
+	 *
+	 * @return list of counters
+	 */
+	public synchronized List<Counter> getCounters() {
+		List<Counter> counters1 = new ArrayList<>(counters.length);
+		for(Counter counter: counters)
+			counters1.add(counter);
+		return counters1;
+	}
+
+	/**
+	 * Re-reads queue depth of a counter and restores heap order, counters not in heap are ignored
+	 *
+	 * @param counter
+	 */
+	public synchronized void update(Counter counter) {
+		Integer position = positions.get(counter);
+		if(Objects.isNull(position))
+			return;
+		depths[position] = counter.getQueueDepth();
+		siftDown(siftUp(position));
+		leastLoaded = counters[0];
+	}
+
+	/**
+	 * Re-reads queue depths of all counters and rebuilds heap order
+	 */
+	public synchronized void refresh() {
+		for(int i = 0; i < counters.length; i++) {
+			depths[i] = counters[i].getQueueDepth();
+			positions.put(counters[i], i);
+		}
+		for(int i = counters.length/2 - 1; i >= 0; i--)
+			siftDown(i);
+		leastLoaded = counters.length == 0 ? null : counters[0];
+	}
+
+	private int siftUp(int position) {
+		int child = position;
+		while(child > 0) {
+			int parent = (child - 1) / 2;
+			if(!less(child, parent))
+				break;
+			swap(child, parent);
+			child = parent;
+		}
+		return child;
+	}
+
+	private int siftDown(int position) {
+		int parent = position;
+		while(true) {
+			int left = 2 * parent + 1;
+			if(left >= counters.length)
+				break;
+			int right = left + 1;
+			int smallest = right < counters.length && less(right, left) ? right : left;
+			if(!less(smallest, parent))
+				break;
+			swap(smallest, parent);
+			parent = smallest;
+		}
+		return parent;
+	}
+
+	private boolean less(int i, int j) {
+		if(depths[i] != depths[j])
+			return depths[i] < depths[j];
+		return number(counters[i]) < number(counters[j]);
+	}
+
+	private static int number(Counter counter) {
+		return Objects.isNull(counter.getNumber()) ? Integer.MAX_VALUE : counter.getNumber();
+	}
+
+	private void swap(int i, int j) {
+		Counter counter = counters[i];
+		counters[i] = counters[j];
+		counters[j] = counter;
+		int depth = depths[i];
+		depths[i] = depths[j];
+		depths[j] = depth;
+		positions.put(counters[i], i);
+		positions.put(counters[j], j);
+	}
+}
@@ -18,6 +18,8 @@ public class CustomQueries {
 	public static final String USER_ROLES = "select r from Role r, UserXRole uxr where r.id = uxr.roleId "
 			+ "and uxr.userId = ?1";
 	
+	public static final String ALL_USER_ROLE_NAMES = "select uxr.userId, r.name from UserXRole uxr, Role r where r.id = uxr.roleId";
+	
 	public static final String COUNTER_MAX_NUMBER = "select coalesce(max(c.number), 0) from Counter c where c.branchId = ?1";
 	
 	public static final String WORKFLOW_FOR_SERVICE = "select step from ServiceXServiceStep sxs, ServiceStep step "
@@ -33,12 +35,48 @@ public class CustomQueries {
 			+ "on bxs.STEP_ID = sxs.STEP_ID where bxs.STEP_ID is null) bxns on s.ID = bxns.SERVICE_ID where bxns.SERVICE_ID is null "
 			+ "order by s.ID, sxs1.WORKFLOW_ORDER";
 	
-	public static final String TOKEN_FOR_COUNTER = "select t.ID, t.ACCOUNT_NUMBER, t.DISPLAY_ID, t.STATUS, t.CREATED_DATE, tft.ID WORK_FLOW_ID, "
-			+ "tft.TOKEN_ID, tft.COUNTER_ID, tft.STEP_ID, tft.SERVED_BY, tft.STATUS WORKFLOW_STATUS, tft.COMMENTS, tft.SERVED_DATE, c.TYPE "
-			+ "from TOKEN_WORKFLOW tf, TOKEN t, TOKEN_WORKFLOW tft, CUSTOMER c where tf.TOKEN_ID = t.ID and tf.COUNTER_ID = ? "
-			+ "and tf.STATUS = 'ASSIGNED' and t.STATUS = 'PENDING' and tft.TOKEN_ID = t.ID and c.ACCOUNT_NUMBER = t.ACCOUNT_NUMBER";
+	public static final String SERVICE_WORKFLOWS = "select s.ID, s.NAME, step.ID STEP_ID, step.NAME STEP_NAME from SERVICEXSERVICE_STEP sxs "
+			+ "inner join SERVICE s on sxs.SERVICE_ID = s.ID inner join SERVICE_STEP step on step.ID = sxs.STEP_ID "
+			+ "order by s.ID, sxs.WORKFLOW_ORDER";
+	
+	public static final String STEPS_FOR_ALL_COUNTERS = "select cxs.counterId, step from CounterXServiceStep cxs, ServiceStep step "
+			+ "where cxs.stepId=step.id";
+	
+	private static final String TOKEN_FOR_COUNTERS = "select t.ID, t.ACCOUNT_NUMBER, t.DISPLAY_ID, t.STATUS, t.CREATED_DATE, tft.ID WORK_FLOW_ID, "
+			+ "tft.TOKEN_ID, tft.COUNTER_ID, tft.STEP_ID, tft.SERVED_BY, tft.STATUS WORKFLOW_STATUS, tft.COMMENTS, tft.SERVED_DATE, c.TYPE, "
+			+ "tf.COUNTER_ID ASSIGNED_COUNTER_ID from TOKEN_WORKFLOW tf, TOKEN t, TOKEN_WORKFLOW tft, CUSTOMER c where tf.TOKEN_ID = t.ID "
+			+ "and tf.STATUS = 'ASSIGNED' and t.STATUS = 'PENDING' and tft.TOKEN_ID = t.ID and c.ACCOUNT_NUMBER = t.ACCOUNT_NUMBER ";
+	
+	/**
+	 * Rows of a token are kept together and tokens are ordered by creation to approximate queue order
+	 */
+	private static final String TOKEN_ORDER = "order by t.CREATED_DATE, t.ID, tft.ID";
+	
+	public static final String TOKEN_FOR_COUNTER = TOKEN_FOR_COUNTERS + "and tf.COUNTER_ID = ? " + TOKEN_ORDER;
+	
+	public static final String TOKEN_FOR_ALL_COUNTERS = TOKEN_FOR_COUNTERS + TOKEN_ORDER;
 	
 	public static final String TOKEN_MAX_NUMBER = "select coalesce(max(t.number), 0) from Counter c, TokenWorkflow w, Token t where "
 			+ "c.branchId = ?1 and w.counterId = c.id and w.tokenId = t.id and w.status = 'ASSIGNED' "
 			+ "and t.status = 'PENDING'";
+	
+	public static final String TOKEN_MAX_NUMBER_BY_BRANCH = "select c.branchId, coalesce(max(t.number), 0) from Counter c, TokenWorkflow w, Token t "
+			+ "where w.counterId = c.id and w.tokenId = t.id and w.status = 'ASSIGNED' and t.status = 'PENDING' group by c.branchId";
+	
+	public static final String PENDING_TOKEN_COUNT_BY_BRANCH = "select c.branchId, count(t) from Counter c, TokenWorkflow w, Token t "
+			+ "where w.counterId = c.id and w.tokenId = t.id and w.status = 'ASSIGNED' and t.status = 'PENDING' group by c.branchId";
+	
+	public static final String PENDING_TOKEN_IDS = "select t.id from Token t where t.status = 'PENDING'";
+	
+	public static final String COUNTERS_SERVED_AFTER = "select distinct w.counterId from TokenWorkflow w where w.servedDate > ?1 "
+			+ "and w.counterId is not null";
+	
+	public static final String COUNTERS_WITH_PENDING_TOKENS_CREATED_AFTER = "select distinct w.counterId from TokenWorkflow w, Token t "
+			+ "where w.tokenId = t.id and t.status = 'PENDING' and t.createdDate > ?1 and w.counterId is not null";
+	
+	public static final String ID_GENERATOR_FOR_UPDATE = "select g from IdGenerator g where g.name = ?1";
+	
+	public static final String TOKEN_INITIAL_ID = "select coalesce(max(t.id), 0) + 1 from Token t";
+	
+	public static final String TOKEN_WORKFLOW_INITIAL_ID = "select coalesce(max(w.id), 0) + 1 from TokenWorkflow w";
 }
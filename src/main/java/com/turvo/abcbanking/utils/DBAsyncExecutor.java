@@ -2,11 +2,15 @@ package com.turvo.abcbanking.utils;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
 
+import com.turvo.abcbanking.model.WriteBehindEntity;
 import com.turvo.abcbanking.repository.BaseRepository;
 
 /**
- * Util class for asynchronously saving Token into DB
+ * Util class for asynchronously saving entities into DB, executed by DBWriteBehindExecutor
+ * 
+ * Write behind entities are copied when executor is created, so state at submit time is written.
  * 
  * @author Prabal Ghura
  *
@@ -23,19 +27,37 @@ public class DBAsyncExecutor<T, R extends BaseRepository<T, ?>> implements Runna
 	 */
 	public DBAsyncExecutor(List<T> t, R repository) {
 		super();
-		this.t = t;
+		this.t = t.stream().map(DBAsyncExecutor::snapshot).collect(Collectors.toList());
 		this.repository = repository;
 	}
 	
 	public DBAsyncExecutor(T t, R repository) {
-		super();
-		this.t = Arrays.asList(t);
-		this.repository = repository;
+		this(Arrays.asList(t), repository);
+	}
+
+	/**
+	 * Saves entities without flushing, used when multiple executors are written in one transaction (single flush at commit)
+	 * 
+	 * Write behind entities are marked persisted as soon as they are handed to repository, so that a later copy of same
+	 * entity in same transaction is merged instead of inserted again. If transaction rolls back, retried copies are merged
+	 * and merge inserts rows not found.
+	 */
+	public void save() {
+		repository.save(t);
+		t.forEach(entity -> {
+			if(entity instanceof WriteBehindEntity)
+				((WriteBehindEntity<?>) entity).markPersisted();
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T snapshot(T entity) {
+		return entity instanceof WriteBehindEntity ? ((WriteBehindEntity<T>) entity).snapshot() : entity;
 	}
 
 	@Override
 	public void run() {
-		repository.save(t);
+		save();
 		repository.flush();
 	}
 }
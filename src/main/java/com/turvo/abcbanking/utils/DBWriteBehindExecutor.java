@@ -0,0 +1,450 @@
+package com.turvo.abcbanking.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.turvo.abcbanking.repository.BaseRepository;
+
+/**
+ * Write behind pipeline persisting entities asynchronously through DBAsyncExecutor
+ *
+ * Writes are distributed on a fixed number of lanes, each lane has a bounded queue and a dedicated writer thread.
+ * Lane is chosen from an ordering key (token id), so all writes for a token are executed in submission order.
+ * Writer drains up to batch size executors from its lane and saves them in a single transaction (single flush),
+ * failed batch is retried with linear backoff and finally written executor by executor so that one bad entity doesn't hold the rest.
+ * An executor failing on its own is parked with its ordering key (later writes for that key are parked behind it to keep
+ * their order) and parked writes are replayed every replay interval till they succeed, writes are never dropped.
+ * When lane queue is full writes go to the lane's overflow (moved into lane by its writer in order) instead of being dropped.
+ * Branch mailbox loops are never blocked by a full lane, other submitting threads wait till lane's overflow is drained
+ * (back pressure), mailboxes hold back new mutations while any lane overflows (see awaitCapacity).
+ * Pending writes are drained on shutdown, parked writes get a last replay.
+ * Flush waits for writes queued before it (e.g. before a branch is handed over to another node).
+ *
+ * If disabled, writes are executed synchronously on the calling thread.
+ *
+ * @author Prabal Ghura
+ *
+ */
+@Component
+public class DBWriteBehindExecutor {
+
+	private static final Logger log = Logger.getLogger(DBWriteBehindExecutor.class.getName());
+
+	@Autowired
+	PlatformTransactionManager transactionManager;
+
+	@Value("${abcbanking.write-behind.enabled:true}")
+	boolean enabled;
+
+	@Value("${abcbanking.write-behind.lanes:4}")
+	int laneCount;
+
+	@Value("${abcbanking.write-behind.capacity:10000}")
+	int capacity;
+
+	@Value("${abcbanking.write-behind.batch-size:100}")
+	int batchSize;
+
+	@Value("${abcbanking.write-behind.max-retries:3}")
+	int maxRetries;
+
+	@Value("${abcbanking.write-behind.retry-delay-ms:200}")
+	long retryDelay;
+
+	@Value("${abcbanking.write-behind.replay-interval-ms:5000}")
+	long replayInterval;
+
+	@Value("${abcbanking.write-behind.shutdown-timeout-ms:30000}")
+	long shutdownTimeout;
+
+	private TransactionTemplate transactionTemplate;
+
+	private final List<BlockingQueue<Write>> lanes = new ArrayList<>();
+
+	/**
+	 * Writes a full lane couldn't take, one per lane and guarded by itself
+	 * while a lane's overflow is not empty new writes are appended to it too, so that they stay in submission order
+	 */
+	private final List<Deque<Write>> overflows = new ArrayList<>();
+
+	/**
+	 * Number of overflowing writes over all lanes
+	 */
+	private final AtomicInteger overflowWrites = new AtomicInteger();
+
+	/**
+	 * Number of parked writes over all lanes
+	 */
+	private final AtomicInteger parkedWrites = new AtomicInteger();
+
+	private final List<Thread> writers = new ArrayList<>();
+
+	private volatile boolean running;
+
+	@PostConstruct
+	public void start() {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+		if(!enabled)
+			return;
+		running = true;
+		for(int i = 0; i < Math.max(1, laneCount); i++) {
+			int index = i;
+			Thread writer = new Thread(() -> drain(index), "db-write-behind-" + i);
+			writer.setDaemon(true);
+			lanes.add(new ArrayBlockingQueue<>(Math.max(1, capacity)));
+			overflows.add(new ArrayDeque<>());
+			writers.add(writer);
+			writer.start();
+		}
+	}
+
+	/**
+	 * Stops accepting new writes, waits for writers to flush pending writes
+	 */
+	@PreDestroy
+	public void stop() {
+		running = false;
+		long deadline = System.currentTimeMillis() + shutdownTimeout;
+		for(Thread writer: writers) {
+			try {
+				writer.join(Math.max(1, deadline - System.currentTimeMillis()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		int pending = getPendingWrites();
+		if(pending > 0)
+			log.log(Level.SEVERE, () -> pending + " write behind executors (" + parkedWrites.get() 
+					+ " parked after failures) could not be flushed before shutdown");
+	}
+
+	/**
+	 * Queues entity save
+	 *
+	 * @param orderingKey writes with same key are executed in submission order
+	 * @param entity
+	 * @param repository
+	 */
+	public <T, R extends BaseRepository<T, ?>> void submit(Object orderingKey, T entity, R repository) {
+		submit(orderingKey, new DBAsyncExecutor<>(entity, repository));
+	}
+
+	/**
+	 * Queues entities save
+	 *
+	 * @param orderingKey writes with same key are executed in submission order
+	 * @param entities
+	 * @param repository
+	 */
+	public <T, R extends BaseRepository<T, ?>> void submit(Object orderingKey, List<T> entities, R repository) {
+		submit(orderingKey, new DBAsyncExecutor<>(entities, repository));
+	}
+
+	/**
+	 * Waits till writes queued so far are written, a barrier is queued on every lane and passed once writes ahead of it are written
+	 *
+	 * @param timeout in millis
+	 * @return true if writes queued so far were written and no write is parked (always when disabled, writes are synchronous then)
+	 */
+	public boolean flush(long timeout) {
+		if(!enabled)
+			return true;
+		CountDownLatch barrier = new CountDownLatch(running ? lanes.size() : 0);
+		try {
+			long deadline = System.currentTimeMillis() + timeout;
+			for(int i = 0; i < lanes.size(); i++) {
+				if(!running)
+					return false;
+				enqueue(i, new Write(barrier));
+			}
+			return barrier.await(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS) && parkedWrites.get() == 0;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Waits till no lane overflows, so that a burst of writes can be taken by lanes without overflowing
+	 *
+	 * @param timeout in millis
+	 * @return true if no lane overflows (always when not running)
+	 */
+	public boolean awaitCapacity(long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		for(Deque<Write> overflow: overflows) {
+			if(!awaitDrained(overflow, deadline))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Number of writes queued but not yet picked by writers or parked after failures
+	 *
+	 * @return pending writes
+	 */
+	public int getPendingWrites() {
+		return lanes.stream().mapToInt(BlockingQueue::size).sum() + overflowWrites.get() + parkedWrites.get();
+	}
+
+	/**
+	 * Number of writes parked after failures, waiting for replay
+	 *
+	 * @return parked writes
+	 */
+	public int getParkedWrites() {
+		return parkedWrites.get();
+	}
+
+	private void submit(Object orderingKey, DBAsyncExecutor<?, ?> executor) {
+		if(!running) {
+			executor.run();
+			return;
+		}
+		int hash = Objects.hashCode(orderingKey);
+		int index = Math.floorMod(hash ^ (hash >>> 16), lanes.size());
+		if(enqueue(index, new Write(orderingKey, executor)) && !BranchMailbox.isOnLoop())
+			awaitDrained(overflows.get(index), Long.MAX_VALUE);
+	}
+
+	/**
+	 * Queues write on lane, or on lane's overflow if lane is full or already overflows (never blocks)
+	 *
+	 * @param index of lane
+	 * @param write
+	 * @return true if write overflowed
+	 */
+	private boolean enqueue(int index, Write write) {
+		Deque<Write> overflow = overflows.get(index);
+		synchronized(overflow) {
+			if(overflow.isEmpty() && lanes.get(index).offer(write))
+				return false;
+			overflow.add(write);
+			overflowWrites.incrementAndGet();
+			return true;
+		}
+	}
+
+	/**
+	 * Waits till overflow is drained into its lane, interrupted thread stops waiting (its write is queued already)
+	 *
+	 * @param overflow
+	 * @param deadline in epoch millis
+	 * @return true if overflow was drained or executor stopped
+	 */
+	private boolean awaitDrained(Deque<Write> overflow, long deadline) {
+		synchronized(overflow) {
+			while(running && !overflow.isEmpty()) {
+				long wait = deadline - System.currentTimeMillis();
+				if(wait <= 0)
+					return false;
+				try {
+					overflow.wait(Math.min(wait, 100));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Moves overflowing writes into lane as long as it has room, waiters are notified once overflow is drained
+	 *
+	 * @param index of lane
+	 */
+	private void refill(int index) {
+		Deque<Write> overflow = overflows.get(index);
+		synchronized(overflow) {
+			if(overflow.isEmpty())
+				return;
+			while(!overflow.isEmpty() && lanes.get(index).offer(overflow.peek())) {
+				overflow.poll();
+				overflowWrites.decrementAndGet();
+			}
+			if(overflow.isEmpty())
+				overflow.notifyAll();
+		}
+	}
+
+	/**
+	 * Writer loop, runs till executor is stopped and its lane & overflow are empty
+	 * Parked writes are lane local (only touched by lane writer), mapped against ordering key in parking order
+	 *
+	 * @param index of lane
+	 */
+	private void drain(int index) {
+		BlockingQueue<Write> lane = lanes.get(index);
+		Map<Object, Deque<Write>> parked = new LinkedHashMap<>();
+		List<Write> batch = new ArrayList<>(Math.max(1, batchSize));
+		long nextReplay = System.currentTimeMillis() + replayInterval;
+		while(running || !lane.isEmpty() || hasOverflow(index)) {
+			try {
+				if(!parked.isEmpty() && System.currentTimeMillis() >= nextReplay) {
+					replay(parked);
+					nextReplay = System.currentTimeMillis() + replayInterval;
+				}
+				refill(index);
+				Write first = lane.poll(100, TimeUnit.MILLISECONDS);
+				if(Objects.isNull(first))
+					continue;
+				batch.add(first);
+				lane.drainTo(batch, Math.max(0, batchSize - 1));
+				refill(index);
+				List<Write> barriers = batch.stream().filter(write -> !Objects.isNull(write.barrier)).collect(Collectors.toList());
+				batch.removeAll(barriers);
+				if(!batch.isEmpty())
+					write(batch, parked);
+				barriers.forEach(write -> write.barrier.countDown());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} finally {
+				batch.clear();
+			}
+		}
+		replay(parked);
+	}
+
+	private boolean hasOverflow(int index) {
+		Deque<Write> overflow = overflows.get(index);
+		synchronized(overflow) {
+			return !overflow.isEmpty();
+		}
+	}
+
+	/**
+	 * Saves batch in one transaction, retrying on failure
+	 * after retries are exhausted executors are written one by one, failing ones are parked
+	 * writes for a parked ordering key are parked behind it without being tried
+	 *
+	 * @param batch
+	 * @param parked
+	 * @throws InterruptedException
+	 */
+	private void write(List<Write> batch, Map<Object, Deque<Write>> parked) throws InterruptedException {
+		if(!parked.isEmpty()) {
+			for(Iterator<Write> iterator = batch.iterator(); iterator.hasNext(); ) {
+				Write write = iterator.next();
+				Deque<Write> queue = parked.get(write.orderingKey);
+				if(!Objects.isNull(queue)) {
+					queue.add(write);
+					parkedWrites.incrementAndGet();
+					iterator.remove();
+				}
+			}
+			if(batch.isEmpty())
+				return;
+		}
+		for(int attempt = 0; ; attempt++) {
+			try {
+				transactionTemplate.execute(status -> {
+					batch.forEach(write -> write.executor.save());
+					return null;
+				});
+				return;
+			} catch (RuntimeException e) {
+				if(attempt >= maxRetries) {
+					log.log(Level.WARNING, "Write behind batch failed after retries, writing individually", e);
+					break;
+				}
+				TimeUnit.MILLISECONDS.sleep(retryDelay * (attempt + 1));
+			}
+		}
+		for(Write write: batch) {
+			Deque<Write> queue = parked.get(write.orderingKey);
+			if(Objects.isNull(queue) && writeAlone(write))
+				continue;
+			parked.computeIfAbsent(write.orderingKey, key -> new ArrayDeque<>()).add(write);
+			parkedWrites.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Retries parked writes in parking order, an ordering key stays parked from its first failing write
+	 *
+	 * @param parked
+	 */
+	private void replay(Map<Object, Deque<Write>> parked) {
+		for(Iterator<Deque<Write>> iterator = parked.values().iterator(); iterator.hasNext(); ) {
+			Deque<Write> queue = iterator.next();
+			while(!queue.isEmpty() && writeAlone(queue.peek())) {
+				queue.poll();
+				parkedWrites.decrementAndGet();
+			}
+			if(queue.isEmpty())
+				iterator.remove();
+		}
+		if(!parked.isEmpty())
+			log.log(Level.WARNING, () -> "Write behind executors of " + parked.size() + " ordering keys are parked, retrying in " + replayInterval + " ms");
+	}
+
+	/**
+	 * Saves a single executor in its own transaction
+	 *
+	 * @param write
+	 * @return whether it was saved
+	 */
+	private boolean writeAlone(Write write) {
+		try {
+			transactionTemplate.execute(status -> {
+				write.executor.run();
+				return null;
+			});
+			return true;
+		} catch (RuntimeException e) {
+			log.log(Level.SEVERE, "Write behind executor failed, parked for replay", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Queued executor along with its ordering key, or a flush barrier
+	 */
+	private static class Write {
+
+		private final Object orderingKey;
+
+		private final DBAsyncExecutor<?, ?> executor;
+
+		private final CountDownLatch barrier;
+
+		private Write(Object orderingKey, DBAsyncExecutor<?, ?> executor) {
+			this.orderingKey = orderingKey;
+			this.executor = executor;
+			this.barrier = null;
+		}
+
+		private Write(CountDownLatch barrier) {
+			this.orderingKey = null;
+			this.executor = null;
+			this.barrier = barrier;
+		}
+	}
+}
@@ -0,0 +1,245 @@
+package com.turvo.abcbanking.utils;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.turvo.abcbanking.exception.BusinessRuntimeException;
+import com.turvo.abcbanking.model.IdGenerator;
+import com.turvo.abcbanking.repository.IdGeneratorRepository;
+
+/**
+ * In process id allocator handing out ids from blocks reserved in ID_GENERATOR table
+ *
+ * A block is reserved in its own transaction by locking generator row and moving its value ahead by block size,
+ * so multiple application instances never hand out the same id. Ids within a block are handed out from memory.
+ * Blocks are reserved ahead on a background thread whenever fewer than low water mark ids are left (in current & 
+ * reserved blocks), and generators can be prefetched at start up, so callers (e.g. branch mailbox loops) don't wait 
+ * on DB. A caller only waits for a reservation when ids run out faster than blocks are reserved, and reserves on its 
+ * own thread only if background reservation failed.
+ * If generator row doesn't exist it is inserted starting after max id of its entity, an instance losing the race
+ * to insert it (unique key violation) retries and reserves from the row inserted by the other one.
+ * DB failures reach callers as BusinessRuntimeException.
+ *
+ * @author Prabal Ghura
+ *
+ */
+@Component
+public class IdBlockAllocator {
+
+	public static final String TOKEN = "TOKEN";
+
+	public static final String TOKEN_WORKFLOW = "TOKEN_WORKFLOW";
+
+	private static final Logger log = Logger.getLogger(IdBlockAllocator.class.getName());
+
+	/**
+	 * Query for first id of a generator row being created, mapped against generator name
+	 */
+	private static final Map<String, String> INITIAL_VALUE_QUERIES = new HashMap<>();
+
+	static {
+		INITIAL_VALUE_QUERIES.put(TOKEN, CustomQueries.TOKEN_INITIAL_ID);
+		INITIAL_VALUE_QUERIES.put(TOKEN_WORKFLOW, CustomQueries.TOKEN_WORKFLOW_INITIAL_ID);
+	}
+
+	/**
+	 * Attempts to reserve a block, a generator row inserted concurrently by another instance needs one more
+	 */
+	private static final int MAX_ATTEMPTS = 3;
+
+	@Autowired
+	IdGeneratorRepository idGeneratorRepository;
+
+	@Autowired
+	PlatformTransactionManager transactionManager;
+
+	@PersistenceContext
+	EntityManager entityManager;
+
+	@Value("${abcbanking.id.block-size:100}")
+	int blockSize;
+
+	/**
+	 * Ids left (current & reserved blocks) below which next block is reserved in background, 0 reserves on calling thread
+	 */
+	@Value("${abcbanking.id.low-water-mark:100}")
+	int lowWaterMark;
+
+	private TransactionTemplate transactionTemplate;
+
+	private ExecutorService prefetchExecutor;
+
+	private final Map<String, IdBlock> blocks = new ConcurrentHashMap<>();
+
+	/**
+	 * Range of reserved ids for a generator, [next, limit) is yet to be handed out, followed by blocks reserved ahead
+	 */
+	private final class IdBlock {
+		private final String name;
+		private long next;
+		private long limit;
+		private final Deque<long[]> reserved = new ArrayDeque<>();
+		private long reservedIds;
+		private boolean reserving;
+
+		private IdBlock(String name) {
+			this.name = name;
+		}
+
+		private synchronized long next() {
+			while(next >= limit) {
+				if(!reserved.isEmpty()) {
+					long[] block = reserved.poll();
+					reservedIds -= block[1] - block[0];
+					next = block[0];
+					limit = block[1];
+				} else if(!reserving) {
+					long[] block = reserve(name);
+					next = block[0];
+					limit = block[1];
+				} else {
+					awaitReservation();
+				}
+			}
+			long id = next++;
+			refill();
+			return id;
+		}
+
+		/**
+		 * Starts a background reservation if fewer than low water mark ids are left and none is in flight
+		 */
+		private synchronized void refill() {
+			if(reserving || (limit - next) + reservedIds >= lowWaterMark)
+				return;
+			reserving = true;
+			try {
+				CompletableFuture.supplyAsync(() -> reserve(name), prefetchExecutor).whenComplete(this::reserved);
+			} catch (RejectedExecutionException e) {
+				reserving = false;
+			}
+		}
+
+		/**
+		 * Background reservation outcome, a reserved block is queued and refill continues till low water mark is reached
+		 */
+		private synchronized void reserved(long[] block, Throwable failure) {
+			reserving = false;
+			if(Objects.isNull(failure)) {
+				reserved.add(block);
+				reservedIds += block[1] - block[0];
+				refill();
+			}
+			notifyAll();
+		}
+
+		private void awaitReservation() {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for id block of generator " + name, e);
+			}
+		}
+	}
+
+	@PostConstruct
+	public void init() {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+		transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		prefetchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "id-block-prefetch");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	public void destroy() {
+		prefetchExecutor.shutdownNow();
+	}
+
+	/**
+	 * Hands out next id for passed generator
+	 *
+	 * @param name generator name
+	 * @return unique id
+	 */
+	public long next(String name) {
+		if(!INITIAL_VALUE_QUERIES.containsKey(name))
+			throw new BusinessRuntimeException(ApplicationConstants.ERR_ID_GENERATOR_NOT_EXIST);
+		return blocks.computeIfAbsent(name, IdBlock::new).next();
+	}
+
+	/**
+	 * Reserves blocks of passed generator in background up to low water mark, so that first ids are not reserved on caller
+	 *
+	 * @param name generator name
+	 */
+	public void prefetch(String name) {
+		if(!INITIAL_VALUE_QUERIES.containsKey(name))
+			throw new BusinessRuntimeException(ApplicationConstants.ERR_ID_GENERATOR_NOT_EXIST);
+		blocks.computeIfAbsent(name, IdBlock::new).refill();
+	}
+
+	/**
+	 * Reserves next block of ids in a new transaction
+	 *
+	 * @param name
+	 * @return first id & limit (exclusive) of reserved block
+	 */
+	private long[] reserve(String name) {
+		final int size = Math.max(1, blockSize);
+		for(int attempt = 1; ; attempt++) {
+			try {
+				return transactionTemplate.execute(status -> {
+					IdGenerator generator = idGeneratorRepository.findForUpdate(name);
+					if(Objects.isNull(generator))
+						generator = new IdGenerator(name, ((Number) entityManager
+								.createQuery(INITIAL_VALUE_QUERIES.get(name)).getSingleResult()).longValue());
+					long start = generator.getValue();
+					generator.setValue(start + size);
+					idGeneratorRepository.saveAndFlush(generator);
+					return new long[] {start, start + size};
+				});
+			} catch (DataIntegrityViolationException e) {
+				// generator row was inserted by another instance, next attempt finds & locks it
+				if(attempt >= MAX_ATTEMPTS)
+					throw reserveFailed(name, e);
+			} catch (DataAccessException | TransactionException | PersistenceException e) {
+				throw reserveFailed(name, e);
+			}
+		}
+	}
+
+	private static BusinessRuntimeException reserveFailed(String name, RuntimeException e) {
+		log.log(Level.SEVERE, e, () -> "Id block of generator " + name + " could not be reserved");
+		return new BusinessRuntimeException(ApplicationConstants.ERR_ID_RESERVE_FAILED);
+	}
+}
@@ -0,0 +1,111 @@
+package com.turvo.abcbanking.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free, allocation free histogram of non negative durations (milliseconds)
+ *
+ * Values below 16 get a bucket each, larger values are bucketed by power of two split into 8 linear sub buckets,
+ * so a reported percentile is at most 12.5% above the recorded value. Buckets are a fixed AtomicLongArray,
+ * recording is an index computation and an atomic increment. Percentiles are computed when read.
+ *
+ * @author Prabal Ghura
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int LINEAR_BUCKETS = 16;
+
+	private static final int SUB_BUCKETS = 8;
+
+	private static final int BUCKETS = LINEAR_BUCKETS + (63 - 4) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+	private final LongAdder count = new LongAdder();
+
+	private final LongAdder sum = new LongAdder();
+
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Records a duration, negative values are recorded as 0
+	 *
+	 * @param value
+	 */
+	public void record(long value) {
+		long value1 = Math.max(0, value);
+		buckets.incrementAndGet(bucket(value1));
+		count.increment();
+		sum.add(value1);
+		max.accumulate(value1);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Value at passed percentile (upper bound of the bucket holding it)
+	 *
+	 * @param percentile between 0 and 100
+	 * @return value, 0 if nothing is recorded
+	 */
+	public long getPercentile(double percentile) {
+		long total = 0;
+		long[] counts = new long[BUCKETS];
+		for(int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if(total == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if(seen >= rank)
+				return Math.min(upperBound(i), max.get());
+		}
+		return max.get();
+	}
+
+	/**
+	 * Summary for metrics endpoint
+	 *
+	 * @return count, mean, p50, p90, p99, p999 & max
+	 */
+	public Map<String, Number> getSummary() {
+		long count1 = count.sum();
+		Map<String, Number> summary = new LinkedHashMap<>();
+		summary.put("count", count1);
+		summary.put("mean", count1 == 0 ? 0 : sum.sum() / (double) count1);
+		summary.put("p50", getPercentile(50));
+		summary.put("p90", getPercentile(90));
+		summary.put("p99", getPercentile(99));
+		summary.put("p999", getPercentile(99.9));
+		summary.put("max", max.get());
+		return summary;
+	}
+
+	private static int bucket(long value) {
+		if(value < LINEAR_BUCKETS)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+		return LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long upperBound(int bucket) {
+		if(bucket < LINEAR_BUCKETS)
+			return bucket;
+		int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+		long subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+		long width = 1L << (exponent - 3);
+		return ((SUB_BUCKETS + subBucket) * width) + width - 1;
+	}
+}
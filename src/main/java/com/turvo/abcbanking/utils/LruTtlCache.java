@@ -0,0 +1,154 @@
+package com.turvo.abcbanking.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Thread safe read through cache bounded by size and entry age
+ *
+ * Entries are kept in an access ordered LinkedHashMap, least recently used entry is evicted once size exceeds
+ * maximum size and an entry is dropped (and re-loaded) when read after its time to live. Loader is invoked
+ * outside the lock so a slow load never blocks readers of other keys, null values are not cached.
+ * Hits, misses & evictions are counted with LongAdders so that counting doesn't add contention.
+ *
+ * @author Prabal Ghura
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class LruTtlCache<K, V> {
+
+	/**
+	 * Cached value with time (System.nanoTime) after which it is stale
+	 */
+	private static final class Entry<V> {
+		private final V value;
+		private final long expiresAt;
+
+		private Entry(V value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private final int maxSize;
+
+	private final long ttlNanos;
+
+	private final Map<K, Entry<V>> entries;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param maxSize maximum number of entries (at least 1)
+	 * @param ttlMillis entry time to live, non positive value disables expiry
+	 */
+	public LruTtlCache(int maxSize, long ttlMillis) {
+		this.maxSize = Math.max(1, maxSize);
+		this.ttlNanos = ttlMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(ttlMillis) : Long.MAX_VALUE;
+		this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+				if(size() <= LruTtlCache.this.maxSize)
+					return false;
+				evictions.increment();
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Cached value for key, loaded and cached on miss
+	 *
+	 * @param key
+	 * @param loader
+	 * @return value, null if loader returned null
+	 */
+	public V get(K key, Function<? super K, ? extends V> loader) {
+		V value = getIfPresent(key);
+		if(!Objects.isNull(value)) {
+			hits.increment();
+			return value;
+		}
+		misses.increment();
+		value = loader.apply(key);
+		put(key, value);
+		return value;
+	}
+
+	/**
+	 * Caches a value (write through), null value evicts key
+	 *
+	 * @param key
+	 * @param value
+	 */
+	public void put(K key, V value) {
+		if(Objects.isNull(value)) {
+			invalidate(key);
+			return;
+		}
+		long expiresAt = ttlNanos == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + ttlNanos;
+		synchronized (entries) {
+			entries.put(key, new Entry<>(value, expiresAt));
+		}
+	}
+
+	public void invalidate(K key) {
+		synchronized (entries) {
+			entries.remove(key);
+		}
+	}
+
+	public void invalidateAll() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * Number of entries evicted for size or expiry
+	 *
+	 * @return eviction count
+	 */
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	private V getIfPresent(K key) {
+		synchronized (entries) {
+			Entry<V> entry = entries.get(key);
+			if(Objects.isNull(entry))
+				return null;
+			if(entry.expiresAt != Long.MAX_VALUE && System.nanoTime() - entry.expiresAt >= 0) {
+				entries.remove(key);
+				evictions.increment();
+				return null;
+			}
+			return entry.value;
+		}
+	}
+}
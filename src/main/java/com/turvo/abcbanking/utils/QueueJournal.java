@@ -0,0 +1,483 @@
+package com.turvo.abcbanking.utils;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.turvo.abcbanking.model.Branch;
+import com.turvo.abcbanking.model.Counter;
+import com.turvo.abcbanking.model.QueueEvent;
+import com.turvo.abcbanking.model.Token;
+
+/**
+ * Memory mapped, append only journal of counter queue changes, so that queue order survives a restart (ordering only)
+ *
+ * DB keeps which counter a token waits at but not its position, journal keeps the order: every queue event
+ * (add, pull, remove, move) is appended as a fixed size record to a mapped segment file (a store into page cache,
+ * flushed to disk periodically on journal thread). Appending never does I/O nor waits for compaction.
+ * Segment is compacted periodically and in background once it is three quarters full: current queues of
+ * cached branches are written as add records into a fresh segment which atomically replaces the old one.
+ * Events appended while a compaction runs are also kept in memory and re-applied to the fresh segment
+ * (a full segment only takes them in memory till it is replaced). Replaying a record twice leaves the same order,
+ * so compaction needs no coordination with queue mutations.
+ *
+ * At start up the segment is replayed and counters loaded from DB get their tokens in journal order, tokens the
+ * journal doesn't know are queued after in DB order. Journal holds token numbers only, so token rows are still
+ * read from DB (TOKEN_FOR_COUNTER / bulk open token query), it restores order but doesn't make recovery faster
+ * (cache snapshot does). Replayed order of branches not cached yet survives compaction. Order of adds to the same
+ * counter racing on different threads is the order they reach the journal (exact when branch mutations are
+ * serialized by BranchMailbox).
+ *
+ * @author Prabal Ghura
+ *
+ */
+@Component
+public class QueueJournal {
+
+	private static final Logger log = Logger.getLogger(QueueJournal.class.getName());
+
+	private static final String FILE_NAME = "queue.journal";
+
+	private static final int MAGIC = 0x514A4E31;
+
+	private static final int HEADER_SIZE = 8;
+
+	/**
+	 * type (int, written last so a zero marks end of journal), branch id (long), counter, from counter & token (int)
+	 */
+	private static final int RECORD_SIZE = 24;
+
+	private static final int ADDED = 1;
+
+	private static final int PULLED = 2;
+
+	private static final int REMOVED = 3;
+
+	private static final int MOVED = 4;
+
+	private static final int NONE = Integer.MIN_VALUE;
+
+	/**
+	 * Background compaction is requested once this share of segment is used
+	 */
+	private static final double COMPACT_THRESHOLD = 0.75;
+
+	@Value("${abcbanking.journal.enabled:false}")
+	boolean enabled;
+
+	@Value("${abcbanking.journal.directory:journal}")
+	String directory;
+
+	@Value("${abcbanking.journal.segment-size:16777216}")
+	int segmentSize;
+
+	@Value("${abcbanking.journal.compact-interval-ms:60000}")
+	long compactInterval;
+
+	@Value("${abcbanking.journal.force-interval-ms:1000}")
+	long forceInterval;
+
+	private Path file;
+
+	private FileChannel channel;
+
+	private volatile MappedByteBuffer buffer;
+
+	private Supplier<Collection<Branch>> source;
+
+	/**
+	 * Queue order replayed at start up (branch id -> counter number -> token numbers) of branches not cached yet,
+	 * branches are dropped from it by compaction once cached
+	 */
+	private volatile Map<Long, Map<Integer, Collection<Integer>>> recovered;
+
+	/**
+	 * Records appended since a compaction was requested, re-applied to the fresh segment (guarded by this)
+	 */
+	private List<int[]> backlog;
+
+	/**
+	 * Records kept only in backlog as current segment is full, later records follow them there to keep order (guarded by this)
+	 */
+	private int unwritten;
+
+	/**
+	 * Serializes compactions, appends only synchronize on journal itself
+	 */
+	private final Object compactionLock = new Object();
+
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * Replays existing journal and starts a fresh segment holding the replayed queues
+	 */
+	@PostConstruct
+	public synchronized void start() {
+		if(!enabled)
+			return;
+		try {
+			file = Paths.get(directory).toAbsolutePath().resolve(FILE_NAME);
+			Files.createDirectories(file.getParent());
+			recovered = replay(file);
+			writeSegment(recovered);
+		} catch (IOException e) {
+			throw new IllegalStateException("Queue journal " + file + " could not be opened", e);
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "queue-journal");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(this::force, forceInterval, forceInterval, TimeUnit.MILLISECONDS);
+		scheduler.scheduleWithFixedDelay(this::compact, compactInterval, compactInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Compacts journal one last time and flushes it to disk
+	 */
+	@PreDestroy
+	public void stop() {
+		if(Objects.isNull(buffer))
+			return;
+		// a running compaction is let to finish, interrupting it would close its channels
+		scheduler.shutdown();
+		try {
+			scheduler.awaitTermination(compactInterval, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		boolean compacted;
+		do {
+			compacted = compact();
+		} while(compacted && hasBacklog());
+		force();
+		synchronized(this) {
+			closeChannel();
+			buffer = null;
+			recovered = null;
+		}
+	}
+
+	private synchronized boolean hasBacklog() {
+		return !Objects.isNull(buffer) && !Objects.isNull(backlog);
+	}
+
+	/**
+	 * Sets where compaction reads current queues from (cached branches)
+	 *
+	 * @param source
+	 */
+	public void setSource(Supplier<Collection<Branch>> source) {
+		this.source = source;
+	}
+
+	/**
+	 * Appends a queue event, compaction is requested in background once segment is three quarters full
+	 *
+	 * @param event
+	 */
+	public synchronized void append(QueueEvent event) {
+		if(Objects.isNull(buffer) || Objects.isNull(event.getTokenNumber()))
+			return;
+		int type = typeOf(event);
+		if(type == 0)
+			return;
+		int counterNumber = Objects.isNull(event.getCounterNumber()) ? NONE : event.getCounterNumber();
+		int fromCounterNumber = Objects.isNull(event.getFromCounterNumber()) ? NONE : event.getFromCounterNumber();
+		if(unwritten == 0 && buffer.remaining() >= RECORD_SIZE)
+			putRecord(buffer, type, event.getBranchId(), counterNumber, fromCounterNumber, event.getTokenNumber());
+		else
+			unwritten++;
+		if(!Objects.isNull(backlog)) {
+			backlog.add(new int[] {type, (int) (event.getBranchId() >>> 32), event.getBranchId().intValue(),
+					counterNumber, fromCounterNumber, event.getTokenNumber()});
+		} else if(buffer.position() >= buffer.capacity() * COMPACT_THRESHOLD) {
+			backlog = new ArrayList<>();
+			requestCompaction();
+		}
+	}
+
+	/**
+	 * Orders tokens loaded from DB for a counter as they were queued before restart,
+	 * tokens not found in journal keep their relative order after the known ones
+	 *
+	 * @param branchId
+	 * @param counterNumber
+	 * @param tokens
+	 * @return tokens in queue order
+	 */
+	public List<Token> inQueueOrder(Long branchId, Integer counterNumber, List<Token> tokens) {
+		Map<Long, Map<Integer, Collection<Integer>>> recovered1 = recovered;
+		if(Objects.isNull(recovered1) || tokens.size() < 2)
+			return tokens;
+		Collection<Integer> order = recovered1.getOrDefault(branchId, Collections.emptyMap()).get(counterNumber);
+		if(Objects.isNull(order))
+			return tokens;
+		Map<Integer, Integer> positions = new HashMap<>();
+		for(Integer tokenNumber: order)
+			positions.put(tokenNumber, positions.size());
+		List<Token> ordered = new ArrayList<>(tokens);
+		ordered.sort((token1, token2) -> Integer.compare(
+				positions.getOrDefault(token1.getNumber(), Integer.MAX_VALUE),
+				positions.getOrDefault(token2.getNumber(), Integer.MAX_VALUE)));
+		return ordered;
+	}
+
+	/**
+	 * Rewrites journal as the current queues of cached branches, replayed order is kept only for branches not cached yet.
+	 * Until cached branches are available journal is compacted by replaying itself.
+	 * Fresh segment is written without holding appends, events appended meanwhile are re-applied to it when it is swapped in.
+	 * 
+	 * @return false if compaction failed, appended events are then kept in memory for next compaction
+	 */
+	public boolean compact() {
+		synchronized(compactionLock) {
+			synchronized(this) {
+				if(Objects.isNull(buffer))
+					return false;
+				if(Objects.isNull(backlog))
+					backlog = new ArrayList<>();
+			}
+			try {
+				Map<Long, Map<Integer, Collection<Integer>>> pending = new HashMap<>();
+				Map<Long, Map<Integer, Collection<Integer>>> queues;
+				if(Objects.isNull(source)) {
+					queues = replay(file);
+					List<int[]> appended;
+					synchronized(this) {
+						appended = new ArrayList<>(backlog);
+					}
+					for(int[] record: appended)
+						apply(queues, record[0], toBranchId(record), record[3], record[4], record[5]);
+				} else {
+					queues = currentQueues();
+					Map<Long, Map<Integer, Collection<Integer>>> recovered1 = recovered;
+					if(!Objects.isNull(recovered1)) {
+						recovered1.forEach((branchId, counters) -> {
+							if(!queues.containsKey(branchId))
+								pending.put(branchId, counters);
+						});
+					}
+					queues.putAll(pending);
+				}
+				writeSegment(queues);
+				if(!Objects.isNull(source))
+					recovered = pending.isEmpty() ? null : pending;
+				return true;
+			} catch (IOException e) {
+				int kept;
+				synchronized(this) {
+					kept = backlog.size();
+				}
+				log.log(Level.SEVERE, e, () -> "Queue journal compaction failed, " + kept + " appended records kept in memory");
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Flushes appended records to disk
+	 */
+	public void force() {
+		MappedByteBuffer buffer1 = buffer;
+		if(!Objects.isNull(buffer1))
+			buffer1.force();
+	}
+
+	/**
+	 * Writes passed queues as add records to a new segment and swaps it in place of current one,
+	 * records appended meanwhile (backlog) are re-applied to new segment while appends are held
+	 */
+	private void writeSegment(Map<Long, Map<Integer, Collection<Integer>>> queues) throws IOException {
+		long records;
+		synchronized(this) {
+			records = Objects.isNull(backlog) ? 0 : backlog.size();
+		}
+		for(Map<Integer, Collection<Integer>> counters: queues.values()) {
+			for(Collection<Integer> tokenNumbers: counters.values())
+				records += tokenNumbers.size();
+		}
+		long size = Math.max(HEADER_SIZE + RECORD_SIZE, segmentSize);
+		while(size < HEADER_SIZE + 2 * records * RECORD_SIZE)
+			size *= 2;
+		if(size > Integer.MAX_VALUE)
+			throw new IOException("Queue journal segment can not hold " + records + " queued tokens");
+
+		Path next = file.resolveSibling(FILE_NAME + ".next");
+		FileChannel nextChannel = FileChannel.open(next, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		MappedByteBuffer nextBuffer;
+		try {
+			nextBuffer = nextChannel.map(MapMode.READ_WRITE, 0, size);
+			nextBuffer.putInt(MAGIC);
+			nextBuffer.putInt(RECORD_SIZE);
+			for(Map.Entry<Long, Map<Integer, Collection<Integer>>> branch: queues.entrySet()) {
+				for(Map.Entry<Integer, Collection<Integer>> counter: branch.getValue().entrySet()) {
+					for(Integer tokenNumber: counter.getValue())
+						putRecord(nextBuffer, ADDED, branch.getKey(), counter.getKey(), NONE, tokenNumber);
+				}
+			}
+			nextBuffer.force();
+			Files.move(next, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			nextChannel.close();
+			throw e;
+		}
+		synchronized(this) {
+			int applied = 0;
+			if(!Objects.isNull(backlog)) {
+				while(applied < backlog.size() && nextBuffer.remaining() >= RECORD_SIZE) {
+					int[] record = backlog.get(applied++);
+					putRecord(nextBuffer, record[0], toBranchId(record), record[3], record[4], record[5]);
+				}
+				// records not fitting stay in memory for another compaction, later ones queue up behind them
+				backlog = applied == backlog.size() ? null : new ArrayList<>(backlog.subList(applied, backlog.size()));
+			}
+			closeChannel();
+			channel = nextChannel;
+			buffer = nextBuffer;
+			unwritten = Objects.isNull(backlog) ? 0 : backlog.size();
+			if(!Objects.isNull(backlog))
+				requestCompaction();
+		}
+	}
+
+	/**
+	 * Runs a compaction on journal thread, on shutdown last compaction is run by stop
+	 */
+	private void requestCompaction() {
+		if(!Objects.isNull(scheduler) && !scheduler.isShutdown())
+			scheduler.execute(this::compact);
+	}
+
+	/**
+	 * Token numbers queued at counters of cached branches
+	 */
+	private Map<Long, Map<Integer, Collection<Integer>>> currentQueues() {
+		Map<Long, Map<Integer, Collection<Integer>>> queues = new HashMap<>();
+		for(Branch branch: source.get()) {
+			Map<Integer, Collection<Integer>> counters = new HashMap<>();
+			List<Counter> counterList = branch.getRegularCounters();
+			counterList.addAll(branch.getPremiumCounters());
+			for(Counter counter: counterList) {
+				List<Integer> tokenNumbers = new ArrayList<>();
+				for(Token token: counter.getTokens()) {
+					if(!Objects.isNull(token.getNumber()))
+						tokenNumbers.add(token.getNumber());
+				}
+				counters.put(counter.getNumber(), tokenNumbers);
+			}
+			queues.put(branch.getId(), counters);
+		}
+		return queues;
+	}
+
+	private void closeChannel() {
+		if(Objects.isNull(channel))
+			return;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Queue journal segment could not be closed", e);
+		}
+	}
+
+	/**
+	 * Type is written after the payload, a record with type set is complete
+	 */
+	private static void putRecord(MappedByteBuffer buffer, int type, long branchId, int counterNumber,
+			int fromCounterNumber, int tokenNumber) {
+		int position = buffer.position();
+		buffer.putLong(position + 4, branchId);
+		buffer.putInt(position + 12, counterNumber);
+		buffer.putInt(position + 16, fromCounterNumber);
+		buffer.putInt(position + 20, tokenNumber);
+		buffer.putInt(position, type);
+		buffer.position(position + RECORD_SIZE);
+	}
+
+	/**
+	 * Replays journal file into queue order per branch & counter
+	 */
+	private static Map<Long, Map<Integer, Collection<Integer>>> replay(Path file) throws IOException {
+		Map<Long, Map<Integer, Collection<Integer>>> queues = new HashMap<>();
+		if(!Files.exists(file))
+			return queues;
+		try(FileChannel readChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer readBuffer = readChannel.map(MapMode.READ_ONLY, 0, readChannel.size());
+			if(readBuffer.remaining() < HEADER_SIZE || readBuffer.getInt() != MAGIC || readBuffer.getInt() != RECORD_SIZE) {
+				log.log(Level.WARNING, () -> "Ignoring " + file + ", it is not a queue journal");
+				return queues;
+			}
+			while(readBuffer.remaining() >= RECORD_SIZE) {
+				int position = readBuffer.position();
+				int type = readBuffer.getInt(position);
+				if(type == 0)
+					break;
+				apply(queues, type, readBuffer.getLong(position + 4), readBuffer.getInt(position + 12),
+						readBuffer.getInt(position + 16), readBuffer.getInt(position + 20));
+				readBuffer.position(position + RECORD_SIZE);
+			}
+		}
+		return queues;
+	}
+
+	private static void apply(Map<Long, Map<Integer, Collection<Integer>>> queues, int type, long branchId,
+			int counterNumber, int fromCounterNumber, Integer tokenNumber) {
+		Map<Integer, Collection<Integer>> counters = queues.computeIfAbsent(branchId, id -> new HashMap<>());
+		if(type == MOVED && fromCounterNumber != NONE)
+			counters.getOrDefault(fromCounterNumber, Collections.emptySet()).remove(tokenNumber);
+		if(type == ADDED || type == MOVED)
+			counters.computeIfAbsent(counterNumber, number -> new LinkedHashSet<>()).add(tokenNumber);
+		else
+			counters.getOrDefault(counterNumber, Collections.emptySet()).remove(tokenNumber);
+	}
+
+	/**
+	 * Branch id of a backlog record, kept as two ints
+	 */
+	private static long toBranchId(int[] record) {
+		return ((long) record[1] << 32) | (record[2] & 0xFFFFFFFFL);
+	}
+
+	private static int typeOf(QueueEvent event) {
+		switch(event.getType()) {
+		case ADDED:
+			return ADDED;
+		case PULLED:
+			return PULLED;
+		case REMOVED:
+			return REMOVED;
+		case MOVED:
+			return MOVED;
+		default:
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package com.turvo.abcbanking.utils;
+
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntPredicate;
+
+import com.turvo.abcbanking.exception.BusinessRuntimeException;
+
+/**
+ * Lock free branch specific token number generator
+ *
+ * Numbers are issued with a CAS loop on an AtomicInteger so token creation in a branch never blocks on a monitor.
+ * Optionally numbering wraps around to 1 after a maximum number and/or restarts from 1 on the first token of a new day.
+ * Generator is seeded from max pending token number in DB when branch is loaded.
+ * After a wraparound or reset lower numbers may still be held by queued tokens, such numbers are skipped.
+ *
+ * @author Prabal Ghura
+ *
+ */
+public class TokenNumberGenerator {
+
+	private final AtomicInteger lastNumber = new AtomicInteger();
+
+	/**
+	 * Epoch day on which last number was issued, used for daily reset
+	 */
+	private final AtomicLong lastIssueDay = new AtomicLong(LocalDate.now().toEpochDay());
+
+	/**
+	 * Number after which numbering wraps around to 1
+	 */
+	private volatile int maxNumber = Integer.MAX_VALUE;
+
+	private volatile boolean dailyReset = false;
+
+	/**
+	 * Seeds generator, next issued number will be seed + 1
+	 *
+	 * @param seed
+	 */
+	public void seed(int seed) {
+		lastNumber.set(seed);
+		lastIssueDay.set(LocalDate.now().toEpochDay());
+	}
+
+	/**
+	 * @param maxNumber wraparound limit, non positive value disables wraparound
+	 */
+	public void setMaxNumber(int maxNumber) {
+		this.maxNumber = maxNumber > 0 ? maxNumber : Integer.MAX_VALUE;
+	}
+
+	public void setDailyReset(boolean dailyReset) {
+		this.dailyReset = dailyReset;
+	}
+
+	/**
+	 * Issues next token number
+	 *
+	 * @return token number
+	 */
+	public int next() {
+		return next(number -> false);
+	}
+
+	/**
+	 * Issues next token number not in use
+	 *
+	 * @param inUse tells whether a number is still held by a queued token
+	 * @return token number
+	 */
+	public int next(IntPredicate inUse) {
+		if(dailyReset)
+			resetIfNewDay();
+		final int max = maxNumber;
+		for(int attempt = 0; attempt < max; attempt++) {
+			int number = lastNumber.updateAndGet(last -> last >= max ? 1 : last + 1);
+			if(!inUse.test(number))
+				return number;
+		}
+		throw new BusinessRuntimeException(ApplicationConstants.ERR_TOKEN_NUMBER_EXHAUSTED);
+	}
+
+	/**
+	 * Last issued number (without issuing a new one)
+	 *
+	 * @return last number
+	 */
+	public int current() {
+		return lastNumber.get();
+	}
+
+	/**
+	 * First caller on a new day resets numbering, others continue with reset sequence
+	 */
+	private void resetIfNewDay() {
+		long today = LocalDate.now().toEpochDay();
+		long lastDay = lastIssueDay.get();
+		if(lastDay != today && lastIssueDay.compareAndSet(lastDay, today))
+			lastNumber.set(0);
+	}
+}
@@ -0,0 +1,246 @@
+package com.turvo.abcbanking.utils;
+
+import java.lang.reflect.Array;
+import java.util.AbstractQueue;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+import com.turvo.abcbanking.model.Token;
+
+/**
+ * Thread safe FIFO queue of tokens backing a counter
+ *
+ * Tokens are kept in a doubly linked list and indexed by their display number, so that
+ * offer, poll, lookup & removal of a token (even from middle of the queue) are constant time operations.
+ * Size is maintained on every operation instead of being computed by traversal, it is written under lock
+ * but published through a volatile field so that readers (like best counter search) never contend for the lock.
+ *
+ * Iteration works on a snapshot of the queue taken at the time iterator is created (like ConcurrentLinkedQueue
+ * it never throws ConcurrentModificationException).
+ *
+ * @author Prabal Ghura
+ *
+ */
+public class TokenQueue extends AbstractQueue<Token> {
+
+	/**
+	 * Linked list node holding a queued token
+	 */
+	private static final class Node {
+		private final Token token;
+		private Node previous;
+		private Node next;
+
+		private Node(Token token) {
+			this.token = token;
+		}
+	}
+
+	private Node head;
+
+	private Node tail;
+
+	/**
+	 * Queue depth, only modified while holding the lock
+	 */
+	private volatile int size;
+
+	/**
+	 * Token number mapped against list node, tokens without number are queued but not indexed
+	 */
+	private final Map<Integer, Node> index = new HashMap<>();
+
+	/**
+	 * Adds a token to the queue tail
+	 *
+	 * @throws IllegalArgumentException if a token with same number is already queued (index holds one node per number)
+	 */
+	@Override
+	public synchronized boolean offer(Token token) {
+		Objects.requireNonNull(token);
+		if(!Objects.isNull(token.getNumber()) && index.containsKey(token.getNumber()))
+			throw new IllegalArgumentException("Token number " + token.getNumber() + " is already queued");
+		Node node = new Node(token);
+		if(Objects.isNull(tail)) {
+			head = node;
+		} else {
+			tail.next = node;
+			node.previous = tail;
+		}
+		tail = node;
+		size++;
+		if(!Objects.isNull(token.getNumber()))
+			index.put(token.getNumber(), node);
+		return true;
+	}
+
+	/**
+	 * Retrieves and removes the token at queue head
+	 */
+	@Override
+	public synchronized Token poll() {
+		if(Objects.isNull(head))
+			return null;
+		Node node = head;
+		unlink(node);
+		return node.token;
+	}
+
+	@Override
+	public synchronized Token peek() {
+		return Objects.isNull(head) ? null : head.token;
+	}
+
+	/**
+	 * Lock free read of current queue depth
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Retrieves but does not remove a token by its number
+	 *
+	 * @param tokenNumber
+	 * @return token if queued null otherwise
+	 */
+	public synchronized Token get(Integer tokenNumber) {
+		if(Objects.isNull(tokenNumber))
+			return null;
+		Node node = index.get(tokenNumber);
+		return Objects.isNull(node) ? null : node.token;
+	}
+
+	/**
+	 * Removes a token by its number
+	 *
+	 * @param tokenNumber
+	 * @return removed token if it was queued null otherwise
+	 */
+	public synchronized Token removeByNumber(Integer tokenNumber) {
+		if(Objects.isNull(tokenNumber))
+			return null;
+		Node node = index.get(tokenNumber);
+		if(Objects.isNull(node))
+			return null;
+		unlink(node);
+		return node.token;
+	}
+
+	/**
+	 * Removes passed token instance from queue, indexed tokens are removed in constant time
+	 * tokens without a number fall back to traversal
+	 */
+	@Override
+	public synchronized boolean remove(Object o) {
+		if(!(o instanceof Token))
+			return false;
+		Token token = (Token) o;
+		Node node = Objects.isNull(token.getNumber()) ? null : index.get(token.getNumber());
+		if(Objects.isNull(node) || node.token != token) {
+			node = head;
+			while(!Objects.isNull(node) && node.token != token)
+				node = node.next;
+		}
+		if(Objects.isNull(node))
+			return false;
+		unlink(node);
+		return true;
+	}
+
+	@Override
+	public synchronized boolean contains(Object o) {
+		if(!(o instanceof Token))
+			return false;
+		Token token = (Token) o;
+		for(Node node = head; !Objects.isNull(node); node = node.next) {
+			if(node.token == token)
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public synchronized void clear() {
+		head = null;
+		tail = null;
+		size = 0;
+		index.clear();
+	}
+
+	/**
+	 * Iterator over a snapshot of queued tokens in FIFO order
+	 */
+	@Override
+	public Iterator<Token> iterator() {
+		final Token[] snapshot = toArray(new Token[0]);
+		return new Iterator<Token>() {
+			private int cursor = 0;
+			private Token lastReturned;
+
+			@Override
+			public boolean hasNext() {
+				return cursor < snapshot.length;
+			}
+
+			@Override
+			public Token next() {
+				if(cursor >= snapshot.length)
+					throw new NoSuchElementException();
+				lastReturned = snapshot[cursor++];
+				return lastReturned;
+			}
+
+			@Override
+			public void remove() {
+				if(Objects.isNull(lastReturned))
+					throw new IllegalStateException();
+				TokenQueue.this.remove(lastReturned);
+				lastReturned = null;
+			}
+		};
+	}
+
+	@Override
+	public synchronized Object[] toArray() {
+		return toArray(new Token[0]);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public synchronized <T> T[] toArray(T[] a) {
+		T[] result = a.length >= size ? a : (T[]) Array.newInstance(a.getClass().getComponentType(), size);
+		int i = 0;
+		for(Node node = head; !Objects.isNull(node); node = node.next)
+			result[i++] = (T) node.token;
+		if(result.length > size)
+			result[size] = null;
+		return result;
+	}
+
+	/**
+	 * Unlinks a node from list and index, caller must hold the lock
+	 *
+	 * @param node
+	 */
+	private void unlink(Node node) {
+		if(Objects.isNull(node.previous))
+			head = node.next;
+		else
+			node.previous.next = node.next;
+		if(Objects.isNull(node.next))
+			tail = node.previous;
+		else
+			node.next.previous = node.previous;
+		node.previous = null;
+		node.next = null;
+		size--;
+		Integer tokenNumber = node.token.getNumber();
+		if(!Objects.isNull(tokenNumber))
+			index.remove(tokenNumber, node);
+	}
+}
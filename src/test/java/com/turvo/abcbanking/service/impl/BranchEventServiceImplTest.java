@@ -0,0 +1,237 @@
+package com.turvo.abcbanking.service.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter.DataWithMediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.turvo.abcbanking.exception.BusinessRuntimeException;
+import com.turvo.abcbanking.model.Branch;
+import com.turvo.abcbanking.model.Counter;
+import com.turvo.abcbanking.model.CustomerType;
+import com.turvo.abcbanking.model.QueueEvent;
+import com.turvo.abcbanking.model.QueueEventType;
+import com.turvo.abcbanking.model.Token;
+import com.turvo.abcbanking.service.BranchEventService;
+import com.turvo.abcbanking.service.BranchService;
+import com.turvo.abcbanking.utils.ApplicationConstants;
+
+/**
+ * Test class for Branch event service
+ * 
+ * @author Prabal Ghura
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class BranchEventServiceImplTest {
+
+	@Autowired
+	BranchEventService branchEventService;
+	
+	@MockBean
+	BranchService branchService;
+	
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+	
+	// These are configurable settings
+	
+	// stubbedBranchId & nonExistingBranchId should be mutually exclusive
+	Long stubbedBranchId = 1L;
+	Long nonExistingBranchId = 2L;
+	
+	// stubbedCounterNumber & nextCounterNumber should be distinct
+	Integer stubbedCounterNumber = 1;
+	Integer nextCounterNumber = 2;
+	
+	int subscriberBuffer = 4;
+	int publishedEvents = 20;
+	
+	Branch branch;
+	
+	private Counter createCounter(Integer number) {
+		Counter counter = new Counter();
+		counter.setBranchId(stubbedBranchId);
+		counter.setNumber(number);
+		counter.setServicingType(CustomerType.REGULAR);
+		return counter;
+	}
+	
+	/**
+	 * Stubbing all dependencies at one place
+	 */
+	@Before
+	public final void stubDependencies() {
+		branch = new Branch();
+		branch.setId(stubbedBranchId);
+		branch.updateCounter(createCounter(stubbedCounterNumber));
+		branch.updateCounter(createCounter(nextCounterNumber));
+		branch.setQueueListener(branchEventService::publish);
+		
+		Mockito.when(branchService.getBranch(stubbedBranchId)).thenReturn(branch);
+		Mockito.when(branchService.getCachedBranch(stubbedBranchId)).thenReturn(branch);
+	}
+	
+	private List<QueueEvent> await(DeferredResult<List<QueueEvent>> result) throws InterruptedException {
+		for(int i = 0; i < 500 && !result.hasResult(); i++)
+			Thread.sleep(10);
+		Assert.assertTrue("Poll should be completed by published event", result.hasResult());
+		@SuppressWarnings("unchecked")
+		List<QueueEvent> events = (List<QueueEvent>) result.getResult();
+		return events;
+	}
+	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.BranchEventServiceImpl#poll(java.lang.Long, java.lang.Long)}.
+	 * RESYNC is built from cached branch, branch is only looked up (and possibly loaded) before channel lock is taken
+	 */
+	@Test
+	public final void testPoll_ResyncFromCache() throws InterruptedException {
+		List<QueueEvent> events = await(branchEventService.poll(stubbedBranchId, null));
+		Assert.assertEquals(QueueEventType.RESYNC, events.get(0).getType());
+		Assert.assertEquals("RESYNC should carry cached branch version", branch.getVersion(), events.get(0).getVersion());
+		Mockito.verify(branchService, Mockito.times(1)).getBranch(stubbedBranchId);
+		Mockito.verify(branchService, Mockito.times(1)).getCachedBranch(stubbedBranchId);
+	}
+	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.BranchEventServiceImpl#poll(java.lang.Long, java.lang.Long)}.
+	 */
+	@Test
+	public final void testPoll_QueueChanges() throws InterruptedException {
+		List<QueueEvent> events = await(branchEventService.poll(stubbedBranchId, null));
+		Assert.assertEquals("Fresh subscriber should be asked to resync", QueueEventType.RESYNC, events.get(0).getType());
+		long sequence = events.get(0).getSequence();
+		
+		DeferredResult<List<QueueEvent>> result = branchEventService.poll(stubbedBranchId, sequence);
+		Assert.assertFalse("Poll should wait while branch queues are unchanged", result.hasResult());
+		Token token = new Token();
+		token.setNumber(1);
+		branch.getCounter(stubbedCounterNumber).addToken(token);
+		events = await(result);
+		Assert.assertEquals("Added token should be pushed", QueueEventType.ADDED, events.get(0).getType());
+		Assert.assertEquals("Event should carry token number", token.getNumber(), events.get(0).getTokenNumber());
+		Assert.assertEquals("Events should be numbered consecutively", sequence + 1, events.get(0).getSequence().longValue());
+		Assert.assertEquals("Event should carry branch version", branch.getVersion(), events.get(0).getVersion());
+		
+		branch.getCounter(stubbedCounterNumber).pullToken();
+		branch.getCounter(nextCounterNumber).addToken(token);
+		events = await(branchEventService.poll(stubbedBranchId, sequence + 1));
+		Assert.assertEquals("Pulled token should be pushed", QueueEventType.PULLED, events.get(0).getType());
+		events = await(branchEventService.poll(stubbedBranchId, sequence + 2));
+		Assert.assertEquals("Token added after service at another counter should be pushed as moved", 
+				QueueEventType.MOVED, events.get(0).getType());
+		Assert.assertEquals("Moved event should carry source counter", stubbedCounterNumber, events.get(0).getFromCounterNumber());
+		Assert.assertEquals("Moved event should carry target counter", nextCounterNumber, events.get(0).getCounterNumber());
+	}
+	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.BranchEventServiceImpl#poll(java.lang.Long, java.lang.Long)}.
+	 */
+	@Test
+	public final void testPoll_NonExistingBranch() {
+		exception.expect(BusinessRuntimeException.class);
+		exception.expectMessage(ApplicationConstants.ERR_BRANCH_NOT_EXIST);
+		branchEventService.poll(nonExistingBranchId, null);
+	}
+	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.BranchEventServiceImpl#subscribe(java.lang.Long, java.lang.Long)}.
+	 * A stream blocked on send neither holds up other subscribers nor buffers without bound, it gets RESYNC instead
+	 * 
+	 * @throws InterruptedException
+	 */
+	@Test
+	public final void testSubscribe_SlowSubscriber() throws InterruptedException {
+		Object target = AopTestUtils.getTargetObject(branchEventService);
+		ReflectionTestUtils.setField(target, "subscriberBuffer", subscriberBuffer);
+		try {
+			await(branchEventService.poll(stubbedBranchId, null));
+			Object channel = ((Map<?, ?>) ReflectionTestUtils.getField(target, "channels")).get(stubbedBranchId);
+			CountDownLatch release = new CountDownLatch(1);
+			RecordingEmitter slow = new RecordingEmitter(release);
+			RecordingEmitter fast = new RecordingEmitter(null);
+			ReflectionTestUtils.invokeMethod(channel, "subscribe", slow, null);
+			ReflectionTestUtils.invokeMethod(channel, "subscribe", fast, null);
+			
+			for(int number = 1; number <= publishedEvents; number++) {
+				Token token = new Token();
+				token.setNumber(number);
+				branch.getCounter(stubbedCounterNumber).addToken(token);
+				for(int i = 0; i < 500 && fast.events.size() < number + 1; i++)
+					TimeUnit.MILLISECONDS.sleep(10);
+			}
+			Assert.assertTrue("Fast subscriber should get every event while another one is blocked", 
+					fast.events.size() == publishedEvents + 1);
+			
+			release.countDown();
+			for(int i = 0; i < 500 && !slow.last().equals(fast.last()); i++)
+				TimeUnit.MILLISECONDS.sleep(10);
+			Assert.assertEquals("Slow subscriber should catch up with last event", fast.last(), slow.last());
+			Assert.assertTrue("Slow subscriber should be sent RESYNC in place of its overflowed buffer", 
+					slow.events.get(1).contains(QueueEventType.RESYNC.name()));
+			Assert.assertTrue("Slow subscriber should not be sent more than its buffer", 
+					slow.events.size() <= subscriberBuffer + 1);
+		} finally {
+			ReflectionTestUtils.setField(target, "subscriberBuffer", 256);
+		}
+	}
+	
+	/**
+	 * Emitter recording sent events, optionally blocking its first send till released
+	 */
+	private static class RecordingEmitter extends SseEmitter {
+		
+		final List<String> events = Collections.synchronizedList(new ArrayList<>());
+		
+		private CountDownLatch release;
+		
+		RecordingEmitter(CountDownLatch release) {
+			this.release = release;
+		}
+		
+		@Override
+		public void send(SseEventBuilder builder) throws IOException {
+			if(release != null) {
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				release = null;
+			}
+			StringBuilder event = new StringBuilder();
+			for(DataWithMediaType data: builder.build())
+				event.append(data.getData());
+			events.add(event.toString());
+		}
+		
+		String last() {
+			synchronized(events) {
+				return events.isEmpty() ? "" : events.get(events.size() - 1);
+			}
+		}
+	}
+}
+
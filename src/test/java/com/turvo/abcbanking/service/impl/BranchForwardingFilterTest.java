@@ -0,0 +1,170 @@
+package com.turvo.abcbanking.service.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.turvo.abcbanking.utils.BranchForwardingFilter;
+import com.turvo.abcbanking.utils.BranchSharding;
+import com.turvo.abcbanking.utils.ClusterClient;
+
+/**
+ * Test class for branch forwarding filter, other member is a stub node
+ *
+ * @author Prabal Ghura
+ *
+ */
+public class BranchForwardingFilterTest {
+
+	BranchForwardingFilter filter;
+
+	BranchSharding branchSharding;
+
+	ClusterClient clusterClient;
+
+	ClusterNodeStub otherNode;
+
+	ObjectMapper objectMapper = new ObjectMapper();
+
+	// These are configurable settings
+
+	String self = "http://node-a";
+	String localBranches = "[{\"id\":3},{\"id\":1}]";
+	String localTag = "\"local-1\"";
+	String otherBranches = "[{\"id\":2}]";
+
+	@Before
+	public final void createFilter() throws IOException {
+		otherNode = new ClusterNodeStub();
+		otherNode.answer(otherBranches, "\"other-1\"");
+
+		branchSharding = new BranchSharding();
+		ReflectionTestUtils.setField(branchSharding, "self", self);
+		ReflectionTestUtils.setField(branchSharding, "virtualNodes", 16);
+		branchSharding.setMembership(Arrays.asList(self, otherNode.getUrl()));
+
+		clusterClient = new ClusterClient();
+		ReflectionTestUtils.setField(clusterClient, "branchSharding", branchSharding);
+		ReflectionTestUtils.setField(clusterClient, "connectTimeout", 1000);
+		ReflectionTestUtils.setField(clusterClient, "requestTimeout", 1000);
+		clusterClient.start();
+
+		filter = new BranchForwardingFilter();
+		ReflectionTestUtils.setField(filter, "branchSharding", branchSharding);
+		ReflectionTestUtils.setField(filter, "clusterClient", clusterClient);
+		ReflectionTestUtils.setField(filter, "objectMapper", objectMapper);
+	}
+
+	@After
+	public final void stopOtherNode() {
+		clusterClient.stop();
+		otherNode.close();
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.BranchForwardingFilter#doFilter(javax.servlet.ServletRequest, javax.servlet.ServletResponse, javax.servlet.FilterChain)}.
+	 * Branch list holds branches of every member ordered by id
+	 */
+	@Test
+	public final void testListBranches_Merged() throws Exception {
+		MockHttpServletResponse response = listBranches(null);
+		Assert.assertEquals(200, response.getStatus());
+		Assert.assertEquals("Branches of all members should be listed in id order", Arrays.asList(1L, 2L, 3L), getIds(response));
+		Assert.assertNotNull("Merged list should be tagged", response.getHeader("ETag"));
+		Assert.assertNotEquals("Local tag should not be sent for merged list", localTag, response.getHeader("ETag"));
+		Assert.assertTrue("Other member should be asked for its own branches only",
+				otherNode.getRequests().contains("GET /api/branches"));
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.BranchForwardingFilter#doFilter(javax.servlet.ServletRequest, javax.servlet.ServletResponse, javax.servlet.FilterChain)}.
+	 * Not modified is sent only while no member's branches changed
+	 */
+	@Test
+	public final void testListBranches_NotModified() throws Exception {
+		String tag = listBranches(null).getHeader("ETag");
+		Assert.assertEquals("Unchanged list should not be sent again", 304, listBranches(tag).getStatus());
+
+		otherNode.answer("[{\"id\":2},{\"id\":4}]", "\"other-2\"");
+		MockHttpServletResponse response = listBranches(tag);
+		Assert.assertEquals("Change on other member should be sent", 200, response.getStatus());
+		Assert.assertEquals(Arrays.asList(1L, 2L, 3L, 4L), getIds(response));
+		Assert.assertNotEquals(tag, response.getHeader("ETag"));
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.BranchForwardingFilter#doFilter(javax.servlet.ServletRequest, javax.servlet.ServletResponse, javax.servlet.FilterChain)}.
+	 */
+	@Test
+	public final void testListBranches_MemberUnreachable() throws Exception {
+		otherNode.close();
+		Assert.assertEquals("Partial list should not be sent", 503, listBranches(null).getStatus());
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.BranchForwardingFilter#doFilter(javax.servlet.ServletRequest, javax.servlet.ServletResponse, javax.servlet.FilterChain)}.
+	 * List asked by another member holds local branches only
+	 */
+	@Test
+	public final void testListBranches_Forwarded() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/branches");
+		request.addHeader(BranchForwardingFilter.FORWARDED_HEADER, otherNode.getUrl());
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		filter.doFilter(request, response, new MockFilterChain(new LocalBranchesServlet()));
+		Assert.assertEquals(Arrays.asList(3L, 1L), getIds(response));
+		Assert.assertEquals(localTag, response.getHeader("ETag"));
+		Assert.assertTrue("Other member should not be asked", otherNode.getRequests().isEmpty());
+	}
+
+	private MockHttpServletResponse listBranches(String ifNoneMatch) throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/branches");
+		if(ifNoneMatch != null)
+			request.addHeader("If-None-Match", ifNoneMatch);
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		filter.doFilter(request, response, new MockFilterChain(new LocalBranchesServlet()));
+		return response;
+	}
+
+	private List<Long> getIds(MockHttpServletResponse response) throws IOException {
+		List<Long> ids = new ArrayList<>();
+		for(JsonNode branch: objectMapper.readTree(response.getContentAsByteArray()))
+			ids.add(branch.path("id").asLong());
+		return ids;
+	}
+
+	/**
+	 * Renders local branches the way controller does (tagged, 304 if request is conditional)
+	 */
+	private class LocalBranchesServlet extends HttpServlet {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+			if(localTag.equals(request.getHeader("If-None-Match"))) {
+				response.setStatus(304);
+				return;
+			}
+			response.setHeader("ETag", localTag);
+			response.setContentType("application/json");
+			response.getWriter().write(localBranches);
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package com.turvo.abcbanking.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.turvo.abcbanking.exception.BusinessRuntimeException;
+import com.turvo.abcbanking.utils.ApplicationConstants;
+import com.turvo.abcbanking.utils.BranchMailbox;
+import com.turvo.abcbanking.utils.DBWriteBehindExecutor;
+
+/**
+ * Test class for branch mailbox
+ *
+ * @author Prabal Ghura
+ *
+ */
+public class BranchMailboxTest {
+
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	BranchMailbox branchMailbox;
+
+	ExecutorService callers;
+
+	// These are configurable settings
+
+	Long branchId = 1L;
+	int callerCount = 4;
+	int mutationsPerCaller = 200;
+	long submitTimeout = 300;
+
+	/**
+	 * Mailbox with a single loop, so every branch shares it
+	 */
+	@Before
+	public final void createMailbox() {
+		branchMailbox = new BranchMailbox();
+		ReflectionTestUtils.setField(branchMailbox, "enabled", true);
+		ReflectionTestUtils.setField(branchMailbox, "loopCount", 1);
+		ReflectionTestUtils.setField(branchMailbox, "capacity", 1000);
+		ReflectionTestUtils.setField(branchMailbox, "submitTimeout", submitTimeout);
+		ReflectionTestUtils.setField(branchMailbox, "shutdownTimeout", 5000L);
+		ReflectionTestUtils.setField(branchMailbox, "dbWriteBehindExecutor", new DBWriteBehindExecutor());
+		branchMailbox.start();
+		callers = Executors.newFixedThreadPool(callerCount);
+	}
+
+	@After
+	public final void stopMailbox() {
+		callers.shutdownNow();
+		branchMailbox.stop();
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.BranchMailbox#execute(java.lang.Long, java.util.function.Supplier)}.
+	 * Mutations of a branch never overlap and mutations of a caller run in its submission order
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public final void testExecute_SingleWriterInOrder() throws Exception {
+		AtomicInteger running = new AtomicInteger();
+		AtomicBoolean overlapped = new AtomicBoolean();
+		List<String> executed = Collections.synchronizedList(new ArrayList<>());
+		List<Future<?>> results = new ArrayList<>();
+		for(int i = 0; i < callerCount; i++) {
+			int caller = i;
+			results.add(callers.submit(() -> {
+				for(int j = 0; j < mutationsPerCaller; j++) {
+					int mutation = j;
+					branchMailbox.execute(branchId, () -> {
+						if(running.incrementAndGet() > 1)
+							overlapped.set(true);
+						executed.add(caller + ":" + mutation);
+						running.decrementAndGet();
+					});
+				}
+			}));
+		}
+		for(Future<?> result: results)
+			result.get();
+		Assert.assertFalse("Mutations of a branch should not overlap", overlapped.get());
+		Assert.assertTrue(executed.size() == callerCount * mutationsPerCaller);
+		for(int i = 0; i < callerCount; i++) {
+			String prefix = i + ":";
+			int last = -1;
+			for(String mutation: executed) {
+				if(!mutation.startsWith(prefix))
+					continue;
+				int number = Integer.parseInt(mutation.substring(prefix.length()));
+				Assert.assertTrue("Mutations of a caller should run in submission order", number == last + 1);
+				last = number;
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.BranchMailbox#execute(java.lang.Long, java.util.function.Supplier)}.
+	 * Mutation submitted from a loop runs inline instead of waiting on its own loop, exceptions reach caller as is
+	 */
+	@Test
+	public final void testExecute_NestedRunsInline() {
+		String result = branchMailbox.execute(branchId, () -> {
+			String thread = Thread.currentThread().getName();
+			return branchMailbox.execute(branchId + 1, () -> Thread.currentThread().getName().equals(thread) ? "inline" : "queued");
+		});
+		Assert.assertEquals("Nested mutation should run inline", "inline", result);
+
+		exception.expect(BusinessRuntimeException.class);
+		exception.expectMessage(ApplicationConstants.ERR_BRANCH_NOT_EXIST);
+		branchMailbox.execute(branchId, () -> {
+			throw new BusinessRuntimeException(ApplicationConstants.ERR_BRANCH_NOT_EXIST);
+		});
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.BranchMailbox#execute(java.lang.Long, java.util.function.Supplier)}.
+	 * Mutation not picked by its loop within submit timeout is rejected and never executed
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public final void testExecute_RejectedAfterSubmitTimeout() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		Future<?> blocking = callers.submit(() -> branchMailbox.execute(branchId, () -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}));
+		TimeUnit.MILLISECONDS.sleep(50);
+		AtomicBoolean executed = new AtomicBoolean();
+		try {
+			branchMailbox.execute(branchId, () -> executed.set(true));
+			Assert.fail("Mutation waiting beyond submit timeout should be rejected");
+		} catch (BusinessRuntimeException e) {
+			Assert.assertEquals(ApplicationConstants.ERR_MAILBOX_TIMEOUT, e.getMessage());
+		}
+		release.countDown();
+		blocking.get();
+		branchMailbox.execute(branchId, () -> {});
+		Assert.assertFalse("Rejected mutation should never be executed", executed.get());
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.BranchMailbox#stop()}.
+	 * Mutations queued before stop are executed, new ones are rejected
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public final void testStop_DrainsThenRejects() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger executed = new AtomicInteger();
+		Future<?> first = callers.submit(() -> branchMailbox.execute(branchId, () -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			executed.incrementAndGet();
+		}));
+		TimeUnit.MILLISECONDS.sleep(50);
+		Future<?> second = callers.submit(() -> branchMailbox.execute(branchId, () -> {
+			executed.incrementAndGet();
+		}));
+		TimeUnit.MILLISECONDS.sleep(50);
+		Thread stopping = new Thread(branchMailbox::stop);
+		stopping.start();
+		TimeUnit.MILLISECONDS.sleep(50);
+		release.countDown();
+		stopping.join();
+		first.get();
+		second.get();
+		Assert.assertTrue("Mutations queued before stop should be executed", executed.get() == 2);
+
+		exception.expect(BusinessRuntimeException.class);
+		exception.expectMessage(ApplicationConstants.ERR_MAILBOX_STOPPED);
+		branchMailbox.execute(branchId, () -> {});
+	}
+}
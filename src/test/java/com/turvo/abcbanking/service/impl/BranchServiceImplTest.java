@@ -1,11 +1,27 @@
 package com.turvo.abcbanking.service.impl;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 
 import org.junit.Assert;
@@ -20,6 +36,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import com.turvo.abcbanking.exception.BusinessRuntimeException;
 import com.turvo.abcbanking.model.Branch;
@@ -28,14 +46,21 @@ import com.turvo.abcbanking.model.CustomerType;
 import com.turvo.abcbanking.model.Service;
 import com.turvo.abcbanking.model.ServiceStep;
 import com.turvo.abcbanking.model.Token;
+import com.turvo.abcbanking.model.TokenStatus;
+import com.turvo.abcbanking.model.TokenWorkflow;
+import com.turvo.abcbanking.model.TokenWorklowStatus;
 import com.turvo.abcbanking.model.User;
 import com.turvo.abcbanking.repository.BranchRepository;
 import com.turvo.abcbanking.repository.ServiceRepository;
+import com.turvo.abcbanking.repository.TokenRepository;
 import com.turvo.abcbanking.service.BranchService;
 import com.turvo.abcbanking.service.CounterService;
 import com.turvo.abcbanking.service.RoleService;
 import com.turvo.abcbanking.service.UserService;
 import com.turvo.abcbanking.utils.ApplicationConstants;
+import com.turvo.abcbanking.utils.BranchCacheSnapshot;
+import com.turvo.abcbanking.utils.BranchSharding;
+import com.turvo.abcbanking.utils.DBWriteBehindExecutor;
 
 /**
  * Test class for Branch service
@@ -50,6 +75,15 @@ public class BranchServiceImplTest {
 	@Autowired
 	BranchService branchService;
 	
+	@Autowired
+	BranchSharding branchSharding;
+	
+	@Autowired
+	BranchCacheSnapshot branchCacheSnapshot;
+	
+	@Autowired
+	DBWriteBehindExecutor dbWriteBehindExecutor;
+	
 	@MockBean
 	BranchRepository branchRepository;
 	
@@ -65,6 +99,9 @@ public class BranchServiceImplTest {
 	@MockBean
 	ServiceRepository serviceRepository;
 	
+	@MockBean
+	TokenRepository tokenRepository;
+	
 	@Rule
 	public ExpectedException exception = ExpectedException.none();
 	
@@ -135,6 +172,9 @@ public class BranchServiceImplTest {
 		Mockito.when(branchRepository.findAll()).thenReturn(Arrays.asList(branch));
 		Mockito.when(branchRepository.findOne(stubbedBranchId)).thenReturn(branch);
 		Mockito.when(counterService.getBranchCountersFromDB(stubbedBranchId)).thenReturn(counters);
+		Map<Long, List<Counter>> branchCounters = new HashMap<>();
+		branchCounters.put(stubbedBranchId, counters);
+		Mockito.when(counterService.getAllCountersFromDB()).thenReturn(branchCounters);
 		Mockito.when(userService.getUser(existingUserId)).thenReturn(new User());
 		Mockito.when(roleService.checkAccessForUser(existingUserId, ApplicationConstants.ROLE_MANAGER)).thenReturn(true);
 		Mockito.when(roleService.checkAccessForUser(userWithAccess, ApplicationConstants.ROLE_ADD_NEW_BRANCH)).thenReturn(true);
@@ -169,6 +209,33 @@ public class BranchServiceImplTest {
 				.allMatch(counter1 -> counter1.getSteps().stream().anyMatch(step -> step.getId() == commonStepId)));
 	}
 
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.BranchServiceImpl#getBranch(java.lang.Long)}.
+	 */
+	@Test
+	public final void testGetBranch_Sharded() {
+		Object target = AopTestUtils.getTargetObject(branchService);
+		ReflectionTestUtils.setField(target, "handoffTimeout", 300L);
+		ReflectionTestUtils.setField(branchSharding, "self", "http://node-a");
+		try {
+			branchSharding.setMembership(Arrays.asList("http://node-b"));
+			Assert.assertNull("Branch owned by another node should be dropped from cache", branchService.getBranch(stubbedBranchId));
+			Assert.assertTrue("Branch owned by another node should not be loaded", branchService.getAllBranches().isEmpty());
+			
+			branchSharding.setMembership(Arrays.asList("http://node-a/"));
+			long time = System.currentTimeMillis();
+			Branch branch = branchService.getBranch(stubbedBranchId);
+			Assert.assertTrue("Branch taken over should be loaded after hand over time", System.currentTimeMillis() - time >= 250);
+			Assert.assertNotNull("Owned branch should be loaded on first access", branch);
+			Assert.assertTrue("Loaded branch should be cached", branch == branchService.getBranch(stubbedBranchId));
+			Assert.assertNull("Non Existing Branch should not be retrieved", branchService.getBranch(nonExistingBranchId));
+		} finally {
+			ReflectionTestUtils.setField(branchSharding, "self", "");
+			branchSharding.setMembership(new ArrayList<>());
+			ReflectionTestUtils.setField(target, "handoffTimeout", 30000L);
+		}
+	}
+	
 	/**
 	 * Test method for {@link com.turvo.abcbanking.service.impl.BranchServiceImpl#createNewBranch(java.lang.String, com.turvo.abcbanking.model.Branch)}.
 	 */
@@ -290,6 +357,70 @@ public class BranchServiceImplTest {
 		branchService.updateBranch(existingUserId, stubbedBranchId);
 	}
 	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.BranchServiceImpl#updateBranch(java.lang.String, java.lang.Long)}.
+	 */
+	@Test
+	public final void testUpdateBranch_CarriesOverQueues() {
+		Integer counterNumber = stubbedRegularCounterNumbers.get(0);
+		Branch previous = branchService.getBranch(stubbedBranchId);
+		Token token = new Token();
+		token.setNumber(1);
+		previous.getCounter(counterNumber).addToken(token);
+		
+		// Mocking fresh DB instances of branch & counters (without the in memory token)
+		Branch branch = new Branch();
+		branch.setId(stubbedBranchId);
+		branch.setManagerId(stubbedBranchManagerId);
+		List<Counter> counters = new ArrayList<>();
+		counters.add(createCounter(counterNumber, CustomerType.REGULAR, commonStepId));
+		Mockito.when(branchRepository.findOne(stubbedBranchId)).thenReturn(branch);
+		Mockito.when(counterService.getBranchCountersFromDB(stubbedBranchId)).thenReturn(counters);
+		
+		branch = branchService.updateBranch(stubbedBranchManagerId, stubbedBranchId);
+		Assert.assertTrue("Refreshed branch should be published in cache", branch == branchService.getBranch(stubbedBranchId));
+		Assert.assertTrue("Refreshed counter should carry over queued token", branch.getCounter(counterNumber).getTokens().contains(token));
+		Assert.assertTrue("Carried over token should be indexed in refreshed branch", branch.getTokenCounter(1) == branch.getCounter(counterNumber));
+		Assert.assertTrue("Token numbering should continue after queued token", branch.getTokenNumber() == 2);
+		
+		// Operation holding replaced counter instance should update refreshed branch
+		previous.getCounter(counterNumber).removeToken(token);
+		Assert.assertTrue("Token removed through replaced counter should leave refreshed queue", branch.getCounter(counterNumber).getTokens().isEmpty());
+		Assert.assertNull("Token removed through replaced counter should leave refreshed index", branch.getTokenCounter(1));
+	}
+	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.BranchServiceImpl#updateCounter(com.turvo.abcbanking.model.Counter)}.
+	 * Counter update reaching a replaced branch instance is applied to its replacement, replaced instance is never put back in cache
+	 */
+	@Test
+	public final void testUpdateCounter_ReplacedBranch() {
+		Integer counterNumber = stubbedRegularCounterNumbers.get(0);
+		Branch previous = branchService.getBranch(stubbedBranchId);
+		Counter previousCounter = previous.getCounter(counterNumber);
+		
+		Branch branch = new Branch();
+		branch.setId(stubbedBranchId);
+		branch.setManagerId(stubbedBranchManagerId);
+		List<Counter> counters = new ArrayList<>();
+		counters.add(createCounter(counterNumber, CustomerType.REGULAR, commonStepId));
+		Mockito.when(branchRepository.findOne(stubbedBranchId)).thenReturn(branch);
+		Mockito.when(counterService.getBranchCountersFromDB(stubbedBranchId)).thenReturn(counters);
+		branch = branchService.updateBranch(stubbedBranchManagerId, stubbedBranchId);
+		long version = branch.getVersion();
+		
+		Assert.assertTrue("Replaced branch should resolve to its replacement", previous.live() == branch);
+		Assert.assertTrue("Update through replaced branch should land in live branch", previous.updateCounter(previousCounter) == branch);
+		Assert.assertTrue("Live branch should move ahead", branch.getVersion() > version);
+		Assert.assertTrue("Live branch should keep its own counter", branch.getCounter(counterNumber) == counters.get(0));
+		Assert.assertTrue("Live counter should stay attached to live branch", 
+				branch.getLeastLoadedCounter(CustomerType.REGULAR, commonStepId) == branch.getCounter(counterNumber));
+		
+		previousCounter.setBranchId(stubbedBranchId);
+		branchService.updateCounter(previousCounter);
+		Assert.assertTrue("Replaced branch should not be put back in cache", branchService.getBranch(stubbedBranchId) == branch);
+	}
+	
 	/**
 	 * Test method for {@link com.turvo.abcbanking.service.impl.BranchServiceImpl#updateBranch(java.lang.String, java.lang.Long)}.
 	 */
@@ -490,6 +621,96 @@ public class BranchServiceImplTest {
 				.anyMatch(number -> number == counterNumber));
 	}
 	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.BranchServiceImpl#assignManager(java.lang.String, java.lang.Long, java.lang.String)}.
+	 */
+	@Test
+	public final void testAssignManager_VersionMovesAhead() {
+		Branch branch = branchService.getBranch(stubbedBranchId);
+		Counter counter = branch.getCounter(stubbedRegularCounterNumbers.get(0));
+		long version = branch.getVersion();
+		String tag = branch.getVersionTag();
+		String counterTag = counter.getVersionTag();
+		
+		branch = branchService.assignManager(userWithAccess, stubbedBranchId, existingUserId);
+		Assert.assertTrue("Manager change should move branch version ahead", branch.getVersion() > version);
+		Assert.assertNotEquals("Manager change should change branch version tag", tag, branch.getVersionTag());
+		
+		version = branch.getVersion();
+		counterTag = counter.getVersionTag();
+		Token token = new Token();
+		token.setNumber(1);
+		counter.addToken(token);
+		Assert.assertTrue("Queue change should move branch version ahead", branch.getVersion() > version);
+		Assert.assertNotEquals("Queue change should change counter version tag", counterTag, counter.getVersionTag());
+		
+		// Mocking fresh DB instance of branch, replacement instance should continue version
+		version = branch.getVersion();
+		Branch branch1 = new Branch();
+		branch1.setId(stubbedBranchId);
+		branch1.setManagerId(stubbedBranchManagerId);
+		Mockito.when(branchRepository.findOne(stubbedBranchId)).thenReturn(branch1);
+		branch1 = branchService.updateBranch(stubbedBranchManagerId, stubbedBranchId);
+		Assert.assertTrue("Refreshed branch should continue version", branch1.getVersion() > version);
+		Assert.assertNotEquals("Refreshed branch should have a new version tag", branch.getVersionTag(), branch1.getVersionTag());
+	}
+	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.BranchServiceImpl#getQueueSnapshot(java.lang.Long)}.
+	 */
+	@Test
+	public final void testGetQueueSnapshot() {
+		Integer counterNumber = stubbedRegularCounterNumbers.get(0);
+		byte[] snapshot = branchService.getQueueSnapshot(stubbedBranchId);
+		Assert.assertTrue("Unchanged branch should serve same rendered snapshot", snapshot == branchService.getQueueSnapshot(stubbedBranchId));
+		
+		Token token = new Token();
+		token.setNumber(7);
+		branchService.getBranch(stubbedBranchId).getCounter(counterNumber).addToken(token);
+		byte[] snapshot1 = branchService.getQueueSnapshot(stubbedBranchId);
+		Assert.assertFalse("Snapshot should be rendered again after queue change", snapshot == snapshot1);
+		Assert.assertTrue("Snapshot should carry head token of changed counter", 
+				new String(snapshot1).contains("\"number\":" + counterNumber + ",\"type\":\"REGULAR\",\"operator\":null,\"depth\":1,\"headToken\":7"));
+	}
+	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.BranchServiceImpl#getQueueSnapshot(java.lang.Long)}.
+	 */
+	@Test
+	public final void testGetQueueSnapshot_NonExistingBranch() {
+		exception.expect(BusinessRuntimeException.class);
+		exception.expectMessage(ApplicationConstants.ERR_BRANCH_NOT_EXIST);
+		branchService.getQueueSnapshot(nonExistingBranchId);
+	}
+	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.BranchServiceImpl#refreshService(com.turvo.abcbanking.model.Service)}.
+	 */
+	@Test
+	public final void testRefreshService() {
+		Service service = new Service();
+		service.setId(1L);
+		ServiceStep step = new ServiceStep();
+		step.setId(commonStepId);
+		service.setSteps(Arrays.asList(step));
+		
+		Branch branch = branchService.getBranch(stubbedBranchId);
+		Assert.assertTrue("Initially branch should not serve any service because we haven't stubbed any", branch.getRegularServices().isEmpty());
+		
+		branchService.refreshService(service);
+		Assert.assertTrue("Branch should be same instance after refresh", branch == branchService.getBranch(stubbedBranchId));
+		Assert.assertTrue("Branch should serve service whose steps are served by its counters", branch.getRegularServices().stream()
+				.anyMatch(service1 -> service1.getId() == 1L));
+		Assert.assertTrue("Branch should serve service for premium customers as well", branch.getPremiumServices().stream()
+				.anyMatch(service1 -> service1.getId() == 1L));
+		
+		step = new ServiceStep();
+		step.setId(nonExistingStepId);
+		service.setSteps(Arrays.asList(step));
+		branchService.refreshService(service);
+		Assert.assertTrue("Branch should not serve service whose steps are not served by its counters", branch.getRegularServices().isEmpty());
+	}
+	
 	/**
 	 * Test method for {@link com.turvo.abcbanking.service.impl.BranchServiceImpl#reloadEntireCache()}.
 	 */
@@ -499,7 +720,10 @@ public class BranchServiceImplTest {
 		this represents a change in DB which we want our cache to refresh with */
 		Service service = new Service();
 		service.setId(1L);
-		Mockito.when(serviceRepository.getServicesForBranch(stubbedBranchId, CustomerType.REGULAR)).thenReturn(Arrays.asList(service));
+		ServiceStep step = new ServiceStep();
+		step.setId(commonStepId);
+		service.setSteps(Arrays.asList(step));
+		Mockito.when(serviceRepository.getAllServicesWithSteps()).thenReturn(Arrays.asList(service));
 		
 		Branch branch = branchService.getBranch(stubbedBranchId);
 		Assert.assertTrue("Initially branch should not serve any service because we haven't stubbed any", branch.getRegularServices().isEmpty());
@@ -510,7 +734,264 @@ public class BranchServiceImplTest {
 				.anyMatch(service1 -> service1.getId() == 1L));
 		
 		// resetting cache
-		Mockito.when(serviceRepository.getServicesForBranch(stubbedBranchId, CustomerType.REGULAR)).thenReturn(new ArrayList<>());
+		Mockito.when(serviceRepository.getAllServicesWithSteps()).thenReturn(new ArrayList<>());
 		branchService.reloadEntireCache();
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.BranchServiceImpl#reloadEntireCache()}.
+	 * Token write queued for write behind is in DB before counters are loaded
+	 */
+	@Test
+	public final void testReloadEntireCache_FlushesWriteBehind() {
+		AtomicBoolean written = new AtomicBoolean();
+		AtomicBoolean loadedAfterWrite = new AtomicBoolean();
+		Map<Long, List<Counter>> branchCounters = counterService.getAllCountersFromDB();
+		Mockito.when(tokenRepository.save(anyListOf(Token.class))).thenAnswer(invocation -> {
+			TimeUnit.MILLISECONDS.sleep(200);
+			written.set(true);
+			return invocation.getArguments()[0];
+		});
+		Mockito.when(counterService.getAllCountersFromDB()).thenAnswer(invocation -> {
+			loadedAfterWrite.set(written.get());
+			return branchCounters;
+		});
+		Token token = new Token();
+		token.setId(1L);
+		token.setStatus(TokenStatus.PENDING);
+		
+		dbWriteBehindExecutor.submit(token.getId(), token, tokenRepository);
+		branchService.reloadEntireCache();
+		Assert.assertTrue("Queued token write should be flushed before counters are loaded", loadedAfterWrite.get());
+	}
+	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.BranchServiceImpl#restoreCache()}.
+	 * Branch unchanged in DB since snapshot is restored with its queued tokens & token numbering without loading it from DB
+	 * 
+	 * @throws IOException 
+	 */
+	@Test
+	public final void testRestoreCache_FromSnapshot() throws IOException {
+		Branch branch = branchService.getBranch(stubbedBranchId);
+		Counter cached = branch.getCounter(stubbedRegularCounterNumbers.get(0));
+		cached.addToken(createToken(100L, 7));
+		cached.addToken(createToken(101L, 8));
+		branch.getTokenNumber();
+		int tokenNumber = branch.getTokenNumberGenerator().current();
+		Mockito.when(tokenRepository.getPendingTokenIds()).thenReturn(Arrays.asList(100L));
+		
+		Path file = enableSnapshot();
+		try {
+			branchCacheSnapshot.write();
+			branchService.restoreCache();
+		} finally {
+			disableSnapshot(file);
+		}
+		
+		Branch restored = branchService.getBranch(stubbedBranchId);
+		Mockito.verify(counterService, Mockito.times(1)).getAllCountersFromDB();
+		Mockito.verify(counterService, Mockito.never()).getBranchCountersFromDB(stubbedBranchId);
+		Counter counter = restored.getCounter(stubbedRegularCounterNumbers.get(0));
+		Assert.assertFalse("Counter should be restored from snapshot", counter == cached);
+		Assert.assertTrue("Restored counter should keep its steps", counter.getSteps().size() == 2);
+		Token token = counter.hasToken(7);
+		Assert.assertNotNull("Pending token should be restored", token);
+		Assert.assertTrue("Restored token should keep its workflow", token.getSteps().size() == 1 
+				&& token.getSteps().get(0).getStatus() == TokenWorklowStatus.ASSIGNED);
+		Assert.assertNull("Token closed after snapshot should not be restored", counter.hasToken(8));
+		Assert.assertTrue("Token numbering should continue", restored.getTokenNumber() == tokenNumber + 1);
+	}
+	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.BranchServiceImpl#restoreCache()}.
+	 * Branch modified after snapshot is loaded from DB (all branches are, as it is the only branch)
+	 * 
+	 * @throws IOException 
+	 */
+	@Test
+	public final void testRestoreCache_ModifiedBranch() throws IOException {
+		branchService.getBranch(stubbedBranchId).getCounter(stubbedRegularCounterNumbers.get(0)).addToken(createToken(100L, 7));
+		Mockito.when(tokenRepository.getPendingTokenIds()).thenReturn(Arrays.asList(100L));
+		
+		Path file = enableSnapshot();
+		try {
+			branchCacheSnapshot.write();
+			Branch branch = new Branch();
+			branch.setId(stubbedBranchId);
+			branch.setManagerId(existingUserId);
+			branch.setModifiedDate(new Date(System.currentTimeMillis() + 60000));
+			Mockito.when(branchRepository.findAll()).thenReturn(Arrays.asList(branch));
+			branchService.restoreCache();
+		} finally {
+			disableSnapshot(file);
+		}
+		
+		Branch restored = branchService.getBranch(stubbedBranchId);
+		Mockito.verify(counterService, Mockito.times(2)).getAllCountersFromDB();
+		Assert.assertTrue("Modified branch should be loaded from DB", restored.getManagerId().equals(existingUserId));
+	}
+	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.BranchServiceImpl#restoreCache()}.
+	 * Branch which got a token issued after snapshot (only token & workflow rows inserted) is loaded from DB
+	 * (all branches are, as it is the only branch), so token numbering continues from DB
+	 * 
+	 * @throws IOException 
+	 */
+	@Test
+	public final void testRestoreCache_TokenIssuedAfterSnapshot() throws IOException {
+		Path file = enableSnapshot();
+		try {
+			branchCacheSnapshot.write();
+			Mockito.when(tokenRepository.getCounterIdsWithPendingTokensCreatedAfter(Mockito.any(Date.class)))
+					.thenReturn(Arrays.asList(stubbedRegularCounterNumbers.get(0).longValue()));
+			Mockito.when(tokenRepository.getMaxTokenNumbers()).thenReturn(Collections.singletonList(new Object[] {stubbedBranchId, 7}));
+			branchService.restoreCache();
+		} finally {
+			disableSnapshot(file);
+		}
+		
+		Mockito.verify(counterService, Mockito.times(2)).getAllCountersFromDB();
+		Assert.assertTrue("Token numbering should continue from DB", branchService.getBranch(stubbedBranchId).getTokenNumber() == 8);
+	}
+	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.BranchServiceImpl#restoreCache()}.
+	 * In lazy loading mode, concurrent first accesses & background warm up load a branch only once and never see it missing
+	 * 
+	 * @throws Exception 
+	 */
+	@Test
+	public final void testRestoreCache_Lazy() throws Exception {
+		List<Counter> counters = counterService.getAllCountersFromDB().get(stubbedBranchId);
+		Mockito.when(counterService.getBranchCountersFromDB(stubbedBranchId)).thenAnswer(invocation -> {
+			Thread.sleep(200);
+			return counters;
+		});
+		Object target = AopTestUtils.getTargetObject(branchService);
+		ReflectionTestUtils.setField(target, "lazyLoading", true);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			branchService.restoreCache();
+			List<Callable<Branch>> accesses = new ArrayList<>();
+			for(int i = 0; i < 4; i++)
+				accesses.add(() -> branchService.getBranch(stubbedBranchId));
+			List<Future<Branch>> branches = executor.invokeAll(accesses);
+			for(Future<Branch> branch: branches)
+				Assert.assertTrue("Branch should be available while it is loading", branch.get() == branches.get(0).get() 
+						&& !Objects.isNull(branch.get()));
+			for(int i = 0; i < 50 && (boolean) ReflectionTestUtils.getField(target, "warmingUp"); i++)
+				Thread.sleep(100);
+			Assert.assertFalse("Warm up should be over", (boolean) ReflectionTestUtils.getField(target, "warmingUp"));
+			Mockito.verify(counterService, Mockito.times(1)).getBranchCountersFromDB(stubbedBranchId);
+			Assert.assertNull("Non Existing Branch should not be retrieved", branchService.getBranch(nonExistingBranchId));
+		} finally {
+			executor.shutdownNow();
+			ReflectionTestUtils.setField(target, "lazyLoading", false);
+		}
+	}
+	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.BranchServiceImpl#getAllBranches()}.
+	 * Listing branches during warm up returns loaded branches without waiting for branches still loading
+	 * 
+	 * @throws Exception 
+	 */
+	@Test
+	public final void testGetAllBranches_WarmingUp() throws Exception {
+		List<Counter> counters = counterService.getAllCountersFromDB().get(stubbedBranchId);
+		Mockito.when(counterService.getBranchCountersFromDB(stubbedBranchId)).thenAnswer(invocation -> {
+			Thread.sleep(500);
+			return counters;
+		});
+		Object target = AopTestUtils.getTargetObject(branchService);
+		ReflectionTestUtils.setField(target, "lazyLoading", true);
+		try {
+			branchService.restoreCache();
+			long time = System.currentTimeMillis();
+			Assert.assertTrue("Branch still loading should not be listed", branchService.getAllBranches().isEmpty());
+			Assert.assertTrue("Listing should not wait for branches loading", System.currentTimeMillis() - time < 400);
+			for(int i = 0; i < 50 && (boolean) ReflectionTestUtils.getField(target, "warmingUp"); i++)
+				Thread.sleep(100);
+			Assert.assertTrue("Warmed up branch should be listed", branchService.getAllBranches().size() == 1);
+			Mockito.verify(counterService, Mockito.times(1)).getBranchCountersFromDB(stubbedBranchId);
+		} finally {
+			ReflectionTestUtils.setField(target, "lazyLoading", false);
+		}
+	}
+	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.BranchServiceImpl#restoreCache()}.
+	 * Warm up retries a branch failing to load, a branch still failing after retries is loaded on access once warm up is over
+	 * 
+	 * @throws Exception 
+	 */
+	@Test
+	public final void testRestoreCache_LazyLoadFailing() throws Exception {
+		List<Counter> counters = counterService.getAllCountersFromDB().get(stubbedBranchId);
+		AtomicInteger attempts = new AtomicInteger();
+		Mockito.when(counterService.getBranchCountersFromDB(stubbedBranchId)).thenAnswer(invocation -> {
+			if(attempts.incrementAndGet() <= 3)
+				throw new IllegalStateException("DB unavailable");
+			return counters;
+		});
+		Object target = AopTestUtils.getTargetObject(branchService);
+		ReflectionTestUtils.setField(target, "lazyLoading", true);
+		ReflectionTestUtils.setField(target, "warmUpRetries", 2);
+		ReflectionTestUtils.setField(target, "warmUpRetryDelay", 10L);
+		try {
+			branchService.restoreCache();
+			for(int i = 0; i < 50 && (boolean) ReflectionTestUtils.getField(target, "warmingUp"); i++)
+				Thread.sleep(100);
+			Assert.assertFalse("Warm up should be over even if a branch failed", (boolean) ReflectionTestUtils.getField(target, "warmingUp"));
+			Assert.assertTrue("Failing branch should be retried a bounded number of times", attempts.get() == 3);
+			Assert.assertNotNull("Branch left by warm up should be loaded on access", branchService.getBranch(stubbedBranchId));
+			Assert.assertNull("Non Existing Branch should not be retrieved", branchService.getBranch(nonExistingBranchId));
+		} finally {
+			ReflectionTestUtils.setField(target, "lazyLoading", false);
+			ReflectionTestUtils.setField(target, "warmUpRetries", 3);
+			ReflectionTestUtils.setField(target, "warmUpRetryDelay", 1000L);
+		}
+	}
+	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.BranchServiceImpl#getCacheStatistics()}.
+	 */
+	@Test
+	public final void testGetCacheStatistics() {
+		Map<String, Object> statistics = branchService.getCacheStatistics();
+		Assert.assertEquals("Cached branches should be counted", branchService.getCachedBranches().size(), statistics.get("size"));
+		Assert.assertEquals("Eagerly loaded cache should not be warming up", false, statistics.get("warmingUp"));
+		Assert.assertEquals(0, statistics.get("unloaded"));
+	}
+	
+	private Token createToken(Long id, Integer number) {
+		Token token = new Token();
+		token.setId(id);
+		token.setNumber(number);
+		token.setAccountNumber(1L);
+		token.setStatus(TokenStatus.PENDING);
+		token.setType(CustomerType.REGULAR);
+		TokenWorkflow step = new TokenWorkflow();
+		step.setId(id);
+		step.setTokenId(id);
+		step.setCounterId(stubbedRegularCounterNumbers.get(0).longValue());
+		step.setStepId(commonStepId);
+		step.setStatus(TokenWorklowStatus.ASSIGNED);
+		token.setSteps(new ArrayList<>(Arrays.asList(step)));
+		return token;
+	}
+	
+	private Path enableSnapshot() throws IOException {
+		Path file = Files.createTempFile("cache", ".snapshot");
+		ReflectionTestUtils.setField(branchCacheSnapshot, "enabled", true);
+		ReflectionTestUtils.setField(branchCacheSnapshot, "fileName", file.toString());
+		return file;
+	}
+	
+	private void disableSnapshot(Path file) throws IOException {
+		ReflectionTestUtils.setField(branchCacheSnapshot, "enabled", false);
+		Files.deleteIfExists(file);
+	}
+}
@@ -0,0 +1,82 @@
+package com.turvo.abcbanking.service.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Stand-in for another cluster member, records requests it receives & answers every request with configured body
+ *
+ * @author Prabal Ghura
+ *
+ */
+public class ClusterNodeStub implements AutoCloseable {
+
+	private final HttpServer server;
+
+	private final List<String> requests = new CopyOnWriteArrayList<>();
+
+	private volatile String body = "[]";
+
+	private volatile String tag;
+
+	public ClusterNodeStub() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", exchange -> {
+			String query = exchange.getRequestURI().getRawQuery();
+			requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI().getRawPath() + (Objects.isNull(query) ? "" : "?" + query));
+			byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+			if(!Objects.isNull(tag))
+				exchange.getResponseHeaders().set("ETag", tag);
+			exchange.getResponseHeaders().set("Content-Type", "application/json;charset=UTF-8");
+			exchange.sendResponseHeaders(200, bytes.length);
+			try(OutputStream out = exchange.getResponseBody()) {
+				out.write(bytes);
+			}
+		});
+		server.start();
+	}
+
+	public String getUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	public void answer(String body1, String tag1) {
+		body = body1;
+		tag = tag1;
+	}
+
+	public List<String> getRequests() {
+		return requests;
+	}
+
+	/**
+	 * Waits till passed request is received
+	 *
+	 * @param request method & path with query, e.g. POST /api/cluster/services/1/refresh
+	 * @param timeout in millis
+	 * @return true if received in time
+	 * @throws InterruptedException
+	 */
+	public boolean await(String request, long timeout) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		while(!requests.contains(request)) {
+			if(System.nanoTime() > deadline)
+				return false;
+			Thread.sleep(10);
+		}
+		return true;
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+	}
+}
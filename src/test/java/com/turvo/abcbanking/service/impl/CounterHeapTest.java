@@ -0,0 +1,163 @@
+package com.turvo.abcbanking.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.turvo.abcbanking.model.Counter;
+import com.turvo.abcbanking.model.Token;
+import com.turvo.abcbanking.utils.CounterHeap;
+
+/**
+ * Test class for counter load heap
+ *
+ * @author Prabal Ghura
+ *
+ */
+public class CounterHeapTest {
+
+	List<Counter> counters;
+
+	CounterHeap heap;
+
+	int nextTokenNumber;
+
+	// These are configurable settings
+
+	int counterCount = 7;
+	int randomOperations = 2000;
+	long seed = 42;
+
+	/**
+	 * Counters numbered 1 to counterCount, added in reverse order so that heap has to order them
+	 */
+	@Before
+	public final void createHeap() {
+		counters = new ArrayList<>();
+		for(int number = counterCount; number >= 1; number--) {
+			Counter counter = new Counter();
+			counter.setNumber(number);
+			counters.add(counter);
+		}
+		heap = new CounterHeap(counters);
+		nextTokenNumber = 1;
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.CounterHeap#peek()}.
+	 */
+	@Test
+	public final void testPeek_EmptyHeap() {
+		Assert.assertNull("Empty heap should have no least loaded counter", new CounterHeap(Collections.emptyList()).peek());
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.CounterHeap#peek()}.
+	 * Counters with equal depth are ordered by counter number
+	 */
+	@Test
+	public final void testPeek_TiesBrokenByNumber() {
+		Assert.assertTrue("Lowest numbered counter should win a tie", heap.peek().getNumber() == 1);
+		addTokens(counter(1), 1);
+		addTokens(counter(2), 1);
+		Assert.assertTrue("Lowest numbered idle counter should be least loaded", heap.peek().getNumber() == 3);
+		for(int number = 3; number <= counterCount; number++)
+			addTokens(counter(number), 1);
+		Assert.assertTrue("Lowest numbered counter should win a tie again", heap.peek().getNumber() == 1);
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.CounterHeap#update(com.turvo.abcbanking.model.Counter)}.
+	 * Counter moves down as tokens are added and back up as they are removed
+	 */
+	@Test
+	public final void testUpdate_AddAndRemove() {
+		Counter first = counter(1);
+		addTokens(first, 2);
+		Assert.assertTrue(heap.peek().getNumber() == 2);
+		for(int number = 2; number <= counterCount; number++)
+			addTokens(counter(number), 1);
+		Assert.assertTrue("Counter with fewest tokens should be least loaded", heap.peek().getNumber() == 2);
+
+		first.pullToken();
+		heap.update(first);
+		Assert.assertTrue("Counter should move up once its depth ties", heap.peek().getNumber() == 1);
+
+		Counter last = counter(counterCount);
+		last.removeToken(last.getTokens().peek());
+		heap.update(last);
+		Assert.assertTrue("Counter emptied by a removal should be least loaded", heap.peek() == last);
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.CounterHeap#update(com.turvo.abcbanking.model.Counter)}.
+	 */
+	@Test
+	public final void testUpdate_CounterNotInHeap() {
+		Counter other = new Counter();
+		other.setNumber(0);
+		heap.update(other);
+		Assert.assertTrue("Counter not in heap should be ignored", heap.peek().getNumber() == 1);
+		Assert.assertTrue(heap.size() == counterCount);
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.CounterHeap#refresh()}.
+	 * Depth changes the heap was not notified of are picked up by refresh
+	 */
+	@Test
+	public final void testRefresh() {
+		for(Counter counter: counters) {
+			if(counter.getNumber() != counterCount)
+				counter.addToken(createToken());
+		}
+		Assert.assertTrue("Heap should not see changes it was not notified of", heap.peek().getNumber() == 1);
+		heap.refresh();
+		Assert.assertTrue(heap.peek().getNumber() == counterCount);
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.CounterHeap#update(com.turvo.abcbanking.model.Counter)}.
+	 * After any sequence of adds & removals least loaded counter matches a full scan
+	 */
+	@Test
+	public final void testUpdate_MatchesScan() {
+		Random random = new Random(seed);
+		Comparator<Counter> byLoad = Comparator.comparing(Counter::getQueueDepth).thenComparing(Counter::getNumber);
+		for(int i = 0; i < randomOperations; i++) {
+			Counter counter = counters.get(random.nextInt(counters.size()));
+			if(random.nextInt(3) == 0 && counter.getQueueDepth() > 0) {
+				if(random.nextBoolean())
+					counter.pullToken();
+				else
+					counter.removeToken(counter.getTokens().toArray(new Token[0])[random.nextInt(counter.getQueueDepth())]);
+			} else {
+				counter.addToken(createToken());
+			}
+			heap.update(counter);
+			Assert.assertSame("Least loaded counter should match full scan", Collections.min(counters, byLoad), heap.peek());
+		}
+	}
+
+	private Counter counter(int number) {
+		return counters.stream().filter(counter -> counter.getNumber() == number).findFirst().get();
+	}
+
+	private void addTokens(Counter counter, int count) {
+		for(int i = 0; i < count; i++)
+			counter.addToken(createToken());
+		heap.update(counter);
+	}
+
+	private Token createToken() {
+		Token token = new Token();
+		token.setNumber(nextTokenNumber++);
+		return token;
+	}
+}
@@ -4,9 +4,16 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyString;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -22,14 +29,18 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import com.turvo.abcbanking.exception.BusinessRuntimeException;
 import com.turvo.abcbanking.model.Branch;
 import com.turvo.abcbanking.model.Counter;
 import com.turvo.abcbanking.model.CustomerType;
+import com.turvo.abcbanking.model.QueueEvent;
+import com.turvo.abcbanking.model.QueueEventType;
 import com.turvo.abcbanking.model.ServiceStep;
 import com.turvo.abcbanking.model.Token;
 import com.turvo.abcbanking.model.TokenStatus;
+import com.turvo.abcbanking.model.TokenWorkflow;
 import com.turvo.abcbanking.model.User;
 import com.turvo.abcbanking.repository.CounterRepository;
 import com.turvo.abcbanking.repository.CounterXServiceStepRepository;
@@ -41,6 +52,7 @@ import com.turvo.abcbanking.service.CounterService;
 import com.turvo.abcbanking.service.RoleService;
 import com.turvo.abcbanking.service.UserService;
 import com.turvo.abcbanking.utils.ApplicationConstants;
+import com.turvo.abcbanking.utils.QueueJournal;
 
 /**
  * Test class for Counter service
@@ -55,6 +67,9 @@ public class CounterServiceImplTest {
 	@Autowired
 	CounterService counterService;
 	
+	@Autowired
+	QueueJournal queueJournal;
+	
 	@MockBean
 	BranchService branchService;
 	
@@ -204,6 +219,167 @@ public class CounterServiceImplTest {
 		Assert.assertTrue("Retrived token should be equal to stubbed token", token.getType() == stubbedCustomerType);
 	}
 
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.CounterServiceImpl#getBranchCountersFromDB(java.lang.Long)}.
+	 * Tokens of a cached counter are not read from DB (which lags its live queue)
+	 */
+	@Test
+	public final void testGetBranchCountersFromDB_CachedCounter() {
+		Branch cached = branchService.getBranch(stubbedBranchId);
+		Counter counter = new Counter();
+		counter.setBranchId(stubbedBranchId);
+		counter.setId(stubbedCounterId);
+		counter.setNumber(stubbedCounterNumber);
+		counter.setServicingType(stubbedCustomerType);
+		Mockito.when(counterRepository.findByBranchId(stubbedBranchId)).thenReturn(Arrays.asList(counter));
+		Mockito.when(serviceStepRepository.findByCounterId(stubbedCounterId)).thenReturn(getServiceStepsFromIds(stubbedStepIds));
+		Mockito.when(branchService.getCachedBranch(stubbedBranchId)).thenReturn(cached);
+		
+		List<Counter> counters = counterService.getBranchCountersFromDB(stubbedBranchId);
+		Assert.assertTrue("Counter steps should be read from DB", counters.get(0).getSteps().size() == stubbedStepIds.size());
+		Assert.assertTrue("Cached counter should come without tokens", counters.get(0).getTokens().isEmpty());
+		Mockito.verify(tokenRepository, Mockito.never()).getTokensForCounter(stubbedCounterId);
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.CounterServiceImpl#getAllCountersFromDB()}.
+	 */
+	@Test
+	public final void testGetAllCountersFromDB() {
+		Counter counter = new Counter();
+		counter.setBranchId(stubbedBranchId);
+		counter.setId(stubbedCounterId);
+		counter.setNumber(stubbedCounterNumber);
+		counter.setServicingType(stubbedCustomerType);
+		ServiceStep step = new ServiceStep();
+		step.setId(stubbedStepIds.get(0));
+		Token token = new Token();
+		token.setId(stubbedTokenId);
+		token.setNumber(stubbedTokenNumber);
+		token.setType(stubbedCustomerType);
+		Map<Long, List<Token>> tokens = new HashMap<>();
+		tokens.put(stubbedCounterId, Arrays.asList(token));
+		Mockito.when(counterRepository.findAll()).thenReturn(Arrays.asList(counter));
+		Mockito.when(serviceStepRepository.findAllCounterSteps()).thenReturn(Arrays.<Object[]>asList(new Object[] {stubbedCounterId, step}));
+		Mockito.when(tokenRepository.getTokensForAllCounters()).thenReturn(tokens);
+		
+		Map<Long, List<Counter>> counters = counterService.getAllCountersFromDB();
+		Assert.assertNotNull("Counter map should not be null", counters);
+		Assert.assertTrue("Counters should be mapped against their branch", counters.get(stubbedBranchId).size() == 1);
+		counter = counters.get(stubbedBranchId).get(0);
+		Assert.assertTrue("Counter should have stubbed step", counter.getSteps().size() == 1 && counter.getSteps().get(0) == step);
+		Assert.assertTrue("Counter should have stubbed token", counter.getTokens().poll() == token);
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.CounterServiceImpl#getAllCountersFromDB()}.
+	 * Queue order journaled before restart is restored, unjournaled tokens follow in DB order
+	 * 
+	 * @throws IOException 
+	 */
+	@Test
+	public final void testGetAllCountersFromDB_JournaledOrder() throws IOException {
+		Path directory = Files.createTempDirectory("queue-journal");
+		QueueJournal previousRun = new QueueJournal();
+		configureJournal(previousRun, directory);
+		previousRun.start();
+		for(int number = 3; number >= 1; number--)
+			previousRun.append(new QueueEvent(QueueEventType.ADDED, stubbedBranchId, stubbedCounterNumber, null, number, 0));
+		previousRun.append(new QueueEvent(QueueEventType.PULLED, stubbedBranchId, stubbedCounterNumber, null, 3, 0));
+		previousRun.stop();
+		
+		Counter counter = new Counter();
+		counter.setBranchId(stubbedBranchId);
+		counter.setId(stubbedCounterId);
+		counter.setNumber(stubbedCounterNumber);
+		counter.setServicingType(stubbedCustomerType);
+		List<Token> dbTokens = new ArrayList<>();
+		for(int number: new int[] {1, 4, 2}) {
+			Token token = new Token();
+			token.setNumber(number);
+			token.setType(stubbedCustomerType);
+			dbTokens.add(token);
+		}
+		Map<Long, List<Token>> tokens = new HashMap<>();
+		tokens.put(stubbedCounterId, dbTokens);
+		Mockito.when(counterRepository.findAll()).thenReturn(Arrays.asList(counter));
+		Mockito.when(tokenRepository.getTokensForAllCounters()).thenReturn(tokens);
+		
+		configureJournal(queueJournal, directory);
+		try {
+			queueJournal.start();
+			counter = counterService.getAllCountersFromDB().get(stubbedBranchId).get(0);
+			List<Integer> order = new ArrayList<>();
+			counter.getTokens().forEach(token -> order.add(token.getNumber()));
+			Assert.assertEquals("Tokens should be queued in journaled order", Arrays.asList(2, 1, 4), order);
+		} finally {
+			queueJournal.stop();
+			ReflectionTestUtils.setField(queueJournal, "enabled", false);
+			for(File file: directory.toFile().listFiles())
+				Files.delete(file.toPath());
+			Files.delete(directory);
+		}
+	}
+	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.QueueJournal#append(com.turvo.abcbanking.model.QueueEvent)}.
+	 * Events appended beyond segment size are compacted in background without losing any of them
+	 * 
+	 * @throws IOException 
+	 */
+	@Test
+	public final void testGetAllCountersFromDB_JournalCompactedInBackground() throws IOException {
+		Path directory = Files.createTempDirectory("queue-journal");
+		QueueJournal previousRun = new QueueJournal();
+		configureJournal(previousRun, directory);
+		previousRun.start();
+		for(int number = 1; number <= 500; number++)
+			previousRun.append(new QueueEvent(QueueEventType.ADDED, stubbedBranchId, stubbedCounterNumber, null, number, 0));
+		for(int number = 1; number <= 497; number++)
+			previousRun.append(new QueueEvent(QueueEventType.PULLED, stubbedBranchId, stubbedCounterNumber, null, number, 0));
+		previousRun.stop();
+		
+		Counter counter = new Counter();
+		counter.setBranchId(stubbedBranchId);
+		counter.setId(stubbedCounterId);
+		counter.setNumber(stubbedCounterNumber);
+		counter.setServicingType(stubbedCustomerType);
+		List<Token> dbTokens = new ArrayList<>();
+		for(int number: new int[] {500, 498, 499}) {
+			Token token = new Token();
+			token.setNumber(number);
+			token.setType(stubbedCustomerType);
+			dbTokens.add(token);
+		}
+		Map<Long, List<Token>> tokens = new HashMap<>();
+		tokens.put(stubbedCounterId, dbTokens);
+		Mockito.when(counterRepository.findAll()).thenReturn(Arrays.asList(counter));
+		Mockito.when(tokenRepository.getTokensForAllCounters()).thenReturn(tokens);
+		
+		configureJournal(queueJournal, directory);
+		try {
+			queueJournal.start();
+			counter = counterService.getAllCountersFromDB().get(stubbedBranchId).get(0);
+			List<Integer> order = new ArrayList<>();
+			counter.getTokens().forEach(token -> order.add(token.getNumber()));
+			Assert.assertEquals("Tokens should be queued in journaled order", Arrays.asList(498, 499, 500), order);
+		} finally {
+			queueJournal.stop();
+			ReflectionTestUtils.setField(queueJournal, "enabled", false);
+			for(File file: directory.toFile().listFiles())
+				Files.delete(file.toPath());
+			Files.delete(directory);
+		}
+	}
+	
+	private static void configureJournal(QueueJournal journal, Path directory) {
+		ReflectionTestUtils.setField(journal, "enabled", true);
+		ReflectionTestUtils.setField(journal, "directory", directory.toString());
+		ReflectionTestUtils.setField(journal, "segmentSize", 4096);
+		ReflectionTestUtils.setField(journal, "compactInterval", 60000L);
+		ReflectionTestUtils.setField(journal, "forceInterval", 1000L);
+	}
+
 	/**
 	 * Test method for {@link com.turvo.abcbanking.service.impl.CounterServiceImpl#createNewCounter(java.lang.String, java.lang.Long, com.turvo.abcbanking.model.Counter)}.
 	 */
@@ -270,6 +446,47 @@ public class CounterServiceImplTest {
 		Assert.assertNotNull("Counter should have tokens as it had prior to change in assignement", counter.hasToken(stubbedTokenNumber));
 	}
 	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.CounterServiceImpl#assignOperator(java.lang.String, java.lang.Long, java.lang.Integer, java.lang.String)}.
+	 * DB lags memory (a queued token not written yet, a served one still pending in DB), cached queue is kept as is
+	 */
+	@Test
+	public final void testAssignOperator_PendingWriteBehind() {
+		Counter cached = branchService.getBranch(stubbedBranchId).getCounter(stubbedCounterNumber);
+		Token unwritten = new Token();
+		unwritten.setId(stubbedTokenId + 1);
+		unwritten.setNumber(stubbedTokenNumber + 1);
+		unwritten.setType(stubbedCustomerType);
+		cached.addToken(unwritten);
+		Token served = new Token();
+		served.setId(stubbedTokenId + 2);
+		served.setNumber(stubbedTokenNumber + 2);
+		served.setType(stubbedCustomerType);
+		Mockito.when(tokenRepository.getTokensForCounter(stubbedCounterId)).thenReturn(Arrays.asList(cached.getTokens().peek(), served));
+		// merge returns a new instance like JPA does for a detached entity
+		Mockito.when(counterRepository.saveAndFlush(any(Counter.class))).then(invocation -> {
+			Counter counter = invocation.getArgumentAt(0, Counter.class);
+			Counter merged = new Counter();
+			merged.setId(counter.getId());
+			merged.setBranchId(counter.getBranchId());
+			merged.setNumber(counter.getNumber());
+			merged.setServicingType(counter.getServicingType());
+			merged.setCurrentOperator(counter.getCurrentOperator());
+			merged.setLastModifiedBy(counter.getLastModifiedBy());
+			return merged;
+		});
+		Queue<Token> queue = cached.getTokens();
+		List<Token> queued = new ArrayList<>(queue);
+		
+		Counter counter = counterService.assignOperator(stubbedBranchManagerId, stubbedBranchId, stubbedCounterNumber, stubbedNewOperatorId);
+		Assert.assertSame("Cached counter should be updated in place", cached, counter);
+		Assert.assertTrue(counter.getCurrentOperator().equals(stubbedNewOperatorId));
+		Assert.assertSame("Live token queue should be kept", queue, counter.getTokens());
+		Assert.assertEquals("Queued tokens should be unchanged", queued, new ArrayList<>(counter.getTokens()));
+		Assert.assertNull("Token served in memory should not come back from DB", counter.hasToken(served.getNumber()));
+		Mockito.verify(tokenRepository, Mockito.never()).getTokensForCounter(stubbedCounterId);
+	}
+	
 	/**
 	 * Test method for {@link com.turvo.abcbanking.service.impl.CounterServiceImpl#assignOperator(java.lang.String, java.lang.Long, java.lang.Integer, java.lang.String)}.
 	 */
@@ -415,6 +632,7 @@ public class CounterServiceImplTest {
 	@Test
 	public final void testServiceFirstCounter_Valid() {
 		counterService.serviceFirstCounter(stubbedOperatorId, stubbedBranchId, stubbedCounterNumber, "");
+		Mockito.verify(tokenWorkflowRepository, Mockito.timeout(2000).atLeastOnce()).save(anyListOf(TokenWorkflow.class));
 	}
 	
 	/**
@@ -62,6 +62,8 @@ public class CustomerServiceImplTest {
 		Mockito.when(customerRepository.findOne(anyLong())).thenReturn(null);
 		Mockito.when(customerRepository.findOne(stubbedCustomerAccountNumber)).thenReturn(customer);
 		Mockito.when(customerRepository.save(any(Customer.class))).then(AdditionalAnswers.returnsFirstArg());
+		customerService.evictCustomer(stubbedCustomerAccountNumber);
+		customerService.evictCustomer(nonExistingCustomerAccountNumber);
 	}
 	
 	/**
@@ -75,6 +77,19 @@ public class CustomerServiceImplTest {
 		Assert.assertTrue("Stubbed customer should have stubbed Customer Type", customer.getType() == stubbedCustomerType);
 	}
 	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.CustomerServiceImpl#getCustomer(java.lang.Long)}.
+	 */
+	@Test
+	public final void testGetCustomer_Cached() {
+		long misses = customerService.getCacheStatistics().get("misses");
+		customerService.getCustomer(stubbedCustomerAccountNumber);
+		customerService.getCustomer(stubbedCustomerAccountNumber);
+		
+		Mockito.verify(customerRepository, Mockito.times(1)).findOne(stubbedCustomerAccountNumber);
+		Assert.assertEquals("Only first lookup should miss", misses + 1, (long) customerService.getCacheStatistics().get("misses"));
+	}
+	
 	/**
 	 * Test method for {@link com.turvo.abcbanking.service.impl.CustomerServiceImpl#getCustomer(java.lang.Long)}.
 	 */
@@ -0,0 +1,267 @@
+package com.turvo.abcbanking.service.impl;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import com.turvo.abcbanking.exception.BusinessRuntimeException;
+import com.turvo.abcbanking.model.Token;
+import com.turvo.abcbanking.model.TokenStatus;
+import com.turvo.abcbanking.repository.TokenRepository;
+import com.turvo.abcbanking.utils.BranchMailbox;
+import com.turvo.abcbanking.utils.DBWriteBehindExecutor;
+
+/**
+ * Test class for write behind executor
+ *
+ * @author Prabal Ghura
+ *
+ */
+public class DBWriteBehindExecutorTest {
+
+	DBWriteBehindExecutor executor;
+
+	TokenRepository tokenRepository;
+
+	/**
+	 * Statuses of tokens as saved, in save order
+	 */
+	List<String> saved;
+
+	/**
+	 * Number of upcoming saves of first token to fail
+	 */
+	AtomicInteger failures;
+
+	// These are configurable settings
+
+	Long failingTokenId = 1L;
+	Long otherTokenId = 2L;
+
+	long timeout = 5000;
+
+	/**
+	 * Executor with a single lane, no batch retries & short replay interval
+	 */
+	@SuppressWarnings("unchecked")
+	@Before
+	public final void createExecutor() {
+		saved = Collections.synchronizedList(new ArrayList<>());
+		failures = new AtomicInteger();
+		tokenRepository = Mockito.mock(TokenRepository.class);
+		Mockito.when(tokenRepository.save(anyListOf(Token.class))).thenAnswer(invocation -> {
+			List<Token> tokens = (List<Token>) invocation.getArguments()[0];
+			for(Token token: tokens) {
+				if(token.getId().equals(failingTokenId) && failures.getAndUpdate(count -> Math.max(0, count - 1)) > 0)
+					throw new IllegalStateException("DB unavailable");
+			}
+			tokens.forEach(token -> saved.add(token.getId() + ":" + token.getStatus()));
+			return tokens;
+		});
+		PlatformTransactionManager transactionManager = Mockito.mock(PlatformTransactionManager.class);
+		Mockito.when(transactionManager.getTransaction(any(TransactionDefinition.class))).thenReturn(new SimpleTransactionStatus());
+
+		executor = new DBWriteBehindExecutor();
+		ReflectionTestUtils.setField(executor, "transactionManager", transactionManager);
+		ReflectionTestUtils.setField(executor, "enabled", true);
+		ReflectionTestUtils.setField(executor, "laneCount", 1);
+		ReflectionTestUtils.setField(executor, "capacity", 100);
+		ReflectionTestUtils.setField(executor, "batchSize", 10);
+		ReflectionTestUtils.setField(executor, "maxRetries", 0);
+		ReflectionTestUtils.setField(executor, "retryDelay", 0L);
+		ReflectionTestUtils.setField(executor, "replayInterval", 50L);
+		ReflectionTestUtils.setField(executor, "shutdownTimeout", timeout);
+		executor.start();
+	}
+
+	@After
+	public final void stopExecutor() {
+		executor.stop();
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.DBWriteBehindExecutor#submit(java.lang.Object, java.lang.Object, com.turvo.abcbanking.repository.BaseRepository)}.
+	 * Token is written as it was when submitted, later changes are written by their own submission only
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	public final void testSubmit_WritesStateAtSubmitTime() throws InterruptedException {
+		Token token = createToken(otherTokenId);
+		executor.submit(token.getId(), token, tokenRepository);
+		token.setStatus(TokenStatus.COMPLETED);
+		awaitSaves(1);
+		Assert.assertEquals("Token should be written as submitted", otherTokenId + ":" + TokenStatus.PENDING, saved.get(0));
+		Assert.assertFalse("Token should be marked persisted once written", token.isNew());
+
+		executor.submit(token.getId(), token, tokenRepository);
+		awaitSaves(2);
+		Assert.assertEquals(otherTokenId + ":" + TokenStatus.COMPLETED, saved.get(1));
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.DBWriteBehindExecutor#submit(java.lang.Object, java.lang.Object, com.turvo.abcbanking.repository.BaseRepository)}.
+	 * Failing write is parked & replayed till it succeeds, later writes of same token wait behind it while other tokens go through
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	public final void testSubmit_FailedWriteParkedAndReplayed() throws InterruptedException {
+		failures.set(5);
+		Token token = createToken(failingTokenId);
+		executor.submit(token.getId(), token, tokenRepository);
+		token.setStatus(TokenStatus.COMPLETED);
+		executor.submit(token.getId(), token, tokenRepository);
+		Token other = createToken(otherTokenId);
+		executor.submit(other.getId(), other, tokenRepository);
+
+		awaitSaves(3);
+		Assert.assertEquals("Other token should not wait for parked writes", otherTokenId + ":" + TokenStatus.PENDING, saved.get(0));
+		Assert.assertEquals("Parked write should be replayed first", failingTokenId + ":" + TokenStatus.PENDING, saved.get(1));
+		Assert.assertEquals("Later write should follow parked one", failingTokenId + ":" + TokenStatus.COMPLETED, saved.get(2));
+		Assert.assertTrue(executor.getParkedWrites() == 0);
+		Assert.assertTrue(executor.getPendingWrites() == 0);
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.DBWriteBehindExecutor#flush(long)}.
+	 * Flush returns once writes queued before it are written, and reports parked writes
+	 */
+	@Test
+	public final void testFlush() {
+		for(long id = 2; id <= 20; id++)
+			executor.submit(id, createToken(id), tokenRepository);
+		Assert.assertTrue("Flush should succeed", executor.flush(timeout));
+		Assert.assertTrue("Writes queued before flush should be written", saved.size() == 19);
+
+		failures.set(Integer.MAX_VALUE);
+		executor.submit(failingTokenId, createToken(failingTokenId), tokenRepository);
+		Assert.assertFalse("Flush should fail while a write is parked", executor.flush(timeout));
+		failures.set(0);
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.DBWriteBehindExecutor#flush(long)}.
+	 * Disabled executor writes synchronously, nothing is ever left to flush
+	 */
+	@Test
+	public final void testFlush_Disabled() {
+		DBWriteBehindExecutor disabled = new DBWriteBehindExecutor();
+		ReflectionTestUtils.setField(disabled, "transactionManager", ReflectionTestUtils.getField(executor, "transactionManager"));
+		ReflectionTestUtils.setField(disabled, "enabled", false);
+		disabled.start();
+		disabled.submit(otherTokenId, createToken(otherTokenId), tokenRepository);
+		Assert.assertTrue("Write should be saved on submitting thread", saved.size() == 1);
+		Assert.assertTrue("Flush of disabled executor should succeed", disabled.flush(timeout));
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.DBWriteBehindExecutor#stop()}.
+	 * Queued & parked writes are flushed on shutdown
+	 */
+	@Test
+	public final void testStop_FlushesPendingWrites() {
+		failures.set(2);
+		for(long id = 1; id <= 20; id++)
+			executor.submit(id, createToken(id), tokenRepository);
+		executor.stop();
+		Assert.assertTrue("All writes should be flushed", saved.size() == 20);
+		Assert.assertTrue(executor.getPendingWrites() == 0);
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.DBWriteBehindExecutor#submit(java.lang.Object, java.lang.Object, com.turvo.abcbanking.repository.BaseRepository)}.
+	 * Mailbox loop is not blocked by a full lane, overflowing writes are written in order & mailbox holds back new mutations meanwhile
+	 *
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 * @throws TimeoutException
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public final void testSubmit_FullLaneDoesNotBlockLoop() throws InterruptedException, ExecutionException, TimeoutException {
+		CountDownLatch release = new CountDownLatch(1);
+		TokenRepository blockingRepository = Mockito.mock(TokenRepository.class);
+		Mockito.when(blockingRepository.save(anyListOf(Token.class))).thenAnswer(invocation -> {
+			release.await();
+			return tokenRepository.save((List<Token>) invocation.getArguments()[0]);
+		});
+		DBWriteBehindExecutor small = new DBWriteBehindExecutor();
+		ReflectionTestUtils.setField(small, "transactionManager", ReflectionTestUtils.getField(executor, "transactionManager"));
+		ReflectionTestUtils.setField(small, "enabled", true);
+		ReflectionTestUtils.setField(small, "laneCount", 1);
+		ReflectionTestUtils.setField(small, "capacity", 1);
+		ReflectionTestUtils.setField(small, "batchSize", 1);
+		ReflectionTestUtils.setField(small, "replayInterval", 50L);
+		ReflectionTestUtils.setField(small, "shutdownTimeout", timeout);
+		small.start();
+		BranchMailbox mailbox = new BranchMailbox();
+		ReflectionTestUtils.setField(mailbox, "dbWriteBehindExecutor", small);
+		ReflectionTestUtils.setField(mailbox, "enabled", true);
+		ReflectionTestUtils.setField(mailbox, "loopCount", 1);
+		ReflectionTestUtils.setField(mailbox, "capacity", 10);
+		ReflectionTestUtils.setField(mailbox, "submitTimeout", 100L);
+		ReflectionTestUtils.setField(mailbox, "shutdownTimeout", timeout);
+		mailbox.start();
+		try {
+			CompletableFuture.runAsync(() -> mailbox.execute(otherTokenId, () -> {
+				for(long id = 2; id <= 6; id++)
+					small.submit(id, createToken(id), blockingRepository);
+			})).get(timeout, TimeUnit.MILLISECONDS);
+			Assert.assertFalse("Lane should overflow while writer is stuck", small.awaitCapacity(50));
+			Assert.assertTrue("Overflowing writes should be pending", small.getPendingWrites() >= 4);
+			try {
+				mailbox.execute(otherTokenId, () -> Assert.fail("Mutation should not run while a lane overflows"));
+				Assert.fail("Mutation should be rejected while a lane overflows");
+			} catch (BusinessRuntimeException e) {
+				// expected
+			}
+
+			release.countDown();
+			Assert.assertTrue("Overflowing writes should be flushed", small.flush(timeout));
+			Assert.assertTrue(small.awaitCapacity(timeout));
+			for(int i = 0; i < 5; i++)
+				Assert.assertEquals("Writes should be saved in submission order", (i + 2) + ":" + TokenStatus.PENDING, saved.get(i));
+		} finally {
+			release.countDown();
+			mailbox.stop();
+			small.stop();
+		}
+	}
+
+	private void awaitSaves(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while(saved.size() < count && System.currentTimeMillis() < deadline)
+			TimeUnit.MILLISECONDS.sleep(10);
+		Assert.assertTrue("Writes should be saved", saved.size() >= count);
+		TimeUnit.MILLISECONDS.sleep(50);
+		Assert.assertTrue("No write should be saved twice", saved.size() == count);
+	}
+
+	private Token createToken(Long id) {
+		Token token = new Token();
+		token.setId(id);
+		token.setNumber(id.intValue());
+		token.setStatus(TokenStatus.PENDING);
+		return token;
+	}
+}
@@ -0,0 +1,168 @@
+package com.turvo.abcbanking.service.impl;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mockito;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import com.turvo.abcbanking.exception.BusinessRuntimeException;
+import com.turvo.abcbanking.model.IdGenerator;
+import com.turvo.abcbanking.repository.IdGeneratorRepository;
+import com.turvo.abcbanking.utils.ApplicationConstants;
+import com.turvo.abcbanking.utils.CustomQueries;
+import com.turvo.abcbanking.utils.IdBlockAllocator;
+
+/**
+ * Test class for id block allocator
+ *
+ * @author Prabal Ghura
+ *
+ */
+public class IdBlockAllocatorTest {
+
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	IdBlockAllocator allocator;
+
+	IdGeneratorRepository idGeneratorRepository;
+
+	EntityManager entityManager;
+
+	// These are configurable settings
+
+	// low water mark of 0 reserves every block on calling thread (no prefetch)
+	int blockSize = 1;
+	int lowWaterMark = 0;
+
+	long maxTokenId = 41;
+
+	@Before
+	public final void createAllocator() {
+		idGeneratorRepository = Mockito.mock(IdGeneratorRepository.class);
+		Mockito.when(idGeneratorRepository.saveAndFlush(any(IdGenerator.class))).thenAnswer(invocation -> invocation.getArguments()[0]);
+		Query query = Mockito.mock(Query.class);
+		Mockito.when(query.getSingleResult()).thenReturn(maxTokenId + 1);
+		entityManager = Mockito.mock(EntityManager.class);
+		Mockito.when(entityManager.createQuery(CustomQueries.TOKEN_INITIAL_ID)).thenReturn(query);
+		PlatformTransactionManager transactionManager = Mockito.mock(PlatformTransactionManager.class);
+		Mockito.when(transactionManager.getTransaction(any(TransactionDefinition.class))).thenReturn(new SimpleTransactionStatus());
+
+		allocator = new IdBlockAllocator();
+		ReflectionTestUtils.setField(allocator, "idGeneratorRepository", idGeneratorRepository);
+		ReflectionTestUtils.setField(allocator, "transactionManager", transactionManager);
+		ReflectionTestUtils.setField(allocator, "entityManager", entityManager);
+		ReflectionTestUtils.setField(allocator, "blockSize", blockSize);
+		ReflectionTestUtils.setField(allocator, "lowWaterMark", lowWaterMark);
+		allocator.init();
+	}
+
+	@After
+	public final void destroyAllocator() {
+		allocator.destroy();
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.IdBlockAllocator#next(java.lang.String)}.
+	 * Ids keep coming from the generator row across blocks, prefetched in background
+	 */
+	@Test
+	public final void testNext_UniqueAcrossBlocks() {
+		ReflectionTestUtils.setField(allocator, "blockSize", 10);
+		ReflectionTestUtils.setField(allocator, "lowWaterMark", 10);
+		IdGenerator generator = new IdGenerator(IdBlockAllocator.TOKEN, 1L);
+		Mockito.when(idGeneratorRepository.findForUpdate(IdBlockAllocator.TOKEN)).thenReturn(generator);
+		Set<Long> ids = new HashSet<>();
+		for(int i = 0; i < 100; i++)
+			Assert.assertTrue("Ids should not repeat", ids.add(allocator.next(IdBlockAllocator.TOKEN)));
+		Assert.assertTrue("Generator row should be moved past handed out ids", generator.getValue() > 100);
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.IdBlockAllocator#prefetch(java.lang.String)}.
+	 * Prefetched generator hands out ids without reserving a block on calling thread
+	 */
+	@Test
+	public final void testPrefetch_ReservesOffCaller() {
+		ReflectionTestUtils.setField(allocator, "blockSize", 10);
+		ReflectionTestUtils.setField(allocator, "lowWaterMark", 25);
+		IdGenerator generator = new IdGenerator(IdBlockAllocator.TOKEN, 1L);
+		Set<String> reservingThreads = Collections.synchronizedSet(new HashSet<>());
+		Mockito.when(idGeneratorRepository.findForUpdate(IdBlockAllocator.TOKEN)).thenAnswer(invocation -> {
+			reservingThreads.add(Thread.currentThread().getName());
+			return generator;
+		});
+		allocator.prefetch(IdBlockAllocator.TOKEN);
+		Set<Long> ids = new HashSet<>();
+		for(int i = 0; i < 100; i++)
+			Assert.assertTrue("Ids should not repeat", ids.add(allocator.next(IdBlockAllocator.TOKEN)));
+		Assert.assertFalse("Blocks should not be reserved on calling thread", reservingThreads.contains(Thread.currentThread().getName()));
+		Assert.assertTrue(reservingThreads.contains("id-block-prefetch"));
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.IdBlockAllocator#next(java.lang.String)}.
+	 * Missing generator row starts after max id of its entity
+	 */
+	@Test
+	public final void testNext_MissingGenerator() {
+		Assert.assertTrue("Ids should start after max id", allocator.next(IdBlockAllocator.TOKEN) == maxTokenId + 1);
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.IdBlockAllocator#next(java.lang.String)}.
+	 * Instance losing the race to insert generator row reserves from the row inserted by the other one
+	 */
+	@Test
+	public final void testNext_GeneratorInsertedConcurrently() {
+		long otherInstanceValue = 500;
+		Mockito.when(idGeneratorRepository.findForUpdate(IdBlockAllocator.TOKEN))
+				.thenReturn(null)
+				.thenReturn(new IdGenerator(IdBlockAllocator.TOKEN, otherInstanceValue));
+		Mockito.when(idGeneratorRepository.saveAndFlush(any(IdGenerator.class)))
+				.thenThrow(new DataIntegrityViolationException("Duplicate entry for key 'PRIMARY'"))
+				.thenAnswer(invocation -> invocation.getArguments()[0]);
+		Assert.assertTrue("Ids should come from generator row inserted by other instance",
+				allocator.next(IdBlockAllocator.TOKEN) == otherInstanceValue);
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.IdBlockAllocator#next(java.lang.String)}.
+	 */
+	@Test
+	public final void testNext_ReserveFailure() {
+		Mockito.when(idGeneratorRepository.findForUpdate(anyString())).thenThrow(new QueryTimeoutException("Lock wait timeout exceeded"));
+		exception.expect(BusinessRuntimeException.class);
+		exception.expectMessage(ApplicationConstants.ERR_ID_RESERVE_FAILED);
+		allocator.next(IdBlockAllocator.TOKEN);
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.IdBlockAllocator#next(java.lang.String)}.
+	 */
+	@Test
+	public final void testNext_UnknownGenerator() {
+		exception.expect(BusinessRuntimeException.class);
+		exception.expectMessage(ApplicationConstants.ERR_ID_GENERATOR_NOT_EXIST);
+		allocator.next("CUSTOMER");
+	}
+}
@@ -0,0 +1,131 @@
+package com.turvo.abcbanking.service.impl;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.turvo.abcbanking.model.Branch;
+import com.turvo.abcbanking.model.Counter;
+import com.turvo.abcbanking.model.CustomerType;
+import com.turvo.abcbanking.model.Token;
+import com.turvo.abcbanking.model.TokenWorkflow;
+import com.turvo.abcbanking.model.TokenWorklowStatus;
+import com.turvo.abcbanking.service.BranchService;
+import com.turvo.abcbanking.service.MetricsService;
+
+/**
+ * Test class for Metrics service
+ * 
+ * @author Prabal Ghura
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class MetricsServiceImplTest {
+
+	@Autowired
+	MetricsService metricsService;
+	
+	@MockBean
+	BranchService branchService;
+	
+	// These are configurable settings
+	
+	Long stubbedBranchId = 1L;
+	Integer stubbedCounterNumber = 1;
+	
+	// step id used only by this test class, so that its service time histogram starts empty
+	Long stubbedStepId = 1001L;
+	
+	/**
+	 * Stubbing all dependencies at one place
+	 */
+	@Before
+	public final void stubDependencies() {
+		Branch branch = new Branch();
+		branch.setId(stubbedBranchId);
+		
+		Counter counter = new Counter();
+		counter.setBranchId(stubbedBranchId);
+		counter.setNumber(stubbedCounterNumber);
+		counter.setServicingType(CustomerType.REGULAR);
+		branch.updateCounter(counter);
+		counter.addToken(getToken(1));
+		counter.addToken(getToken(2));
+		
+		Mockito.when(branchService.getCachedBranches()).thenReturn(Arrays.asList(branch));
+		Map<String, Object> cacheStatistics = new LinkedHashMap<>();
+		cacheStatistics.put("warmingUp", true);
+		Mockito.when(branchService.getCacheStatistics()).thenReturn(cacheStatistics);
+	}
+	
+	private Token getToken(Integer number) {
+		Token token = new Token();
+		token.setNumber(number);
+		token.setCreatedDate(new Date());
+		return token;
+	}
+	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.MetricsServiceImpl#getMetrics()}.
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public final void testGetMetrics_QueueDepth() {
+		List<Map<String, Object>> branches = (List<Map<String, Object>>) metricsService.getMetrics().get("branches");
+		
+		Assert.assertEquals("Stubbed branch should be reported", 1, branches.size());
+		Assert.assertEquals("Branch queue depth should be sum of counter depths", 2, branches.get(0).get("queueDepth"));
+		List<Map<String, Object>> counters = (List<Map<String, Object>>) branches.get(0).get("counters");
+		Assert.assertEquals("Counter queue depth should be reported", 2, counters.get(0).get("queueDepth"));
+	}
+	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.MetricsServiceImpl#getMetrics()}.
+	 * Metrics read cached branches only and report branch cache state on its own
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public final void testGetMetrics_CachedBranchesOnly() {
+		Map<String, Object> metrics = metricsService.getMetrics();
+		Assert.assertEquals("Warm up state should be reported", true, ((Map<String, Object>) metrics.get("branchCache")).get("warmingUp"));
+		Mockito.verify(branchService, Mockito.never()).getAllBranches();
+		Mockito.verify(branchService, Mockito.never()).getBranch(Mockito.anyLong());
+	}
+	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.MetricsServiceImpl#recordStepServed(com.turvo.abcbanking.model.Token, com.turvo.abcbanking.model.TokenWorkflow)}.
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public final void testRecordStepServed() {
+		Token token = getToken(3);
+		token.setBranchId(stubbedBranchId);
+		TokenWorkflow step = new TokenWorkflow();
+		step.setStepId(stubbedStepId);
+		step.setStatus(TokenWorklowStatus.ASSIGNED);
+		long queued = ((Number) ((Map<String, Object>) metricsService.getMetrics().get("timeInQueueMs")).get("count")).longValue();
+		
+		step.setStatus(TokenWorklowStatus.COMPLETED);
+		metricsService.recordStepServed(token, step);
+		
+		Map<String, Object> metrics = metricsService.getMetrics();
+		Map<Long, Map<String, Object>> serviceTimes = (Map<Long, Map<String, Object>>) metrics.get("serviceTimeMs");
+		Assert.assertEquals("Time in queue should be recorded", queued + 1, 
+				((Number) ((Map<String, Object>) metrics.get("timeInQueueMs")).get("count")).longValue());
+		Assert.assertTrue("Service time of step should be recorded", serviceTimes.containsKey(stubbedStepId));
+		Assert.assertEquals("Service time of step should be recorded once", 1L, serviceTimes.get(stubbedStepId).get("count"));
+	}
+}
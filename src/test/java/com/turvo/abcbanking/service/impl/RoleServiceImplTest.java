@@ -3,6 +3,7 @@ package com.turvo.abcbanking.service.impl;
 import static org.mockito.Matchers.anyString;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Objects;
 
 import org.junit.Assert;
@@ -16,13 +17,16 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import com.turvo.abcbanking.exception.BusinessRuntimeException;
+import com.turvo.abcbanking.model.Role;
 import com.turvo.abcbanking.repository.RoleRepository;
 import com.turvo.abcbanking.repository.UserRepository;
 import com.turvo.abcbanking.repository.UserXRoleRepository;
 import com.turvo.abcbanking.service.RoleService;
 import com.turvo.abcbanking.utils.ApplicationConstants;
+import com.turvo.abcbanking.utils.BranchSharding;
 
 /**
  * Test class for Role service
@@ -46,6 +50,9 @@ public class RoleServiceImplTest {
 	@MockBean
 	UserXRoleRepository userXroleRepository;
 	
+	@Autowired
+	BranchSharding branchSharding;
+	
 	@Rule
 	public ExpectedException exception = ExpectedException.none();
 	
@@ -66,8 +73,16 @@ public class RoleServiceImplTest {
 		Mockito.when(roleRepository.checkAccess(stubbedUserId, assignedRole)).thenReturn(1);
 		Mockito.when(userRepository.exists(anyString())).thenReturn(false);
 		Mockito.when(userRepository.exists(stubbedUserId)).thenReturn(true);
-		Mockito.when(roleRepository.getRolesForUser(stubbedUserId)).thenReturn(new ArrayList<>());
+		Mockito.when(roleRepository.getRolesForUser(stubbedUserId)).thenReturn(Arrays.asList(getAssignedRole()));
+		Mockito.when(roleRepository.getAllUserRoleNames()).thenReturn(new ArrayList<>());
 		Mockito.when(roleRepository.findAll()).thenReturn(new ArrayList<>());
+		roleService.reloadRoleCache();
+	}
+	
+	private Role getAssignedRole() {
+		Role role = new Role();
+		role.setName(assignedRole);
+		return role;
 	}
 	
 	/**
@@ -78,6 +93,26 @@ public class RoleServiceImplTest {
 		Assert.assertFalse("Access should not be present", roleService.checkAccessForUser(nonExistingUserId, assignedRole));
 	}
 	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.RoleServiceImpl#checkAccessForUser(java.lang.String, java.lang.String)}.
+	 * Unknown user is not cached, so a user created later gets access without any invalidation
+	 */
+	@Test
+	public final void testCheckAccessForUserCreatedLater() {
+		Assert.assertFalse("Access should not be present", roleService.checkAccessForUser(nonExistingUserId, assignedRole));
+		Mockito.when(userRepository.exists(nonExistingUserId)).thenReturn(true);
+		Mockito.when(roleRepository.getRolesForUser(nonExistingUserId)).thenReturn(Arrays.asList(getAssignedRole()));
+		Assert.assertTrue("Unknown user should not be cached", roleService.checkAccessForUser(nonExistingUserId, assignedRole));
+	}
+	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.RoleServiceImpl#checkAccessForUser(java.lang.String, java.lang.String)}.
+	 */
+	@Test
+	public final void testCheckAccessForUserNullUser() {
+		Assert.assertFalse("Access should not be present", roleService.checkAccessForUser(null, assignedRole));
+	}
+	
 	/**
 	 * Test method for {@link com.turvo.abcbanking.service.impl.RoleServiceImpl#checkAccessForUser(java.lang.String, java.lang.String)}.
 	 */
@@ -86,6 +121,47 @@ public class RoleServiceImplTest {
 		Assert.assertTrue("Access should be present", roleService.checkAccessForUser(stubbedUserId, assignedRole));
 	}
 
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.RoleServiceImpl#invalidateUserRoles(java.lang.String)}.
+	 */
+	@Test
+	public final void testInvalidateUserRoles() {
+		Assert.assertTrue("Access should be present", roleService.checkAccessForUser(stubbedUserId, assignedRole));
+		Mockito.when(roleRepository.getRolesForUser(stubbedUserId)).thenReturn(new ArrayList<>());
+		Assert.assertTrue("Access should be served from cache", roleService.checkAccessForUser(stubbedUserId, assignedRole));
+		roleService.invalidateUserRoles(stubbedUserId);
+		Assert.assertFalse("Access should be re-loaded after invalidation", roleService.checkAccessForUser(stubbedUserId, assignedRole));
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.RoleServiceImpl#invalidateUserRoles(java.lang.String)}.
+	 * Other members are asked to drop their copy too
+	 */
+	@Test
+	public final void testInvalidateUserRoles_Clustered() throws Exception {
+		ReflectionTestUtils.setField(branchSharding, "self", "http://node-a");
+		try(ClusterNodeStub otherNode = new ClusterNodeStub()) {
+			branchSharding.setMembership(Arrays.asList("http://node-a", otherNode.getUrl()));
+			roleService.invalidateUserRoles("user id");
+			Assert.assertTrue("Other member should be asked to evict user roles",
+					otherNode.await("POST /api/cluster/roles/evict?userId=user+id", 5000));
+		} finally {
+			ReflectionTestUtils.setField(branchSharding, "self", "");
+			branchSharding.setMembership(new ArrayList<>());
+		}
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.RoleServiceImpl#evictUserRoles(java.lang.String)}.
+	 */
+	@Test
+	public final void testEvictUserRoles() {
+		Assert.assertTrue("Access should be present", roleService.checkAccessForUser(stubbedUserId, assignedRole));
+		Mockito.when(roleRepository.getRolesForUser(stubbedUserId)).thenReturn(new ArrayList<>());
+		roleService.evictUserRoles(stubbedUserId);
+		Assert.assertFalse("Access should be re-loaded after eviction", roleService.checkAccessForUser(stubbedUserId, assignedRole));
+	}
+
 	/**
 	 * Test method for {@link com.turvo.abcbanking.service.impl.RoleServiceImpl#getUserRoles(java.lang.String)}.
 	 */
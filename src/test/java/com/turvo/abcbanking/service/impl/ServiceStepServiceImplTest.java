@@ -19,6 +19,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import com.turvo.abcbanking.exception.BusinessRuntimeException;
 import com.turvo.abcbanking.model.Service;
@@ -29,6 +30,7 @@ import com.turvo.abcbanking.repository.ServiceXServiceStepRepository;
 import com.turvo.abcbanking.service.RoleService;
 import com.turvo.abcbanking.service.ServiceStepService;
 import com.turvo.abcbanking.utils.ApplicationConstants;
+import com.turvo.abcbanking.utils.BranchSharding;
 
 /**
  * Test class for Service Step service
@@ -55,6 +57,9 @@ public class ServiceStepServiceImplTest {
 	@MockBean
 	RoleService roleService;
 	
+	@Autowired
+	BranchSharding branchSharding;
+	
 	@Rule
 	public ExpectedException exception = ExpectedException.none();
 	
@@ -254,4 +259,24 @@ public class ServiceStepServiceImplTest {
 		List<ServiceStep> stepList = Arrays.asList(step, step, step);
 		serviceStepService.defineWorkFlowForService("userIdWithAccess", stubbedServiceId, stepList);
 	}
+	
+	/**
+	 * Test method for {@link com.turvo.abcbanking.service.impl.ServiceStepServiceImpl#defineWorkFlowForService(java.lang.String, java.lang.Long, java.util.List)}.
+	 * Other members are asked to refresh the service's workflow
+	 */
+	@Test
+	public final void testDefineWorkFlowForService_Clustered() throws Exception {
+		ServiceStep step = new ServiceStep();
+		step.setId(stubbedServiceStepId);
+		ReflectionTestUtils.setField(branchSharding, "self", "http://node-a");
+		try(ClusterNodeStub otherNode = new ClusterNodeStub()) {
+			branchSharding.setMembership(Arrays.asList("http://node-a", otherNode.getUrl()));
+			serviceStepService.defineWorkFlowForService("userIdWithAccess", stubbedServiceId, Arrays.asList(step));
+			Assert.assertTrue("Other member should be asked to refresh service",
+					otherNode.await("POST /api/cluster/services/" + stubbedServiceId + "/refresh", 5000));
+		} finally {
+			ReflectionTestUtils.setField(branchSharding, "self", "");
+			branchSharding.setMembership(new ArrayList<>());
+		}
+	}
 }
@@ -0,0 +1,107 @@
+package com.turvo.abcbanking.service.impl;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.turvo.abcbanking.exception.BusinessRuntimeException;
+import com.turvo.abcbanking.utils.ApplicationConstants;
+import com.turvo.abcbanking.utils.TokenNumberGenerator;
+
+/**
+ * Test class for branch token number generator
+ *
+ * @author Prabal Ghura
+ *
+ */
+public class TokenNumberGeneratorTest {
+
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	// These are configurable settings
+
+	int maxNumber = 5;
+
+	TokenNumberGenerator generator;
+
+	@Before
+	public final void createGenerator() {
+		generator = new TokenNumberGenerator();
+		generator.setMaxNumber(maxNumber);
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.TokenNumberGenerator#next()}.
+	 */
+	@Test
+	public final void testNext_ContinuesFromSeed() {
+		generator.seed(3);
+		Assert.assertTrue(generator.next() == 4);
+		Assert.assertTrue(generator.current() == 4);
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.TokenNumberGenerator#next()}.
+	 */
+	@Test
+	public final void testNext_WrapsAround() {
+		generator.seed(maxNumber - 1);
+		Assert.assertTrue(generator.next() == maxNumber);
+		Assert.assertTrue("Numbering should wrap around after max number", generator.next() == 1);
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.TokenNumberGenerator#next()}.
+	 */
+	@Test
+	public final void testNext_DailyReset() {
+		generator.setDailyReset(true);
+		generator.seed(3);
+		((AtomicLong) ReflectionTestUtils.getField(generator, "lastIssueDay")).set(LocalDate.now().minusDays(1).toEpochDay());
+		Assert.assertTrue("Numbering should restart on a new day", generator.next() == 1);
+		Assert.assertTrue(generator.next() == 2);
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.TokenNumberGenerator#next(java.util.function.IntPredicate)}.
+	 */
+	@Test
+	public final void testNext_SkipsNumbersInUseAfterWraparound() {
+		Set<Integer> queued = new HashSet<>(Arrays.asList(1, 2, 4));
+		generator.seed(maxNumber);
+		Assert.assertTrue("Queued numbers should be skipped", generator.next(queued::contains) == 3);
+		Assert.assertTrue(generator.next(queued::contains) == 5);
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.TokenNumberGenerator#next(java.util.function.IntPredicate)}.
+	 */
+	@Test
+	public final void testNext_SkipsNumbersInUseAfterDailyReset() {
+		Set<Integer> queued = new HashSet<>(Arrays.asList(1, 2));
+		generator.setDailyReset(true);
+		generator.seed(4);
+		((AtomicLong) ReflectionTestUtils.getField(generator, "lastIssueDay")).set(LocalDate.now().minusDays(1).toEpochDay());
+		Assert.assertTrue("Queued numbers should be skipped", generator.next(queued::contains) == 3);
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.TokenNumberGenerator#next(java.util.function.IntPredicate)}.
+	 */
+	@Test
+	public final void testNext_AllNumbersInUse() {
+		exception.expect(BusinessRuntimeException.class);
+		exception.expectMessage(ApplicationConstants.ERR_TOKEN_NUMBER_EXHAUSTED);
+		generator.next(number -> true);
+	}
+}
@@ -0,0 +1,168 @@
+package com.turvo.abcbanking.service.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.turvo.abcbanking.model.Token;
+import com.turvo.abcbanking.utils.TokenQueue;
+
+/**
+ * Test class for counter token queue
+ *
+ * @author Prabal Ghura
+ *
+ */
+public class TokenQueueTest {
+
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	TokenQueue queue;
+
+	// These are configurable settings
+
+	List<Integer> queuedNumbers = Arrays.asList(1, 2, 3, 4);
+	Integer nonQueuedNumber = 5;
+
+	@Before
+	public final void createQueue() {
+		queue = new TokenQueue();
+		for(Integer number: queuedNumbers)
+			queue.offer(createToken(number));
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.TokenQueue#poll()}.
+	 */
+	@Test
+	public final void testPoll_FifoOrder() {
+		for(Integer number: queuedNumbers)
+			Assert.assertEquals("Tokens should be polled in offer order", number, queue.poll().getNumber());
+		Assert.assertNull("Empty queue should poll null", queue.poll());
+		Assert.assertTrue(queue.size() == 0);
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.TokenQueue#offer(com.turvo.abcbanking.model.Token)}.
+	 * Token with a number already queued is rejected and queue is left unchanged
+	 */
+	@Test
+	public final void testOffer_DuplicateNumber() {
+		Token duplicate = createToken(queuedNumbers.get(1));
+		try {
+			queue.offer(duplicate);
+			Assert.fail("Duplicate token number should be rejected");
+		} catch (IllegalArgumentException e) {
+			Assert.assertTrue(e.getMessage().contains(String.valueOf(queuedNumbers.get(1))));
+		}
+		Assert.assertTrue("Rejected token should not be queued", queue.size() == queuedNumbers.size());
+		Assert.assertNotSame("Index should keep queued token", duplicate, queue.get(queuedNumbers.get(1)));
+		Assert.assertFalse(queue.contains(duplicate));
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.TokenQueue#offer(com.turvo.abcbanking.model.Token)}.
+	 * A number can be queued again once its token has left the queue
+	 */
+	@Test
+	public final void testOffer_NumberReusedAfterPoll() {
+		Token first = queue.poll();
+		Token again = createToken(first.getNumber());
+		queue.offer(again);
+		Assert.assertSame("Reused number should be indexed to new token", again, queue.get(first.getNumber()));
+		Assert.assertSame("Reused number should be queued at tail", again, queue.toArray(new Token[0])[queue.size() - 1]);
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.TokenQueue#offer(com.turvo.abcbanking.model.Token)}.
+	 * Tokens without number are queued but not indexed
+	 */
+	@Test
+	public final void testOffer_WithoutNumber() {
+		Token first = new Token();
+		Token second = new Token();
+		queue.offer(first);
+		queue.offer(second);
+		Assert.assertTrue(queue.size() == queuedNumbers.size() + 2);
+		Assert.assertNull(queue.get(null));
+		Assert.assertTrue("Token without number should be removed by traversal", queue.remove(second));
+		Assert.assertTrue(queue.contains(first));
+		Assert.assertFalse(queue.contains(second));
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.TokenQueue#removeByNumber(java.lang.Integer)}.
+	 */
+	@Test
+	public final void testRemoveByNumber() {
+		Integer middle = queuedNumbers.get(1);
+		Assert.assertEquals(middle, queue.removeByNumber(middle).getNumber());
+		Assert.assertNull("Removed token should not be found", queue.get(middle));
+		Assert.assertNull(queue.removeByNumber(nonQueuedNumber));
+		Assert.assertTrue(queue.size() == queuedNumbers.size() - 1);
+		List<Integer> remaining = new ArrayList<>();
+		queue.forEach(token -> remaining.add(token.getNumber()));
+		List<Integer> expected = new ArrayList<>(queuedNumbers);
+		expected.remove(middle);
+		Assert.assertEquals("Order of remaining tokens should be kept", expected, remaining);
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.TokenQueue#remove(java.lang.Object)}.
+	 * Only the queued instance is removed, not another token carrying same number
+	 */
+	@Test
+	public final void testRemove_OtherInstanceWithSameNumber() {
+		Integer number = queuedNumbers.get(0);
+		Assert.assertFalse("Other instance should not be removed", queue.remove(createToken(number)));
+		Assert.assertNotNull(queue.get(number));
+		Assert.assertTrue(queue.remove(queue.get(number)));
+		Assert.assertNull(queue.get(number));
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.TokenQueue#iterator()}.
+	 * Iterator works on a snapshot and removes through the queue
+	 */
+	@Test
+	public final void testIterator_Snapshot() {
+		Iterator<Token> iterator = queue.iterator();
+		queue.offer(createToken(nonQueuedNumber));
+		int count = 0;
+		while(iterator.hasNext()) {
+			Token token = iterator.next();
+			count++;
+			if(token.getNumber().equals(queuedNumbers.get(0)))
+				iterator.remove();
+		}
+		Assert.assertTrue("Iterator should not see tokens offered after it was created", count == queuedNumbers.size());
+		Assert.assertNull("Token removed through iterator should leave queue", queue.get(queuedNumbers.get(0)));
+		Assert.assertTrue(queue.size() == queuedNumbers.size());
+	}
+
+	/**
+	 * Test method for {@link com.turvo.abcbanking.utils.TokenQueue#clear()}.
+	 */
+	@Test
+	public final void testClear() {
+		queue.clear();
+		Assert.assertTrue(queue.isEmpty());
+		Assert.assertNull(queue.peek());
+		queue.offer(createToken(queuedNumbers.get(0)));
+		Assert.assertTrue("Numbers should be free after clear", queue.size() == 1);
+	}
+
+	private Token createToken(Integer number) {
+		Token token = new Token();
+		token.setNumber(number);
+		return token;
+	}
+}
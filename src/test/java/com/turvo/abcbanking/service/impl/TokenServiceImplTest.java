@@ -1,6 +1,5 @@
 package com.turvo.abcbanking.service.impl;
 
-import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
@@ -14,7 +13,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
-import org.mockito.AdditionalAnswers;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
@@ -88,6 +87,9 @@ public class TokenServiceImplTest {
 	Integer regularTokenNumber = 1;
 	Integer nonExistingTokenNumber = 2;
 	
+	// time to wait for write behind executor
+	long writeBehindTimeout = 2000;
+	
 	/**
 	 * To create service instances for mocking
 	 * 
@@ -148,7 +150,11 @@ public class TokenServiceImplTest {
 		branch.updateCounter(counter);
 		
 		Mockito.when(branchService.getBranch(stubbedBranchId)).thenReturn(branch);
-		Mockito.when(tokenRepository.save(any(Token.class))).then(AdditionalAnswers.returnsFirstArg());
+		Mockito.when(tokenRepository.save(anyListOf(Token.class))).thenAnswer(new Answer<Object>() {
+		    public Object answer(InvocationOnMock invocation) {
+		        return invocation.getArguments()[0];
+		    }
+		});
 		Mockito.when(branchService.getBestCounter(eq(stubbedBranchId), eq(CustomerType.REGULAR), anyLong())).thenReturn(branch.getCounter(regularCounterNumber));
 		Mockito.when(branchService.getBestCounter(eq(stubbedBranchId), eq(CustomerType.PREMIUM), anyLong())).thenReturn(branch.getCounter(premiumCounterNumber));
 		Mockito.when(tokenWorkflowRepository.save(anyListOf(TokenWorkflow.class))).thenAnswer(new Answer<Object>() {
@@ -364,6 +370,8 @@ public class TokenServiceImplTest {
 		Assert.assertTrue("Token's first step must be assigned", token.getSteps().get(0).getStatus() == TokenWorklowStatus.ASSIGNED);
 		Assert.assertTrue("Token's workflow must be assigned to best Regular Counter", token.getSteps().get(0).getCounterId() == regularCounterId);
 		Assert.assertTrue("Token must be assigned to best Regular Counter", token.getCounterNumber() == regularCounterNumber);
+		Mockito.verify(tokenRepository, Mockito.timeout(writeBehindTimeout).atLeastOnce()).save(anyListOf(Token.class));
+		Mockito.verify(tokenWorkflowRepository, Mockito.timeout(writeBehindTimeout).atLeastOnce()).save(anyListOf(TokenWorkflow.class));
 	}
 	
 	/**
@@ -399,11 +407,16 @@ public class TokenServiceImplTest {
 	/**
 	 * Test method for {@link com.turvo.abcbanking.service.impl.TokenServiceImpl#markTokenAsCompleted(java.lang.String, java.lang.Long, java.lang.Integer)}.
 	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
 	@Test
 	public final void testMarkTokenAsCompleted_ByOperatorValid() {
 		Assert.assertNotNull("Counter should have token originally", branchService.getBranch(stubbedBranchId).getCounter(regularCounterNumber).hasToken(regularTokenNumber));
 		tokenService.markTokenAsCompleted("validOperatorRegular", stubbedBranchId, regularTokenNumber);
 		Assert.assertNull("Counter should have been removed from counter", branchService.getBranch(stubbedBranchId).getCounter(regularCounterNumber).hasToken(regularTokenNumber));
+		ArgumentCaptor<List> saved = ArgumentCaptor.forClass(List.class);
+		Mockito.verify(tokenRepository, Mockito.timeout(writeBehindTimeout).atLeastOnce()).save(saved.capture());
+		Assert.assertTrue("Completed token must be written behind", saved.getAllValues().stream().flatMap(List<?>::stream)
+				.anyMatch(token -> ((Token) token).getNumber() == regularTokenNumber && ((Token) token).getStatus() == TokenStatus.COMPLETED));
 	}
 	
 	/**